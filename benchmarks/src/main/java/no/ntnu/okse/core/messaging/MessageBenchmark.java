@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.messaging;
+
+import no.ntnu.okse.core.topic.Topic;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the construction of Message objects, and the generation of mapped messages in the MessageService.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int mappings;
+
+    private MessageService messageService;
+    private HashSet<Topic> topics;
+    private ArrayList<String> topicStrings;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        messageService = MessageService.getInstance();
+        topics = new HashSet<>();
+        topicStrings = new ArrayList<>();
+        for (int i = 0; i < mappings; i++) {
+            topics.add(new Topic("mapped" + i, "Default"));
+            topicStrings.add("mapped" + i);
+        }
+        message = new Message("benchmark payload", "origin/topic", null, "Benchmark");
+    }
+
+    @Benchmark
+    public Message construct() {
+        return new Message("benchmark payload", "origin/topic", null, "Benchmark");
+    }
+
+    @Benchmark
+    public List<Message> generateMessageForAGivenTopicSet() {
+        return messageService.generateMessageForAGivenTopicSet(message, topics);
+    }
+
+    @Benchmark
+    public List<Message> generateMappedMessages() {
+        return messageService.generateMappedMessages(message, topicStrings);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.subscription;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks subscriber lookup by topic as the number of subscribers on the broker grows.
+ * The subscribers are spread evenly over a fixed number of topics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubscriptionServiceBenchmark {
+
+    private static final int TOPICS = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int subscribers;
+
+    private SubscriptionService subscriptionService;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        subscriptionService = SubscriptionService.getInstance();
+        subscriptionService.boot();
+        for (int i = 0; i < subscribers; i++) {
+            subscriptionService.addSubscriber(new Subscriber("127.0.0.1", 1024 + (i % 60000), "topic" + (i % TOPICS), "Benchmark"));
+        }
+        // Subscribers are added asynchronously by the service thread
+        while (subscriptionService.getNumberOfSubscribers() < subscribers) Thread.sleep(10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        subscriptionService.stop();
+    }
+
+    @Benchmark
+    public Set<Subscriber> getAllSubscribersForTopic() {
+        return subscriptionService.getAllSubscribersForTopic("topic42");
+    }
+}
@@ -0,0 +1,58 @@
+package no.ntnu.okse.protocol.mqtt;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of resolving the subscribers of a published topic as the number of subscriptions grows.
+ * The trie lookup should stay flat, while the linear scan the subscription manager used to do grows with
+ * the number of subscriptions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MQTTSubscriptionTrieBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int subscriptions;
+
+    private MQTTSubscriptionTrie trie;
+    private ArrayList<MQTTSubscriber> list;
+    private String topic;
+
+    @Setup
+    public void setUp() {
+        trie = new MQTTSubscriptionTrie();
+        list = new ArrayList<>(subscriptions);
+        for (int i = 0; i < subscriptions; i++) {
+            // Spread the subscriptions over a three level topic tree, with every hundredth being a wildcard
+            String filter;
+            if (i % 100 == 0) filter = "building/" + (i % 1000) + "/+/temperature";
+            else filter = "building/" + (i % 1000) + "/" + (i / 1000) + "/temperature";
+            MQTTSubscriber sub = new MQTTSubscriber("127.0.0.1", 1024 + (i % 60000), filter, "client" + i, null);
+            trie.add(sub);
+            list.add(sub);
+        }
+        topic = "building/42/0/temperature";
+    }
+
+    @Benchmark
+    public ArrayList<MQTTSubscriber> trieMatch() {
+        return trie.match(topic);
+    }
+
+    @Benchmark
+    public ArrayList<MQTTSubscriber> linearScan() {
+        ArrayList<MQTTSubscriber> result = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            MQTTSubscriber sub = list.get(i);
+            if (sub.getTopic().equals(topic)) result.add(sub);
+        }
+        return result;
+    }
+}
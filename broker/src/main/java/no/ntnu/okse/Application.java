@@ -53,6 +53,9 @@ public class Application {
     public static boolean CACHE_MESSAGES = true;
     public static long DEFAULT_SUBSCRIPTION_TERMINATION_TIME = 15552000000L; // Half a year
     public static long DEFAULT_PUBLISHER_TERMINATION_TIME = 15552000000L; // Half a year
+    public static int MESSAGE_DISPATCH_WORKERS = Runtime.getRuntime().availableProcessors();
+    public static int OUTBOUND_SENDER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static int MESSAGE_QUEUE_CAPACITY = 10000;
 
     /* Public reference to the properties object for potential custom options */
     public static Properties config = new Properties();
@@ -180,6 +183,27 @@ public class Application {
                         log.error("Malformed subscription termination time, using internal default");
                     }
                     break;
+                case "MESSAGE_DISPATCH_WORKERS":
+                    try {
+                        MESSAGE_DISPATCH_WORKERS = Integer.parseInt(properties.getProperty(option));
+                    } catch (NumberFormatException numEx) {
+                        log.error("Malformed message dispatch worker count, using internal default");
+                    }
+                    break;
+                case "OUTBOUND_SENDER_THREADS":
+                    try {
+                        OUTBOUND_SENDER_THREADS = Integer.parseInt(properties.getProperty(option));
+                    } catch (NumberFormatException numEx) {
+                        log.error("Malformed outbound sender thread count, using internal default");
+                    }
+                    break;
+                case "MESSAGE_QUEUE_CAPACITY":
+                    try {
+                        MESSAGE_QUEUE_CAPACITY = Integer.parseInt(properties.getProperty(option));
+                    } catch (NumberFormatException numEx) {
+                        log.error("Malformed message queue capacity, using internal default");
+                    }
+                    break;
                 case "ENABLE_WSNU_DEBUG_OUTPUT":
                     if (properties.getProperty(option).equalsIgnoreCase("true")) Log.setEnableDebug(true);
                     else Log.setEnableDebug(false);
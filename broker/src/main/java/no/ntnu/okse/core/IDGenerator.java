@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the IDs of Messages, Subscribers and Topics.
+ * <p>
+ * An ID is a 32 character hex string, made up of a 64 bit node prefix that is randomly chosen once per broker
+ * instance, followed by a 64 bit counter that is seeded from the startup time and incremented atomically.
+ * IDs are thus unique and monotonically increasing within a broker instance, and generating one only costs
+ * an atomic increment and a small char array, as opposed to hashing the current time.
+ */
+public final class IDGenerator {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long nodePrefix = new SecureRandom().nextLong();
+    private static final AtomicLong counter = new AtomicLong(System.currentTimeMillis() << 20);
+
+    private IDGenerator() {
+    }
+
+    /**
+     * Generates a new unique ID
+     *
+     * @return A 32 character lowercase hex string
+     */
+    public static String generateID() {
+        char[] id = new char[32];
+        writeHex(nodePrefix, id, 0);
+        writeHex(counter.incrementAndGet(), id, 16);
+        return new String(id);
+    }
+
+    /**
+     * Writes the 16 character hex representation of a long into a char array
+     *
+     * @param value  The value to write
+     * @param dest   The destination char array
+     * @param offset The index in the destination array to start writing at
+     */
+    private static void writeHex(long value, char[] dest, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            dest[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
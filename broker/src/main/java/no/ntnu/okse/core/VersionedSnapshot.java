@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * This class holds an immutable snapshot of a registry, that is shared by all readers until the registry changes.
+ * The owner of the registry calls invalidate() after every change, and the snapshot is rebuilt lazily by the
+ * next reader. Reading an up to date snapshot is a volatile read and a version comparison, with no allocation.
+ * <p>
+ * The version is read before the snapshot is built, so a snapshot built while the registry changes is
+ * recorded with the older version and rebuilt by the next reader.
+ *
+ * @param <T> The type of the snapshot. The builder must return a value that is never modified afterwards.
+ */
+public class VersionedSnapshot<T> {
+
+    private final Supplier<T> builder;
+    private final AtomicLong version;
+    private volatile Snapshot<T> current;
+
+    /**
+     * An immutable snapshot value, and the registry version it was built from
+     */
+    private static class Snapshot<T> {
+        final long version;
+        final T value;
+
+        Snapshot(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Constructs an empty snapshot holder
+     *
+     * @param builder A Supplier that builds a new immutable snapshot of the registry
+     */
+    public VersionedSnapshot(Supplier<T> builder) {
+        this.builder = builder;
+        this.version = new AtomicLong(0);
+    }
+
+    /**
+     * Fetch the current snapshot, building a new one if the registry has changed since the last build
+     *
+     * @return The immutable snapshot of the registry
+     */
+    public T get() {
+        long v = version.get();
+        Snapshot<T> snapshot = current;
+        if (snapshot != null && snapshot.version == v) return snapshot.value;
+
+        T value = builder.get();
+        current = new Snapshot<>(v, value);
+        return value;
+    }
+
+    /**
+     * Marks the current snapshot as outdated. Must be called after every change to the registry.
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Fetch the version of the registry, which is increased on every change
+     *
+     * @return The current version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+}
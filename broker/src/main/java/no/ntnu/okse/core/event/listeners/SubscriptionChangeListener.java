@@ -24,10 +24,22 @@
 
 package no.ntnu.okse.core.event.listeners;
 
+import no.ntnu.okse.core.event.SubscriptionBatchChangeEvent;
 import no.ntnu.okse.core.event.SubscriptionChangeEvent;
 
 public interface SubscriptionChangeListener {
 
     public void subscriptionChanged(SubscriptionChangeEvent e);
 
+    /**
+     * Called when the same change has been applied to several subscribers in one operation. The default
+     * implementation hands the subscribers one by one to subscriptionChanged, so listeners only need to
+     * override this if they can handle a batch more efficiently.
+     *
+     * @param e : The batch event containing the changed subscribers
+     */
+    public default void subscriptionsChanged(SubscriptionBatchChangeEvent e) {
+        e.getData().forEach(s -> subscriptionChanged(new SubscriptionChangeEvent(e.getType(), s)));
+    }
+
 }
@@ -24,15 +24,15 @@
 
 package no.ntnu.okse.core.messaging;
 
+import no.ntnu.okse.core.IDGenerator;
 import no.ntnu.okse.core.subscription.Publisher;
 import org.apache.log4j.Logger;
-import org.springframework.security.crypto.codec.Hex;
 
 import javax.annotation.Nonnull;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class Message {
 
@@ -49,6 +49,9 @@ public class Message {
     private HashMap<String, String> attributes;
     private LocalDateTime processed;
     private boolean systemMessage;
+    private final boolean mappedCopy;
+    // Parsed or otherwise derived forms of the message content, shared by all recipients of this message
+    private final ConcurrentHashMap<String, Object> representations;
 
     /**
      * Constructor that takes in a message, topic, publisher and originProtocol to produce a single OKSE Message
@@ -66,29 +69,53 @@ public class Message {
         this.processed = null;
         this.message = message;
         this.systemMessage = false;
-        this.messageID = generateMessageID();
+        this.mappedCopy = false;
+        this.messageID = IDGenerator.generateID();
         this.attributes = new HashMap<>();
         this.originProtocol = originProtocol;
+        this.representations = new ConcurrentHashMap<>();
     }
 
     /**
-     * Private method that generates an MD5 message ID
+     * Private constructor for mapped copies. The copy gets its own ID, topic and attributes, but shares the
+     * message content and the derived representations of it with the original message.
      *
-     * @return A string containing the generated messageID
+     * @param original The message to copy
+     * @param topic    The topic of the copy
      */
-    private String generateMessageID() {
-        try {
-            MessageDigest m = MessageDigest.getInstance("MD5");
-            m.update(Long.toString(System.nanoTime()).getBytes());
-            byte[] hash = m.digest();
-            String messageID = new String(Hex.encode(hash));
+    private Message(Message original, String topic) {
+        this.publisher = original.publisher;
+        this.topic = topic;
+        this.created = LocalDateTime.now();
+        this.processed = null;
+        this.message = original.message;
+        this.systemMessage = original.systemMessage;
+        this.mappedCopy = true;
+        this.messageID = IDGenerator.generateID();
+        this.attributes = new HashMap<>();
+        this.originProtocol = original.originProtocol;
+        this.representations = original.representations;
+    }
 
-            return messageID;
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Could not generate a message ID (MD5 algorithm not found)");
-        }
+    /**
+     * Creates a lightweight copy of this message destined for another topic, as used when a message is
+     * mapped to other topics. The content is not copied, and representations that have been built for this
+     * message, such as parsed content, are shared with the copy and vice versa.
+     *
+     * @param topic The raw topic string of the copy
+     * @return A new Message sharing the content of this message
+     */
+    public Message createMappedCopy(String topic) {
+        return new Message(this, topic);
+    }
 
-        return null;
+    /**
+     * Checks to see if this message is a copy created when a message was mapped to another topic
+     *
+     * @return True if this message was created by createMappedCopy, false otherwise
+     */
+    public boolean isMappedCopy() {
+        return this.mappedCopy;
     }
 
     /**
@@ -214,6 +241,32 @@ public class Message {
         return attributes;
     }
 
+    /**
+     * Retrieve a derived representation of the message content, such as a parsed XML tree, building it
+     * the first time it is asked for. The representation is built at most once per message, and is shared
+     * by all the threads and recipients that ask for it, so it must not be modified.
+     *
+     * @param key     The key identifying the kind of representation
+     * @param builder A function building the representation from this message
+     * @param <T>     The type of the representation
+     * @return The representation, or null if the builder could not build it
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getRepresentation(String key, Function<Message, T> builder) {
+        return (T) representations.computeIfAbsent(key, k -> builder.apply(this));
+    }
+
+    /**
+     * Store a derived representation of the message content, typically one that was already available
+     * when the message was created, so it does not have to be built again.
+     *
+     * @param key            The key identifying the kind of representation
+     * @param representation The representation
+     */
+    public void setRepresentation(String key, Object representation) {
+        if (representation != null) representations.put(key, representation);
+    }
+
     /**
      * Retrieves the completion time of this message (when it was processed).
      *
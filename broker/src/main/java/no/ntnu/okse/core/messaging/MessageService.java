@@ -28,25 +28,41 @@ import no.ntnu.okse.Application;
 import no.ntnu.okse.core.AbstractCoreService;
 import no.ntnu.okse.core.CoreService;
 import no.ntnu.okse.core.event.TopicChangeEvent;
+import no.ntnu.okse.core.event.listeners.BackpressureListener;
 import no.ntnu.okse.core.event.listeners.TopicChangeListener;
 import no.ntnu.okse.core.topic.Topic;
 import no.ntnu.okse.core.topic.TopicService;
+import org.eclipse.jetty.util.ConcurrentHashSet;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MessageService extends AbstractCoreService implements TopicChangeListener {
 
     private static boolean _invoked = false;
     private static MessageService _singleton;
     private static Thread _serviceThread;
-    private LinkedBlockingQueue<Message> queue;
+    private ArrayList<LinkedBlockingQueue<Message>> shards;
+    // Bounds the number of published messages waiting in each shard. Mapped copies are handed between the
+    // dispatchers without a permit, so a dispatcher never blocks on the queue of another dispatcher.
+    private ArrayList<Semaphore> shardPermits;
+    private ArrayList<Thread> dispatchers;
     private ConcurrentHashMap<String, Message> latestMessages;
+    // Backpressure state. The shards are overloaded from the high-water mark until they drain to the low-water mark
+    private int highWaterMark;
+    private int lowWaterMark;
+    private AtomicBoolean overloaded;
+    private ConcurrentHashSet<BackpressureListener> _backpressureListeners;
     private Properties config;
 
     /**
@@ -59,16 +75,50 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
     }
 
     /**
-     * Private initializer method that flags invocation state as true, and sets up message queue
+     * Package-private constructor that creates a standalone MessageService outside of the singleton,
+     * with a given number of queue shards and queue capacity. Used for testing.
+     *
+     * @param workers  The number of queue shards and dispatcher threads
+     * @param capacity The maximum number of messages in each queue shard
+     */
+    MessageService(int workers, int capacity) {
+        super(MessageService.class.getName());
+        initQueues(workers, capacity);
+    }
+
+    /**
+     * Private initializer method that flags invocation state as true, and sets up the message queue shards
      */
     protected void init() {
         config = Application.readConfigurationFiles();
         log.info("Initializing MessageService...");
-        queue = new LinkedBlockingQueue<>();
-        latestMessages = new ConcurrentHashMap<>();
+        initQueues(Application.MESSAGE_DISPATCH_WORKERS, Application.MESSAGE_QUEUE_CAPACITY);
         _invoked = true;
     }
 
+    /**
+     * Sets up the bounded queue shards, and the backpressure state guarding them
+     *
+     * @param workers  The number of queue shards and dispatcher threads
+     * @param capacity The maximum number of messages in each queue shard
+     */
+    private void initQueues(int workers, int capacity) {
+        workers = Math.max(1, workers);
+        capacity = Math.max(1, capacity);
+        shards = new ArrayList<>(workers);
+        shardPermits = new ArrayList<>(workers);
+        dispatchers = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            shards.add(new LinkedBlockingQueue<>());
+            shardPermits.add(new Semaphore(capacity));
+        }
+        highWaterMark = Math.max(1, capacity * 3 / 4);
+        lowWaterMark = capacity / 4;
+        overloaded = new AtomicBoolean(false);
+        _backpressureListeners = new ConcurrentHashSet<>();
+        latestMessages = new ConcurrentHashMap<>();
+    }
+
     /**
      * The main invocation method of the MessageService. Instanciates a MessageService instance if needed,
      * and returns the active instance.
@@ -107,88 +157,19 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
     }
 
     /**
-     * This method should be called from within the run-scope of the serverThread thread instance
+     * This method should be called from within the run-scope of the serverThread thread instance.
+     * It spawns one dispatcher thread per queue shard, and waits for them to complete.
      */
     public void run() {
         if (_invoked) {
-            log.info("MessageService booted successfully");
-            while (_running) {
+            log.info("MessageService booted successfully with " + shards.size() + " dispatcher(s)");
+            startDispatchers();
+            // Wait for the dispatchers to exit their run loops
+            for (Thread dispatcher : dispatchers) {
                 try {
-                    // Fetch the next job, will wait until a new message arrives
-                    Message m = queue.take();
-                    log.info("Received a message for distrubution: " + m);
-
-                    // Do we have a system message?
-                    if (m.isSystemMessage() && m.getTopic() == null) {
-
-                        log.debug("Received message was a SystemMessage: " + m.getMessage());
-
-                        // Check if we are to broadcast this system message
-                        if (Application.BROADCAST_SYSTEM_MESSAGES_TO_SUBSCRIBERS) {
-
-                            log.debug("System Message Broadcast set to TRUE, distributing system message...");
-
-                            // Generate duplicate messages to all topics and iterate over them
-                            generateMessageToAllTopics(m).stream().forEach(message -> {
-                                // Fetch all protocol servers, and call sendMessage on each
-                                CoreService.getInstance().getAllProtocolServers().forEach(s -> s.sendMessage(message));
-                                // Flag the message as processed
-                                message.setProcessed();
-                            });
-
-                            log.info("System message distribution completed");
-                        }
-
-                        // Set original message as processed.
-                        m.setProcessed();
-
-                        // Continue the run loop
-                        continue;
-                    }
-
-                    HashSet<Topic> mappings = TopicService.getInstance().getAllMappingsAgainstTopic(m.getTopic());
-                    if (mappings == null) {
-                        log.debug("The Topic{" + m.getTopic() + "} has no mappings");
-                    } else {
-                        log.debug("Found the following mappings against Topic{" + m.getTopic() + "}: " + mappings);
-
-                        generateMessageForAGivenTopicSet(m, mappings).forEach(duplicateMessage -> {
-                            duplicateMessage.setAttribute("duplicate", m.getTopic());
-
-                            if (m.getAttribute("duplicate") != null) {
-                                if (!m.getTopic().equals(duplicateMessage.getAttribute("duplicate"))) {
-                                    distributeMessage(duplicateMessage);
-                                    log.debug("The message to Topic{" + duplicateMessage.getTopic() + "} was distributed");
-                                } else {
-                                    log.debug("The message to Topic{" + duplicateMessage.getTopic() + "} is a duplicate against Topic{" + m.getTopic() + "}, and will not be distributed");
-                                }
-                            } else if (TopicService.getInstance().topicExists(m.getTopic())) {
-                                distributeMessage(duplicateMessage);
-                                log.debug("The message to Topic{" + duplicateMessage.getTopic() + "} was distributed");
-                            } else {
-                                log.debug("The message was not sent. Most likely since the Topic{" + duplicateMessage.getTopic() + "} does not exist");
-                            }
-
-                        });
-                    }
-
-
-                    // Tell the ExecutorService to execute the following job
-                    CoreService.getInstance().execute(() -> {
-                        // Add message to latestMessages cache
-                        latestMessages.put(m.getTopic(), m);
-                        // Fetch all registered protocol servers, and call the sendMessage() method on them
-                        CoreService.getInstance().getAllProtocolServers().forEach(p -> {
-                            // Fire the sendMessage on all servers
-                            p.sendMessage(m);
-                        });
-                        // Set the message as processed, and store the completion time
-                        LocalDateTime completedAt = m.setProcessed();
-                        log.info("Message successfully distributed: " + m + " (Finished at: " + completedAt + ")");
-                    });
-
+                    dispatcher.join();
                 } catch (InterruptedException e) {
-                    log.error("Interrupted while attempting to fetch next Message from queue");
+                    log.error("Interrupted while waiting for dispatcher " + dispatcher.getName() + " to exit");
                 }
             }
             log.debug("MessageService serverThread exited main run loop");
@@ -197,6 +178,128 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
         }
     }
 
+    /**
+     * Spawns one dispatcher thread per queue shard
+     */
+    void startDispatchers() {
+        for (int i = 0; i < shards.size(); i++) {
+            final int shard = i;
+            Thread dispatcher = new Thread(() -> dispatchLoop(shard));
+            dispatcher.setName("MessageService-Dispatcher-" + shard);
+            dispatchers.add(dispatcher);
+            dispatcher.start();
+        }
+    }
+
+    /**
+     * The main loop of a single dispatcher thread. Each dispatcher owns one queue shard, and since a given topic
+     * always hashes to the same shard, messages on a topic are dispatched in the order they were received.
+     * This includes mapped copies, which are handed to the shard of the topic they were mapped to.
+     *
+     * @param shard The index of the queue shard this dispatcher should consume
+     */
+    private void dispatchLoop(int shard) {
+        LinkedBlockingQueue<Message> queue = shards.get(shard);
+        Semaphore permits = shardPermits.get(shard);
+        while (_running) {
+            try {
+                // Fetch the next job, will wait until a new message arrives
+                Message m = queue.take();
+                if (!m.isMappedCopy()) permits.release();
+                if (overloaded.get()) releaseBackpressureIfDrained();
+                dispatch(m);
+            } catch (InterruptedException e) {
+                if (_running) log.error("Interrupted while attempting to fetch next Message from queue");
+            } catch (Exception e) {
+                log.error("Unexpected error while dispatching message: " + e.getMessage());
+            }
+        }
+        log.debug("Dispatcher " + shard + " exited main run loop");
+    }
+
+    /**
+     * Resolves mappings for a message and hands it off to all registered protocol servers
+     *
+     * @param m The message to dispatch
+     */
+    private void dispatch(Message m) {
+        log.info("Received a message for distrubution: " + m);
+
+        // Do we have a system message?
+        if (m.isSystemMessage() && m.getTopic() == null) {
+
+            log.debug("Received message was a SystemMessage: " + m.getMessage());
+
+            // Check if we are to broadcast this system message
+            if (Application.BROADCAST_SYSTEM_MESSAGES_TO_SUBSCRIBERS) {
+
+                log.debug("System Message Broadcast set to TRUE, distributing system message...");
+
+                // Generate duplicate messages to all topics and iterate over them
+                generateMessageToAllTopics(m).stream().forEach(message -> {
+                    // Fetch all protocol servers, and call sendMessage on each
+                    CoreService.getInstance().getAllProtocolServers().forEach(s -> s.sendMessage(message));
+                    // Flag the message as processed
+                    message.setProcessed();
+                });
+
+                log.info("System message distribution completed");
+            }
+
+            // Set original message as processed.
+            m.setProcessed();
+
+            return;
+        }
+
+        // Mapped copies have already been resolved by the dispatcher of the original topic
+        if (m.isMappedCopy()) {
+            deliverMessage(m);
+            log.debug("The message to Topic{" + m.getTopic() + "} was distributed");
+            return;
+        }
+
+        // Look up the complete set of mapped topics, chained mappings included, in the precomputed mapping table
+        Set<String> mappedTopics = TopicService.getInstance().getMappedTopics(m.getTopic());
+        List<Message> mappedMessages = Collections.emptyList();
+        if (mappedTopics.isEmpty()) {
+            log.debug("The Topic{" + m.getTopic() + "} has no mappings");
+        } else if (!TopicService.getInstance().topicExists(m.getTopic())) {
+            log.debug("The message was not mapped. Most likely since the Topic{" + m.getTopic() + "} does not exist");
+        } else {
+            log.debug("Found the following mappings against Topic{" + m.getTopic() + "}: " + mappedTopics);
+            mappedMessages = generateMappedMessages(m, mappedTopics);
+        }
+
+        deliverMessage(m);
+
+        // The mapping table already contains every topic the message should reach, so the copies are not mapped
+        // again. They are delivered by the dispatcher of their own topic, to keep the order of that topic.
+        mappedMessages.forEach(duplicateMessage -> {
+            duplicateMessage.setAttribute("duplicate", m.getTopic());
+            shards.get(getShardForTopic(duplicateMessage.getTopic())).add(duplicateMessage);
+        });
+    }
+
+    /**
+     * Caches a message as the latest message on its topic, and hands it off to all registered protocol servers
+     *
+     * @param m The message to deliver
+     */
+    private void deliverMessage(Message m) {
+        // Add message to latestMessages cache
+        latestMessages.put(m.getTopic(), m);
+        // Fetch all registered protocol servers, and call the sendMessage() method on them. This is done on the
+        // dispatcher thread itself, so that per-topic ordering is preserved all the way to the protocol servers.
+        CoreService.getInstance().getAllProtocolServers().forEach(p -> {
+            // Fire the sendMessage on all servers
+            p.sendMessage(m);
+        });
+        // Set the message as processed, and store the completion time
+        LocalDateTime completedAt = m.setProcessed();
+        log.info("Message successfully distributed: " + m + " (Finished at: " + completedAt + ")");
+    }
+
     /**
      * Graceful shutdown method
      */
@@ -210,25 +313,111 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
         m.setSystemMessage(true);
 
         try {
-            queue.put(m);
+            shardPermits.get(getShardForTopic(null)).acquire();
+            shards.get(getShardForTopic(null)).add(m);
         } catch (InterruptedException e) {
             log.error("Interrupted while trying to inject shutdown message to queue");
         }
+
+        // Wake up the remaining dispatchers so they can observe the running flag
+        for (int i = 0; i < dispatchers.size(); i++) {
+            if (i != getShardForTopic(null)) dispatchers.get(i).interrupt();
+        }
     }
 
     /* Begin Public API */
 
     /**
-     * Adds a Message object into the message queue for distribution
+     * Adds a Message object into the message queue for distribution. The queues are bounded, so if the queue
+     * of the topic is full, this method blocks until the dispatcher has made room for the message. Protocol
+     * servers should slow down their publishers before that happens, see {@link #isOverloaded()}.
      *
      * @param m The message object to be distributed
      */
     public void distributeMessage(Message m) {
+        int shard = getShardForTopic(m.getTopic());
+        LinkedBlockingQueue<Message> queue = shards.get(shard);
         try {
-            this.queue.put(m);
+            // Wait for room in the shard. The queue itself is not bounded, as it also carries the mapped copies
+            // handed over by other dispatchers, which do not take a permit.
+            if (!m.isMappedCopy()) shardPermits.get(shard).acquire();
+            queue.add(m);
         } catch (InterruptedException e) {
             log.error("Interrupted while trying to inject message into queue");
+            return;
         }
+        if (queue.size() >= highWaterMark && overloaded.compareAndSet(false, true)) {
+            log.warn("Message queues are filling up, applying backpressure to publishers");
+            fireBackpressureChanged(true);
+            // The dispatchers may have drained the queues between the put and the flag being set, in which case
+            // they checked for release before there was anything to release, and might not take another message
+            releaseBackpressureIfDrained();
+        }
+    }
+
+    /**
+     * Checks whether the message queues are filling up faster than they are dispatched. Protocol servers
+     * should stop reading from their publishers while this is true.
+     *
+     * @return True if a message queue has reached its high-water mark, and not yet drained to its low-water mark
+     */
+    public boolean isOverloaded() {
+        return overloaded.get();
+    }
+
+    /**
+     * Leaves the overloaded state, if all the queue shards have drained to the low-water mark
+     */
+    private void releaseBackpressureIfDrained() {
+        for (LinkedBlockingQueue<Message> queue : shards) {
+            if (queue.size() > lowWaterMark) return;
+        }
+        if (overloaded.compareAndSet(true, false)) {
+            log.info("Message queues have drained, releasing backpressure on publishers");
+            fireBackpressureChanged(false);
+        }
+    }
+
+    /**
+     * Retrieves the index of the queue shard that messages on a given topic are dispatched from.
+     * System messages without a topic always go to the first shard.
+     *
+     * @param topic The raw topic string, can be null
+     * @return The index of the queue shard responsible for the topic
+     */
+    public int getShardForTopic(String topic) {
+        if (topic == null) return 0;
+        return (topic.hashCode() & 0x7fffffff) % shards.size();
+    }
+
+    /**
+     * Retrieves the number of dispatcher shards the MessageService is running with
+     *
+     * @return The number of queue shards
+     */
+    public int getNumberOfShards() {
+        return shards.size();
+    }
+
+    /**
+     * Retrieves the current number of messages waiting in each of the queue shards.
+     * Consistently high depth in a single shard indicates hot topics hashing to that shard.
+     *
+     * @return A list of queue depths, indexed by shard
+     */
+    public List<Integer> getShardQueueDepths() {
+        ArrayList<Integer> depths = new ArrayList<>(shards.size());
+        shards.forEach(q -> depths.add(q.size()));
+        return depths;
+    }
+
+    /**
+     * Retrieves the total number of messages waiting for distribution across all queue shards
+     *
+     * @return The total queue depth
+     */
+    public int getTotalQueueDepth() {
+        return shards.stream().mapToInt(LinkedBlockingQueue::size).sum();
     }
 
     /**
@@ -262,13 +451,25 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
      * @return A containing the new message objects, to dispatch into the queue.
      */
     public List<Message> generateMessageForAGivenTopicSet(Message m, HashSet<Topic> topics) {
-        ArrayList<Message> collector = new ArrayList<>();
+        ArrayList<Message> collector = new ArrayList<>(topics.size());
 
-        topics.stream()
-                .forEach(t -> {
-                    Message msg = new Message(m.getMessage(), t.getFullTopicString(), m.getPublisher(), m.getOriginProtocol());
-                    collector.add(msg);
-                });
+        topics.forEach(t -> collector.add(m.createMappedCopy(t.getFullTopicString())));
+
+        return collector;
+    }
+
+    /**
+     * Takes in a message and a collection of raw topic strings, and creates lightweight copies of the
+     * origin message that share its content, and returns them as a list.
+     *
+     * @param m      The origin message
+     * @param topics The raw topic strings that the message topic is mapped against
+     * @return A list containing the mapped message objects, to dispatch into the queue.
+     */
+    public List<Message> generateMappedMessages(Message m, Collection<String> topics) {
+        ArrayList<Message> collector = new ArrayList<>(topics.size());
+
+        topics.forEach(t -> collector.add(m.createMappedCopy(t)));
 
         return collector;
     }
@@ -289,10 +490,8 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
         HashSet<Message> generated = new HashSet<>();
         // Iterate over all topics and generate individual messages per topic
         TopicService.getInstance().getAllTopics().stream().forEach(t -> {
-            // Create the message wrapper
-            Message msg = new Message(m.getMessage(), t.getFullTopicString(), m.getPublisher(), m.getOriginProtocol());
-            // Flag the generated message the same as the originating message
-            msg.setSystemMessage(m.isSystemMessage());
+            // Create a copy sharing the content, flagged the same as the originating message
+            Message msg = m.createMappedCopy(t.getFullTopicString());
             // Add the message to the collector
             generated.add(msg);
         });
@@ -300,6 +499,37 @@ public class MessageService extends AbstractCoreService implements TopicChangeLi
         return generated;
     }
 
+    /* Begin listener support */
+
+    /**
+     * This method allows registration for backpressure listeners.
+     *
+     * @param listener An object implementing the BackpressureListener interface
+     */
+    public void addBackpressureListener(BackpressureListener listener) {
+        _backpressureListeners.add(listener);
+    }
+
+    /**
+     * This method allows removal of backpressure listeners.
+     *
+     * @param listener The object implementing the BackpressureListener interface that is to be removed.
+     */
+    public void removeBackpressureListener(BackpressureListener listener) {
+        _backpressureListeners.remove(listener);
+    }
+
+    /**
+     * Notifies all backpressure listeners that the overloaded state has changed
+     *
+     * @param overloaded The new overloaded state
+     */
+    private void fireBackpressureChanged(boolean overloaded) {
+        _backpressureListeners.forEach(l -> l.backpressureChanged(overloaded));
+    }
+
+    /* End listener support */
+
     /* Begin observation methods */
 
     @Override
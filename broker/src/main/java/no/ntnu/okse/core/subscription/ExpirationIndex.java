@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.subscription;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This class keeps track of when entries expire, ordered by their timeout. Timeouts are rounded up to the
+ * resolution of the index, so entries expiring close together share a bucket and are removed together.
+ * Polling for expired entries only visits the buckets that are due, so the cost of a purge is proportional
+ * to the number of expiring entries and not to the total number of entries.
+ * <p>
+ * Entries are rounded up, so an entry is never reported before it has actually expired, and at most one
+ * resolution after. All methods are synchronized on the index.
+ *
+ * @param <T> The type of the entries in the index
+ */
+public class ExpirationIndex<T> {
+
+    private final long resolution;
+    private final TreeMap<Long, LinkedHashSet<T>> buckets;
+    private final HashMap<T, Long> deadlines;
+
+    /**
+     * Constructs an empty expiration index
+     *
+     * @param resolution The bucket size of the index in milliseconds
+     */
+    public ExpirationIndex(long resolution) {
+        if (resolution < 1) throw new IllegalArgumentException("The resolution must be at least one millisecond");
+        this.resolution = resolution;
+        this.buckets = new TreeMap<>();
+        this.deadlines = new HashMap<>();
+    }
+
+    /**
+     * Schedules an entry to expire at the given timeout, replacing any previous timeout for the entry.
+     * A null timeout removes the entry from the index, as it should never expire.
+     *
+     * @param entry   The entry to schedule
+     * @param timeout The timeout of the entry represented as milliseconds since unix epoch, or null
+     */
+    public synchronized void schedule(T entry, Long timeout) {
+        remove(entry);
+        if (timeout == null) return;
+
+        long deadline = roundUp(timeout);
+        buckets.computeIfAbsent(deadline, d -> new LinkedHashSet<>()).add(entry);
+        deadlines.put(entry, deadline);
+    }
+
+    /**
+     * Removes an entry from the index
+     *
+     * @param entry The entry to remove
+     * @return True if the entry was scheduled, false otherwise
+     */
+    public synchronized boolean remove(T entry) {
+        Long deadline = deadlines.remove(entry);
+        if (deadline == null) return false;
+
+        LinkedHashSet<T> bucket = buckets.get(deadline);
+        bucket.remove(entry);
+        if (bucket.isEmpty()) buckets.remove(deadline);
+        return true;
+    }
+
+    /**
+     * Removes and returns all entries that have expired at the given time
+     *
+     * @param now The current time represented as milliseconds since unix epoch
+     * @return A List of the expired entries, in order of expiry
+     */
+    public synchronized List<T> pollExpired(long now) {
+        ArrayList<T> expired = new ArrayList<>();
+        // Only the buckets with a deadline strictly before now are due
+        SortedMap<Long, LinkedHashSet<T>> due = buckets.headMap(now);
+        for (Iterator<Map.Entry<Long, LinkedHashSet<T>>> it = due.entrySet().iterator(); it.hasNext(); ) {
+            LinkedHashSet<T> bucket = it.next().getValue();
+            expired.addAll(bucket);
+            bucket.forEach(deadlines::remove);
+            it.remove();
+        }
+        return expired;
+    }
+
+    /**
+     * Check if any entries have expired at the given time, without removing them
+     *
+     * @param now The current time represented as milliseconds since unix epoch
+     * @return True if a call to pollExpired would return entries, false otherwise
+     */
+    public synchronized boolean hasExpired(long now) {
+        return !buckets.isEmpty() && buckets.firstKey() < now;
+    }
+
+    /**
+     * Fetch the earliest deadline in the index
+     *
+     * @return The earliest deadline represented as milliseconds since unix epoch, or null if the index is empty
+     */
+    public synchronized Long nextExpiry() {
+        return buckets.isEmpty() ? null : buckets.firstKey();
+    }
+
+    /**
+     * Fetch the number of scheduled entries
+     *
+     * @return The number of entries in the index
+     */
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Rounds a timeout up to the next multiple of the resolution
+     *
+     * @param timeout The timeout to round
+     * @return The deadline of the bucket the timeout belongs to
+     */
+    private long roundUp(long timeout) {
+        long remainder = Math.floorMod(timeout, resolution);
+        return remainder == 0 ? timeout : timeout - remainder + resolution;
+    }
+}
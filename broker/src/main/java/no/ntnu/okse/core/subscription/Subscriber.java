@@ -25,11 +25,9 @@
 package no.ntnu.okse.core.subscription;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import no.ntnu.okse.core.IDGenerator;
 import org.apache.log4j.Logger;
-import org.springframework.security.crypto.codec.Hex;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -65,32 +63,12 @@ public class Subscriber {
             this.port = port;
         } else throw new IllegalArgumentException("Port must be in range 1-65535");
 
-        this.subscriberID = generateSubscriberID();
+        this.subscriberID = IDGenerator.generateID();
 
         log = Logger.getLogger(Subscriber.class.getName());
 
     }
 
-    /**
-     * Private method that generates an MD5 subscriber ID
-     *
-     * @return A string containing the generated subscriber ID
-     */
-    private String generateSubscriberID() {
-        try {
-            MessageDigest m = MessageDigest.getInstance("MD5");
-            m.update(Long.toString(System.nanoTime()).getBytes());
-            byte[] hash = m.digest();
-            String topicID = new String(Hex.encode(hash));
-
-            return topicID;
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Could not generate a subscriber ID (MD5 algorithm not found)");
-        }
-
-        return null;
-    }
-
     /**
      * Check to see if the port is in valid range
      *
@@ -26,7 +26,9 @@ package no.ntnu.okse.core.subscription;
 
 import no.ntnu.okse.Application;
 import no.ntnu.okse.core.AbstractCoreService;
+import no.ntnu.okse.core.VersionedSnapshot;
 import no.ntnu.okse.core.event.PublisherChangeEvent;
+import no.ntnu.okse.core.event.SubscriptionBatchChangeEvent;
 import no.ntnu.okse.core.event.SubscriptionChangeEvent;
 import no.ntnu.okse.core.event.TopicChangeEvent;
 import no.ntnu.okse.core.event.listeners.PublisherChangeListener;
@@ -35,13 +37,19 @@ import no.ntnu.okse.core.event.listeners.TopicChangeListener;
 import no.ntnu.okse.core.topic.TopicService;
 import org.eclipse.jetty.util.ConcurrentHashSet;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class SubscriptionService extends AbstractCoreService implements TopicChangeListener {
@@ -52,6 +60,8 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
 
     // Is the scheduled auto removal of expired subs and pubs active?
     private boolean autoPurgeRunning = false;
+    // The resolution of the expiration indexes, and the interval between checks for expired subs and pubs
+    private static final long EXPIRATION_RESOLUTION = 1000;
 
     private LinkedBlockingQueue<SubscriptionTask> queue;
     private ScheduledExecutorService scheduler;
@@ -60,6 +70,18 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     private ConcurrentHashSet<PublisherChangeListener> _registrationListeners;
     private ConcurrentHashSet<Subscriber> _subscribers;
     private ConcurrentHashSet<Publisher> _publishers;
+    // Immutable views of the registries, shared by all readers until the registries change
+    private VersionedSnapshot<Set<Subscriber>> _subscriberSnapshot;
+    private VersionedSnapshot<Set<Publisher>> _publisherSnapshot;
+    // Index from raw topic string to the subscribers of that topic. Subscribers without a topic
+    // are subscribed to all topics, and are kept in a separate bucket since the map cannot hold null keys.
+    private ConcurrentHashMap<String, ConcurrentHashSet<Subscriber>> _subscribersByTopic;
+    private ConcurrentHashSet<Subscriber> _subscribersToAllTopics;
+    // Expiration indexes ordered by timeout, so purging does not have to scan all subs and pubs
+    private ExpirationIndex<Subscriber> _subscriberExpirations;
+    private ExpirationIndex<Publisher> _publisherExpirations;
+    // Is a purge task waiting in the task queue?
+    private AtomicBoolean purgeQueued;
 
     /**
      * Private constructor that passes classname to superclass log field and calls initialization method
@@ -91,6 +113,13 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         scheduler = Executors.newScheduledThreadPool(1);
         _subscribers = new ConcurrentHashSet<>();
         _publishers = new ConcurrentHashSet<>();
+        _subscriberSnapshot = new VersionedSnapshot<>(() -> Collections.unmodifiableSet(new HashSet<>(_subscribers)));
+        _publisherSnapshot = new VersionedSnapshot<>(() -> Collections.unmodifiableSet(new HashSet<>(_publishers)));
+        _subscribersByTopic = new ConcurrentHashMap<>();
+        _subscribersToAllTopics = new ConcurrentHashSet<>();
+        _subscriberExpirations = new ExpirationIndex<>(EXPIRATION_RESOLUTION);
+        _publisherExpirations = new ExpirationIndex<>(EXPIRATION_RESOLUTION);
+        purgeQueued = new AtomicBoolean(false);
         _registrationListeners = new ConcurrentHashSet<>();
         _subscriptionListeners = new ConcurrentHashSet<>();
     }
@@ -164,28 +193,35 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     /* Begin Service-Local methods */
 
     /**
-     * This method starts a scheduled job that periodically removes expired subscribers and publishers
-     * from the SubscriptionService registry. Delegates its work to the purgeExpiredSubscribersAndPublishers()
-     * method.
+     * This method starts a scheduled job that periodically checks the expiration indexes for expired subscribers
+     * and publishers. Delegates its work to the purgeExpiredSubscribersAndPublishers() method.
      */
     private void startScheduledRemovalOfExpiredSubscribersAndPublishers() {
         if (!autoPurgeRunning) {
-            log.info("Starting periodic removal of expired subscribers and publishers (1 min interval)");
-            scheduler.scheduleAtFixedRate(() -> purgeExpiredSubscribersAndPublishers(), 1, 1, TimeUnit.MINUTES);
+            autoPurgeRunning = true;
+            log.info("Starting periodic removal of expired subscribers and publishers (" +
+                    EXPIRATION_RESOLUTION + " ms interval)");
+            scheduler.scheduleAtFixedRate(() -> purgeExpiredSubscribersAndPublishers(),
+                    EXPIRATION_RESOLUTION, EXPIRATION_RESOLUTION, TimeUnit.MILLISECONDS);
         } else {
             log.warn("Attempt to start scheduled removal of subscribers and publishers when its already started");
         }
     }
 
     /**
-     * Purge expired Subscribers and Publishers. This method should be run as a periodic job, and it delegates
-     * the actual removal to the removeSubscriber and removePublisher methods, that in turn injects the operations
-     * as SubscriptionTask into the task queue.
+     * Purge expired Subscribers and Publishers. This method should be run as a periodic job. It only peeks at
+     * the head of the expiration indexes, and if anything is due, a single task is injected into the task queue
+     * to remove all the expired entries in one batch.
      */
     private void purgeExpiredSubscribersAndPublishers() {
-        log.debug("Running scheduled purge of expired subscribers and publishers");
-        getAllSubscribers().stream().filter(s -> s.hasExpired()).forEach(s -> removeSubscriber(s));
-        getAllPublishers().stream().filter(p -> p.hasExpired()).forEach(p -> removePublisher(p));
+        long now = System.currentTimeMillis();
+        if (!_subscriberExpirations.hasExpired(now) && !_publisherExpirations.hasExpired(now)) return;
+        // Coalesce with a purge that is already waiting in the queue
+        if (!purgeQueued.compareAndSet(false, true)) return;
+
+        log.debug("Scheduling purge of expired subscribers and publishers");
+        Runnable job = () -> purgeExpiredSubscribersAndPublishersLocal();
+        insertTask(new SubscriptionTask(SubscriptionTask.Type.PURGE_EXPIRED, job));
     }
 
     /**
@@ -202,6 +238,23 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         }
     }
 
+    /**
+     * Service-local private method to remove all expired subscribers and publishers. The expired subscribers
+     * are removed as one batch, and a single unsubscribe batch event is fired for all of them.
+     */
+    private void purgeExpiredSubscribersAndPublishersLocal() {
+        purgeQueued.set(false);
+        long now = System.currentTimeMillis();
+
+        List<Subscriber> expired = _subscriberExpirations.pollExpired(now);
+        if (!expired.isEmpty()) {
+            log.info("Purging " + expired.size() + " expired subscribers");
+            removeSubscribersLocal(expired);
+        }
+
+        _publisherExpirations.pollExpired(now).forEach(p -> removePublisherLocal(p));
+    }
+
     /**
      * Service-local private method to add a Subscriber to the list of subscribers
      *
@@ -211,6 +264,9 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         if (!_subscribers.contains(s)) {
             // Add the subscriber
             _subscribers.add(s);
+            addSubscriberToTopicIndex(s);
+            _subscriberExpirations.schedule(s, s.getTimeout());
+            _subscriberSnapshot.invalidate();
             log.info("Added new subscriber: " + s);
             // Fire the subscribe event
             fireSubcriptionChangeEvent(s, SubscriptionChangeEvent.Type.SUBSCRIBE);
@@ -228,6 +284,9 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         if (_subscribers.contains(s)) {
             // Remove the subscriber
             _subscribers.remove(s);
+            removeSubscriberFromTopicIndex(s);
+            _subscriberExpirations.remove(s);
+            _subscriberSnapshot.invalidate();
             log.info("Removed subscriber: " + s);
             // Fire the unsubscribe event
             fireSubcriptionChangeEvent(s, SubscriptionChangeEvent.Type.UNSUBSCRIBE);
@@ -236,6 +295,114 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         }
     }
 
+    /**
+     * Service-local private method to add several Subscribers to the list of subscribers in one operation.
+     * A single subscribe batch event is fired for all the subscribers that were added.
+     *
+     * @param subs : A Collection of Subscriber instances with the proper fields set
+     */
+    private void addSubscribersLocal(Collection<Subscriber> subs) {
+        ArrayList<Subscriber> added = new ArrayList<>();
+        for (Subscriber s : subs) {
+            if (_subscribers.contains(s)) continue;
+            _subscribers.add(s);
+            addSubscriberToTopicIndex(s);
+            _subscriberExpirations.schedule(s, s.getTimeout());
+            added.add(s);
+        }
+        if (!added.isEmpty()) _subscriberSnapshot.invalidate();
+        if (added.size() < subs.size()) {
+            log.warn("Attempt to add " + (subs.size() - added.size()) + " subscribers that already exist!");
+        }
+        if (!added.isEmpty()) {
+            log.info("Added " + added.size() + " new subscribers");
+            // Fire the subscribe batch event
+            fireSubscriptionBatchChangeEvent(added, SubscriptionChangeEvent.Type.SUBSCRIBE);
+        }
+    }
+
+    /**
+     * Service-local private method to remove several subscribers from the list of subscribers in one operation.
+     * A single unsubscribe batch event is fired for all the subscribers that were removed.
+     *
+     * @param subs : A Collection of Subscriber instances that exist in the subscribers set
+     */
+    private void removeSubscribersLocal(Collection<Subscriber> subs) {
+        ArrayList<Subscriber> removed = new ArrayList<>();
+        for (Subscriber s : subs) {
+            if (!_subscribers.contains(s)) continue;
+            _subscribers.remove(s);
+            removeSubscriberFromTopicIndex(s);
+            _subscriberExpirations.remove(s);
+            removed.add(s);
+        }
+        if (!removed.isEmpty()) _subscriberSnapshot.invalidate();
+        if (removed.size() < subs.size()) {
+            log.warn("Attempt to remove " + (subs.size() - removed.size()) + " subscribers that did not exist!");
+        }
+        if (!removed.isEmpty()) {
+            log.info("Removed " + removed.size() + " subscribers");
+            // Fire the unsubscribe batch event
+            fireSubscriptionBatchChangeEvent(removed, SubscriptionChangeEvent.Type.UNSUBSCRIBE);
+        }
+    }
+
+    /**
+     * Service-local private method to pause or resume several subscribers in one operation. A single pause
+     * or resume batch event is fired for all the subscribers that were changed.
+     *
+     * @param subs   : A Collection of Subscriber instances that exist in the subscribers set
+     * @param paused : True to pause the subscribers, false to resume them
+     */
+    private void setSubscribersPausedLocal(Collection<Subscriber> subs, boolean paused) {
+        ArrayList<Subscriber> changed = new ArrayList<>();
+        for (Subscriber s : subs) {
+            if (!_subscribers.contains(s)) continue;
+            s.setAttribute("paused", Boolean.toString(paused));
+            changed.add(s);
+        }
+        if (changed.size() < subs.size()) {
+            log.warn("Attempt to modify " + (subs.size() - changed.size()) +
+                    " subscribers that do not exist in the service!");
+        }
+        if (!changed.isEmpty()) {
+            log.info((paused ? "Paused " : "Resumed ") + changed.size() + " subscribers");
+            // Fire the pause or resume batch event
+            fireSubscriptionBatchChangeEvent(changed, paused ?
+                    SubscriptionChangeEvent.Type.PAUSE : SubscriptionChangeEvent.Type.RESUME);
+        }
+    }
+
+    /**
+     * Service-local private method to add a Subscriber to the topic index
+     *
+     * @param s : A Subscriber instance with the proper fields set
+     */
+    private void addSubscriberToTopicIndex(Subscriber s) {
+        if (s.getTopic() == null) {
+            _subscribersToAllTopics.add(s);
+        } else {
+            _subscribersByTopic.computeIfAbsent(s.getTopic(), t -> new ConcurrentHashSet<>()).add(s);
+        }
+    }
+
+    /**
+     * Service-local private method to remove a Subscriber from the topic index. Empty topic buckets are
+     * dropped, so deleted topics do not leave stale entries behind.
+     *
+     * @param s : A Subscriber instance that exists in the topic index
+     */
+    private void removeSubscriberFromTopicIndex(Subscriber s) {
+        if (s.getTopic() == null) {
+            _subscribersToAllTopics.remove(s);
+        } else {
+            _subscribersByTopic.computeIfPresent(s.getTopic(), (t, bucket) -> {
+                bucket.remove(s);
+                return bucket.isEmpty() ? null : bucket;
+            });
+        }
+    }
+
     /**
      * Service-local private method to renew the subscription for a particular subscriber
      *
@@ -246,6 +413,7 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         if (_subscribers.contains(s)) {
             // Update the timeout field
             s.setTimeout(timeout);
+            _subscriberExpirations.schedule(s, s.getTimeout());
             log.info("Renewed subscriber: " + s);
             // Fire the renew event
             fireSubcriptionChangeEvent(s, SubscriptionChangeEvent.Type.RENEW);
@@ -297,6 +465,8 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         if (!_publishers.contains(p)) {
             // Add the publisher
             _publishers.add(p);
+            _publisherExpirations.schedule(p, p.getTimeout());
+            _publisherSnapshot.invalidate();
             log.info("Added publisher: " + p);
             // Fire the register event
             firePublisherChangeEvent(p, PublisherChangeEvent.Type.REGISTER);
@@ -314,6 +484,8 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         if (_publishers.contains(p)) {
             // Remove the publisher
             _publishers.remove(p);
+            _publisherExpirations.remove(p);
+            _publisherSnapshot.invalidate();
             log.info("Removed publisher: " + p);
             // Fire the remove event
             firePublisherChangeEvent(p, PublisherChangeEvent.Type.UNREGISTER);
@@ -433,6 +605,81 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
             insertTask(task);
         }
     }
+
+    /**
+     * Public method to add several Subscribers. The subscribers are added in a single task, and listeners
+     * receive a single batch event for all of them.
+     *
+     * @param subs The subscribers to be added
+     */
+    public void addSubscribers(Collection<Subscriber> subs) {
+        List<Subscriber> batch = prepareBatch(subs);
+        if (batch.isEmpty()) return;
+        // Create the job
+        Runnable job = () -> addSubscribersLocal(batch);
+        // Initialize the SubscriptionTask wrapper and inject it
+        insertTask(new SubscriptionTask(SubscriptionTask.Type.NEW_SUBSCRIBER, job));
+    }
+
+    /**
+     * Public method to remove several Subscribers. The subscribers are removed in a single task, and listeners
+     * receive a single batch event for all of them.
+     *
+     * @param subs Subscribers that exist in the subscribers set
+     */
+    public void removeSubscribers(Collection<Subscriber> subs) {
+        List<Subscriber> batch = prepareBatch(subs);
+        if (batch.isEmpty()) return;
+        // Create the job
+        Runnable job = () -> removeSubscribersLocal(batch);
+        // Initialize the SubscriptionTask wrapper and inject it
+        insertTask(new SubscriptionTask(SubscriptionTask.Type.DELETE_SUBSCRIBER, job));
+    }
+
+    /**
+     * Public method to pause several subscriptions. The subscribers are paused in a single task, and listeners
+     * receive a single batch event for all of them.
+     *
+     * @param subs The subscriber objects that are to be paused
+     */
+    public void pauseSubscribers(Collection<Subscriber> subs) {
+        List<Subscriber> batch = prepareBatch(subs);
+        if (batch.isEmpty()) return;
+        // Create the job
+        Runnable job = () -> setSubscribersPausedLocal(batch, true);
+        // Initialize the SubscriptionTask wrapper and inject it
+        insertTask(new SubscriptionTask(SubscriptionTask.Type.UPDATE_SUBSCRIBER, job));
+    }
+
+    /**
+     * Public method to resume several subscriptions. The subscribers are resumed in a single task, and listeners
+     * receive a single batch event for all of them.
+     *
+     * @param subs The subscriber objects that are to be resumed
+     */
+    public void resumeSubscribers(Collection<Subscriber> subs) {
+        List<Subscriber> batch = prepareBatch(subs);
+        if (batch.isEmpty()) return;
+        // Create the job
+        Runnable job = () -> setSubscribersPausedLocal(batch, false);
+        // Initialize the SubscriptionTask wrapper and inject it
+        insertTask(new SubscriptionTask(SubscriptionTask.Type.UPDATE_SUBSCRIBER, job));
+    }
+
+    /**
+     * Private helper method that copies the argument of a bulk operation, so later changes to the collection
+     * by the caller does not affect the queued task. Null elements are dropped.
+     *
+     * @param subs The Collection of subscribers passed to a bulk operation
+     * @return A List of the non-null subscribers, empty if there is nothing to do
+     */
+    private List<Subscriber> prepareBatch(Collection<Subscriber> subs) {
+        if (subs == null) {
+            log.warn("Received null argument!");
+            return Collections.emptyList();
+        }
+        return subs.stream().filter(s -> s != null).collect(Collectors.toList());
+    }
     /* End subscriber public API */
 
     /* ------------------------------------------------------------------------------------------ */
@@ -507,23 +754,41 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     }
 
     /**
-     * Retrieve a HashSet of all subscribers that have subscribed to a specific topic
+     * Retrieve a Set of all subscribers that will receive messages on a specific topic, that is, the subscribers
+     * of the topic itself as well as the subscribers to all topics. The lookup is served from the topic index,
+     * and the returned Set is a read-only view where possible.
      *
      * @param topic A raw topic string of the topic to select subscribers from
-     * @return A HashSet of Subscriber objects that have subscribed to the specified topic
+     * @return A read-only Set of Subscriber objects that have subscribed to the specified topic
      */
-    public HashSet<Subscriber> getAllSubscribersForTopic(String topic) {
-        // Initialize a collector
-        HashSet<Subscriber> results = new HashSet<>();
+    public Set<Subscriber> getAllSubscribersForTopic(String topic) {
+        Set<Subscriber> topicSubscribers = getSubscribersForExactTopic(topic);
 
-        // Iterate over all subscribers
-        getAllSubscribers().stream()
-                // Only pass on those who match topic argument
-                .filter(s -> s.getTopic() == null || s.getTopic().equals(topic))
-                        // Collect in the results set
-                .forEach(s -> results.add(s));
+        // Avoid copying when only one of the buckets have content
+        if (_subscribersToAllTopics.isEmpty()) return topicSubscribers;
+        if (topicSubscribers.isEmpty()) return Collections.unmodifiableSet(_subscribersToAllTopics);
 
-        return results;
+        // Both buckets have content, so we need to merge them
+        HashSet<Subscriber> results = new HashSet<>(topicSubscribers);
+        results.addAll(_subscribersToAllTopics);
+
+        return Collections.unmodifiableSet(results);
+    }
+
+    /**
+     * Retrieve a read-only view of the subscribers that have subscribed to exactly the specified topic.
+     * Passing <code>null</code> returns the subscribers that have subscribed to all topics.
+     *
+     * @param topic A raw topic string, or null
+     * @return A read-only Set of Subscriber objects registered on the specified topic
+     */
+    public Set<Subscriber> getSubscribersForExactTopic(String topic) {
+        if (topic == null) return Collections.unmodifiableSet(_subscribersToAllTopics);
+
+        ConcurrentHashSet<Subscriber> bucket = _subscribersByTopic.get(topic);
+        if (bucket == null) return Collections.emptySet();
+
+        return Collections.unmodifiableSet(bucket);
     }
 
     /**
@@ -547,27 +812,23 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
     }
 
     /**
-     * Retrive a HashSet of all subscribers on the broker. This HashSet is a shallow clone of the internal
-     * data structure, preventing unintended modification.
+     * Retrive a read-only snapshot of all subscribers on the broker. The snapshot is shared between callers,
+     * and is only rebuilt when subscribers are added or removed.
      *
-     * @return A HashSet of Subscriber objects that have subscribed on the broker
+     * @return A read-only Set of Subscriber objects that have subscribed on the broker
      */
-    public HashSet<Subscriber> getAllSubscribers() {
-        HashSet<Subscriber> result = new HashSet<>();
-        _subscribers.iterator().forEachRemaining(s -> result.add(s));
-        return result;
+    public Set<Subscriber> getAllSubscribers() {
+        return _subscriberSnapshot.get();
     }
 
     /**
-     * Retrieve a HashSet of all publishers on the broker. This HashSet is a shallow clone of the internal
-     * data structure, preventing unintended modification.
+     * Retrieve a read-only snapshot of all publishers on the broker. The snapshot is shared between callers,
+     * and is only rebuilt when publishers are added or removed.
      *
-     * @return A HashSet of Publisher objects that have registered on the broker
+     * @return A read-only Set of Publisher objects that have registered on the broker
      */
-    public HashSet<Publisher> getAllPublishers() {
-        HashSet<Publisher> result = new HashSet<>();
-        _publishers.iterator().forEachRemaining(p -> result.add(p));
-        return result;
+    public Set<Publisher> getAllPublishers() {
+        return _publisherSnapshot.get();
     }
 
     /**
@@ -629,6 +890,17 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
         _subscriptionListeners.stream().forEach(l -> l.subscriptionChanged(sce));
     }
 
+    /**
+     * Private helper method to fire the subscriptionsChanged method on all listeners.
+     *
+     * @param subs : The subscriber objects that have changed.
+     * @param type : What type of action is associated with the subscriber objects.
+     */
+    private void fireSubscriptionBatchChangeEvent(List<Subscriber> subs, SubscriptionChangeEvent.Type type) {
+        SubscriptionBatchChangeEvent sbce = new SubscriptionBatchChangeEvent(type, subs);
+        _subscriptionListeners.stream().forEach(l -> l.subscriptionsChanged(sbce));
+    }
+
     /**
      * PublisherChange event listener support
      *
@@ -669,8 +941,9 @@ public class SubscriptionService extends AbstractCoreService implements TopicCha
             // Fetch the raw topic string from the event Topic object
             String fullRawTopicString = event.getData().getFullTopicString();
 
-            // Remove all the subscribers for the topic that was deleted
-            getAllSubscribersForTopic(fullRawTopicString).forEach(s -> removeSubscriber(s));
+            // Remove all the subscribers for the topic that was deleted. Subscribers to all topics are left alone.
+            // A copy is iterated, since the removals will modify the index bucket.
+            new HashSet<>(getSubscribersForExactTopic(fullRawTopicString)).forEach(s -> removeSubscriber(s));
             // Remove all the publishers for the topic that was deleted
             getAllPublishersForTopic(fullRawTopicString).forEach(p -> removePublisher(p));
         }
@@ -34,6 +34,7 @@ public class SubscriptionTask {
         UPDATE_PUBLISHER,
         DELETE_SUBSCRIBER,
         DELETE_PUBLISHER,
+        PURGE_EXPIRED,
         SHUTDOWN
     }
 
@@ -25,12 +25,10 @@
 package no.ntnu.okse.core.topic;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import no.ntnu.okse.core.IDGenerator;
 import org.apache.log4j.Logger;
-import org.springframework.security.crypto.codec.Hex;
 
 import javax.validation.constraints.NotNull;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -48,7 +46,7 @@ public class Topic {
         if (name == null) this.name = "UNNAMED";
         if (type == null) this.type = "UNKNOWN";
 
-        topicID = generateTopicID();
+        topicID = IDGenerator.generateID();
 
         parent = null;
         children = new HashSet<>();
@@ -61,32 +59,12 @@ public class Topic {
         if (type == null) this.type = "UNKNOWN";
         else this.type = type;
 
-        topicID = generateTopicID();
+        topicID = IDGenerator.generateID();
 
         parent = null;
         children = new HashSet<>();
     }
 
-    /**
-     * Private method that generates an MD5 topic ID
-     *
-     * @return A string containing the generated topicID
-     */
-    private String generateTopicID() {
-        try {
-            MessageDigest m = MessageDigest.getInstance("MD5");
-            m.update(Long.toString(System.nanoTime()).getBytes());
-            byte[] hash = m.digest();
-            String topicID = new String(Hex.encode(hash));
-
-            return topicID;
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Could not generate a topic ID (MD5 algorithm not found)");
-        }
-
-        return null;
-    }
-
     /**
      * Returns the id of this topic
      *
@@ -27,6 +27,7 @@ package no.ntnu.okse.core.topic;
 import no.ntnu.okse.Application;
 import no.ntnu.okse.core.AbstractCoreService;
 import no.ntnu.okse.core.Utilities;
+import no.ntnu.okse.core.VersionedSnapshot;
 import no.ntnu.okse.core.event.TopicChangeEvent;
 import no.ntnu.okse.core.event.listeners.TopicChangeListener;
 import org.eclipse.jetty.util.ConcurrentHashSet;
@@ -45,6 +46,33 @@ public class TopicService extends AbstractCoreService {
     private ConcurrentHashMap<String, Topic> allTopics;
     private ConcurrentHashSet<TopicChangeListener> _listeners;
     private ConcurrentHashMap<String, HashSet<String>> mappings;
+    // Immutable views of the registries, shared by all readers until the registries change
+    private VersionedSnapshot<TopicSnapshot> topicSnapshot;
+    private VersionedSnapshot<Map<String, Set<String>>> mappingSnapshot;
+    private VersionedSnapshot<Map<String, Set<String>>> mappingClosureSnapshot;
+
+    /**
+     * An immutable snapshot of the topic registry, with all, root and leaf topic nodes collected in one pass
+     */
+    private static class TopicSnapshot {
+        final Set<Topic> all;
+        final Set<Topic> roots;
+        final Set<Topic> leaves;
+
+        TopicSnapshot(Collection<Topic> topics) {
+            HashSet<Topic> all = new HashSet<>();
+            HashSet<Topic> roots = new HashSet<>();
+            HashSet<Topic> leaves = new HashSet<>();
+            topics.forEach(t -> {
+                all.add(t);
+                if (t.isRoot()) roots.add(t);
+                if (t.isLeaf()) leaves.add(t);
+            });
+            this.all = Collections.unmodifiableSet(all);
+            this.roots = Collections.unmodifiableSet(roots);
+            this.leaves = Collections.unmodifiableSet(leaves);
+        }
+    }
 
     /**
      * Private constructor that passes this classname to superclass log instance. Uses getInstance to instanciate.
@@ -75,6 +103,9 @@ public class TopicService extends AbstractCoreService {
         allTopics = new ConcurrentHashMap<>();
         _listeners = new ConcurrentHashSet<>();
         mappings = new ConcurrentHashMap<>();
+        topicSnapshot = new VersionedSnapshot<>(() -> new TopicSnapshot(allTopics.values()));
+        mappingSnapshot = new VersionedSnapshot<>(() -> buildMappingSnapshot());
+        mappingClosureSnapshot = new VersionedSnapshot<>(() -> buildMappingClosureSnapshot());
         _invoked = true;
 
         log.info("Initializing topic mapping from configuration file");
@@ -177,45 +208,33 @@ public class TopicService extends AbstractCoreService {
     }
 
     /**
-     * Get all the root topic nodes as a shallow copy of the internal topic service hash set.
+     * Get all the root topic nodes as a read-only snapshot. The snapshot is shared between callers, and
+     * is only rebuilt when the topic registry changes.
      *
-     * @return A HashSet of all the root topic nodes.
+     * @return A read-only Set of all the root topic nodes.
      */
-    public HashSet<Topic> getAllRootTopics() {
-        HashSet<Topic> collector = new HashSet<Topic>();
-        // Iterate over the key value pairs and add topic to roots if it is indeed a root topic node
-        allTopics.forEach((k, t) -> {
-            if (t.isRoot()) collector.add(t);
-        });
-
-        return collector;
+    public Set<Topic> getAllRootTopics() {
+        return topicSnapshot.get().roots;
     }
 
     /**
-     * Get all topic nodes.
+     * Get all topic nodes as a read-only snapshot. The snapshot is shared between callers, and
+     * is only rebuilt when the topic registry changes.
      *
-     * @return A HashSet of all topic nodes.
+     * @return A read-only Set of all topic nodes.
      */
-    public HashSet<Topic> getAllTopics() {
-        HashSet<Topic> collector = new HashSet<>();
-        allTopics.forEach((s, t) -> collector.add(t));
-
-        return collector;
+    public Set<Topic> getAllTopics() {
+        return topicSnapshot.get().all;
     }
 
     /**
-     * Get all leaf nodes as a shallow copy of the internal topic service hash set.
+     * Get all leaf nodes as a read-only snapshot. The snapshot is shared between callers, and
+     * is only rebuilt when the topic registry changes.
      *
-     * @return A HashSet of all leaf topic nodes.
+     * @return A read-only Set of all leaf topic nodes.
      */
-    public HashSet<Topic> getAllLeafTopics() {
-        HashSet<Topic> collector = new HashSet<>();
-        // Iterate over the key value pairs and add the topic if it is indeed a leaf topic node.
-        allTopics.forEach((k, t) -> {
-            if (t.isLeaf()) collector.add(t);
-        });
-
-        return collector;
+    public Set<Topic> getAllLeafTopics() {
+        return topicSnapshot.get().leaves;
     }
 
     /**
@@ -252,16 +271,70 @@ public class TopicService extends AbstractCoreService {
     }
 
     /**
-     * Get all mappings registered mappings in the system as a shallow copy.
+     * Get all registered mappings in the system as a read-only snapshot. The snapshot is shared between
+     * callers, and is only rebuilt when a mapping is added or removed.
      *
-     * @return A HashMap of all the registered mappings
+     * @return A read-only Map of all the registered mappings
      */
-    public HashMap<String, HashSet<String>> getAllMappings() {
-        HashMap<String, HashSet<String>> collector = new HashMap<>();
+    public Map<String, Set<String>> getAllMappings() {
+        return mappingSnapshot.get();
+    }
 
-        mappings.forEach((k, v) -> collector.put(k, v));
+    /**
+     * Private helper method that builds a read-only snapshot of the mappings. The mapped topic sets are
+     * copied, as the internal sets are modified in place when mappings are added.
+     *
+     * @return A read-only Map of all the registered mappings
+     */
+    private Map<String, Set<String>> buildMappingSnapshot() {
+        HashMap<String, Set<String>> collector = new HashMap<>();
 
-        return collector;
+        synchronized (mappings) {
+            mappings.forEach((k, v) -> collector.put(k, Collections.unmodifiableSet(new HashSet<>(v))));
+        }
+
+        return Collections.unmodifiableMap(collector);
+    }
+
+    /**
+     * Private helper method that builds a read-only snapshot of the transitive closure of the mappings, that is,
+     * every topic a message on a given topic should end up on when chained mappings are followed. Cycles are
+     * rejected when mappings are added, but the traversal keeps track of visited topics regardless.
+     *
+     * @return A read-only Map from each mapped topic to all the topics it is transitively mapped against
+     */
+    private Map<String, Set<String>> buildMappingClosureSnapshot() {
+        Map<String, Set<String>> direct = getAllMappings();
+        HashMap<String, Set<String>> collector = new HashMap<>();
+
+        direct.keySet().forEach(source -> {
+            // Breadth first, so the directly mapped topics come first
+            LinkedHashSet<String> reachable = new LinkedHashSet<>();
+            ArrayDeque<String> pending = new ArrayDeque<>(direct.get(source));
+            while (!pending.isEmpty()) {
+                String target = pending.poll();
+                if (target.equals(source) || !reachable.add(target)) continue;
+                Set<String> next = direct.get(target);
+                if (next != null) pending.addAll(next);
+            }
+            collector.put(source, Collections.unmodifiableSet(reachable));
+        });
+
+        return Collections.unmodifiableMap(collector);
+    }
+
+    /**
+     * Fetch all the raw topic strings a topic is mapped against, following chained mappings, so that a
+     * message on the topic can be distributed to all of them in one pass. The lookup is served from a
+     * precomputed snapshot of the transitive closure, so it does not allocate, and the returned Set is
+     * shared between callers.
+     *
+     * @param rawTopicString The raw topic string to look up mappings for
+     * @return A read-only Set of the raw topic strings the topic is mapped against, empty if there are none
+     */
+    public Set<String> getMappedTopics(String rawTopicString) {
+        Set<String> mappedAgainst = mappingClosureSnapshot.get().get(rawTopicString);
+        return (mappedAgainst != null) ? mappedAgainst : Collections.emptySet();
     }
 
     /**
@@ -273,8 +346,9 @@ public class TopicService extends AbstractCoreService {
     public HashSet<Topic> getAllMappingsAgainstTopic(String rawTopicString) {
         HashSet<Topic> result = new HashSet<>();
 
-        if (mappings.containsKey(rawTopicString)) {
-            mappings.get(rawTopicString).forEach(topicToMapAgainst -> result.add(getTopic(topicToMapAgainst)));
+        Set<String> mappedAgainst = getAllMappings().get(rawTopicString);
+        if (mappedAgainst != null) {
+            mappedAgainst.forEach(topicToMapAgainst -> result.add(getTopic(topicToMapAgainst)));
         }
 
         return (result.size() > 0) ? result : null;
@@ -289,6 +363,7 @@ public class TopicService extends AbstractCoreService {
      */
     public void addTopicLocal(Topic t) {
         this.allTopics.put(t.getFullTopicString(), t);
+        topicSnapshot.invalidate();
         log.info("Added new topic: " + t);
         fireTopicChangeEvent(t, TopicChangeEvent.Type.NEW);
     }
@@ -302,6 +377,7 @@ public class TopicService extends AbstractCoreService {
     private void deleteTopicLocal(Topic t) {
         if (allTopics.containsValue(t)) {
             allTopics.remove(t.getFullTopicString());
+            topicSnapshot.invalidate();
             log.info("Deleted Topic: " + t);
             fireTopicChangeEvent(t, TopicChangeEvent.Type.DELETE);
         }
@@ -395,8 +471,12 @@ public class TopicService extends AbstractCoreService {
      * @param mapping The mapping represented as a string
      */
     public void deleteMapping(String mapping) {
-        if (mappings.containsKey(mapping)) {
-            HashSet<String> mappedAgainst = mappings.remove(mapping);
+        boolean removed;
+        synchronized (mappings) {
+            removed = mappings.remove(mapping) != null;
+            if (removed) invalidateMappingSnapshots();
+        }
+        if (removed) {
             log.info("Removed the mappings for Topic{" + mapping + "}");
         } else {
             log.warn("Attempt to remove a mapping that did in fact not exist ");
@@ -439,21 +519,60 @@ public class TopicService extends AbstractCoreService {
     }
 
     /**
-     * Accepts two topic string and creates this topics. It also adds it to the mapping HashMap
+     * Accepts two topic string and creates this topics. It also adds it to the mapping HashMap.
+     * Mappings that would create a cycle are rejected, as messages would then be mapped back to the
+     * topic they were published on.
      *
      * @param fromTopic Topic to map from
      * @param toTopic   Topic to map to
+     * @return True if the mapping was added, false if it was rejected because it would create a cycle
      */
-    public void addMappingBetweenTopics(String fromTopic, String toTopic) {
+    public boolean addMappingBetweenTopics(String fromTopic, String toTopic) {
+        synchronized (mappings) {
+            if (fromTopic.equals(toTopic) || isMappedAgainst(toTopic, fromTopic)) {
+                log.warn("Rejected mapping between Topic{" + fromTopic + "} and Topic{" + toTopic +
+                        "}, since it would create a cycle");
+                return false;
+            }
+            mappings.computeIfAbsent(fromTopic, k -> new HashSet<>()).add(toTopic);
+            invalidateMappingSnapshots();
+        }
+
         addTopic(fromTopic);
         addTopic(toTopic);
+        log.debug("Added mapping between Topic{" + fromTopic + "} and Topic{" + toTopic + "}");
+        return true;
+    }
 
-        if (!mappings.containsKey(fromTopic)) {
-            mappings.put(fromTopic, new HashSet<String>(Arrays.asList(toTopic)));
-        } else {
-            mappings.get(fromTopic).add(toTopic);
+    /**
+     * Private helper method that checks if a topic is transitively mapped against another topic, in the
+     * current mappings. Must be called while holding the lock on the mappings.
+     *
+     * @param fromTopic The topic to start from
+     * @param toTopic   The topic to look for
+     * @return True if a message on fromTopic would be mapped to toTopic, false otherwise
+     */
+    private boolean isMappedAgainst(String fromTopic, String toTopic) {
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.add(fromTopic);
+        while (!pending.isEmpty()) {
+            String topic = pending.poll();
+            if (!visited.add(topic)) continue;
+            HashSet<String> next = mappings.get(topic);
+            if (next == null) continue;
+            if (next.contains(toTopic)) return true;
+            pending.addAll(next);
         }
-        log.debug("Added mapping between Topic{" + fromTopic + "} and Topic{" + toTopic + "}");
+        return false;
+    }
+
+    /**
+     * Private helper method that marks the mapping snapshots as outdated, after the mappings have changed
+     */
+    private void invalidateMappingSnapshots() {
+        mappingSnapshot.invalidate();
+        mappingClosureSnapshot.invalidate();
     }
 
     /**
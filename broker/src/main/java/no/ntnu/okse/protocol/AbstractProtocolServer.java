@@ -24,6 +24,7 @@
 
 package no.ntnu.okse.protocol;
 
+import no.ntnu.okse.Application;
 import org.apache.log4j.Logger;
 
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,6 +42,9 @@ public abstract class AbstractProtocolServer implements ProtocolServer {
     protected String protocolServerType;
     protected AtomicInteger totalRequests, totalBadRequests, totalErrors, totalMessagesReceived, totalMessagesSent;
 
+    // Number of sender threads for outgoing messages
+    protected int outboundParallelism;
+
     /**
      * Constructor that just initializes the fields to default values
      */
@@ -54,6 +58,7 @@ public abstract class AbstractProtocolServer implements ProtocolServer {
         totalRequests = new AtomicInteger(0);
         totalBadRequests = new AtomicInteger(0);
         totalErrors = new AtomicInteger(0);
+        outboundParallelism = Application.OUTBOUND_SENDER_THREADS;
     }
 
     // Logger singleton
@@ -129,6 +134,36 @@ public abstract class AbstractProtocolServer implements ProtocolServer {
         return this.host;
     }
 
+    /**
+     * Returns the number of sender threads used for the outgoing messages of this ProtocolServer
+     *
+     * @return The number of sender threads
+     */
+    public int getOutboundParallelism() {
+        return outboundParallelism;
+    }
+
+    /**
+     * Sets the number of sender threads used for the outgoing messages of this ProtocolServer.
+     * Only executors created after the change are affected.
+     *
+     * @param outboundParallelism The number of sender threads
+     */
+    public void setOutboundParallelism(int outboundParallelism) {
+        this.outboundParallelism = Math.max(1, outboundParallelism);
+    }
+
+    /**
+     * Creates an executor for the outgoing messages of this ProtocolServer, with one sender thread per
+     * configured degree of parallelism. Messages on a topic are always sent in order.
+     *
+     * @param handler The handler sending batches of messages to the clients of the protocol
+     * @return A new OutboundExecutor, that must be started before messages are sent
+     */
+    public OutboundExecutor createOutboundExecutor(OutboundExecutor.Handler handler) {
+        return new OutboundExecutor(getProtocolServerType().toUpperCase(), outboundParallelism, handler);
+    }
+
     public void incrementTotalMessagesSent() {
         totalMessagesSent.incrementAndGet();
     }
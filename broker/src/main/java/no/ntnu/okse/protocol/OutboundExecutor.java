@@ -0,0 +1,197 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package no.ntnu.okse.protocol;
+
+import no.ntnu.okse.Application;
+import no.ntnu.okse.core.messaging.Message;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pool of sender threads for the outgoing messages of a protocol server.
+ * <p>
+ * Messages are sharded across the senders by topic, the same way as in the MessageService, so messages on a
+ * topic are always sent by the same thread and in the order they were submitted. Each sender drains its queue
+ * in batches, so the handler can write everything that is queued in a single dispatch cycle.
+ * <p>
+ * The queues of the senders are bounded. When a protocol can not keep up, submitting blocks the MessageService
+ * dispatchers, which in turn makes the MessageService apply backpressure to the publishers.
+ */
+public class OutboundExecutor {
+
+    /**
+     * Sends a batch of messages. Called from the sender threads of the executor.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void send(List<Message> batch);
+    }
+
+    // The largest number of queued messages handed to the handler in a single dispatch cycle
+    public static final int MAX_BATCH_SIZE = 256;
+
+    private static Logger log = Logger.getLogger(OutboundExecutor.class.getName());
+    private final String name;
+    private final Handler handler;
+    private final ArrayList<LinkedBlockingQueue<Message>> shards;
+    private final ArrayList<Thread> senders;
+    private final AtomicBoolean running;
+
+    /**
+     * Constructor
+     * Creates an executor with the configured message queue capacity
+     * @param name the name of the executor, used for naming the sender threads
+     * @param parallelism the number of sender threads
+     * @param handler the handler that sends the messages
+     */
+    public OutboundExecutor(String name, int parallelism, Handler handler) {
+        this(name, parallelism, Application.MESSAGE_QUEUE_CAPACITY, handler);
+    }
+
+    /**
+     * Constructor
+     * @param name the name of the executor, used for naming the sender threads
+     * @param parallelism the number of sender threads
+     * @param capacity the number of messages that can be queued for each sender
+     * @param handler the handler that sends the messages
+     */
+    public OutboundExecutor(String name, int parallelism, int capacity, Handler handler) {
+        this.name = name;
+        this.handler = handler;
+        int threads = Math.max(1, parallelism);
+        shards = new ArrayList<>(threads);
+        senders = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) shards.add(new LinkedBlockingQueue<>(Math.max(1, capacity)));
+        running = new AtomicBoolean(false);
+    }
+
+    /**
+     * Starts the sender threads
+     */
+    public void start() {
+        if (!running.compareAndSet(false, true)) return;
+        for (int i = 0; i < shards.size(); i++) {
+            final int shard = i;
+            Thread sender = new Thread(() -> sendLoop(shard));
+            sender.setName(name + "-Sender-" + shard);
+            senders.add(sender);
+            sender.start();
+        }
+    }
+
+    /**
+     * Stops the sender threads. Messages that are still queued are discarded.
+     */
+    public void stop() {
+        if (!running.compareAndSet(true, false)) return;
+        senders.forEach(Thread::interrupt);
+        senders.clear();
+        shards.forEach(LinkedBlockingQueue::clear);
+    }
+
+    /**
+     * Queues a message for sending. Blocks while the queue of the sender is full. If the executor is not
+     * running, nothing would make room in the queue, so the message is dropped instead.
+     * @param message the message to send
+     */
+    public void submit(Message message) {
+        LinkedBlockingQueue<Message> queue = shards.get(getShardForTopic(message.getTopic()));
+        if (!running.get()) {
+            if (!queue.offer(message)) log.warn(name + " is not running and its queue is full, dropping message");
+            return;
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while trying to queue message in " + name);
+        }
+    }
+
+    /**
+     * Returns whether the sender threads are running
+     * @return true if the executor is started, false otherwise
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Returns the number of sender threads of the executor
+     * @return the number of sender threads
+     */
+    public int getParallelism() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the number of messages waiting to be sent, across all the senders
+     * @return the number of queued messages
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (LinkedBlockingQueue<Message> shard : shards) size += shard.size();
+        return size;
+    }
+
+    /**
+     * Retrieves the index of the sender that messages on a given topic are sent from.
+     * Messages without a topic always go to the first sender.
+     *
+     * @param topic The topic of the message
+     * @return The index of the sender responsible for the topic
+     */
+    int getShardForTopic(String topic) {
+        if (topic == null) return 0;
+        return (topic.hashCode() & 0x7fffffff) % shards.size();
+    }
+
+    /**
+     * The main loop of a single sender thread. Everything queued for the sender is handed to the handler
+     * as one batch.
+     *
+     * @param shard The index of the queue shard this sender should consume
+     */
+    private void sendLoop(int shard) {
+        LinkedBlockingQueue<Message> queue = shards.get(shard);
+        ArrayList<Message> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running.get()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                handler.send(batch);
+            } catch (InterruptedException e) {
+                if (running.get()) log.error("Interrupted while attempting to fetch next Message from queue");
+            } catch (Exception e) {
+                log.error("Unexpected error while sending messages from " + name, e);
+            } finally {
+                batch.clear();
+            }
+        }
+        log.debug(name + " sender " + shard + " exited main run loop");
+    }
+}
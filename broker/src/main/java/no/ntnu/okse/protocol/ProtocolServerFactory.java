@@ -1,8 +1,10 @@
 package no.ntnu.okse.protocol;
 
 import no.ntnu.okse.protocol.amqp.AMQProtocolServer;
+import no.ntnu.okse.protocol.amqp.OutboundQueue;
 import no.ntnu.okse.protocol.amqp091.AMQP091ProtocolServer;
 import no.ntnu.okse.protocol.mqtt.MQTTProtocolServer;
+import no.ntnu.okse.protocol.stomp.STOMPChannelWriter;
 import no.ntnu.okse.protocol.stomp.STOMPProtocolServer;
 import no.ntnu.okse.protocol.wsn.WSNotificationServer;
 import org.w3c.dom.NamedNodeMap;
@@ -63,6 +65,8 @@ public class ProtocolServerFactory {
         final int DEFAULT_PORT = 5672;
         final boolean DEFAULT_SASL = true;
         final boolean DEFAULT_QUEUE = false;
+        final int DEFAULT_OUTBOUND_QUEUE_SIZE = 1024;
+        final OutboundQueue.OverflowPolicy DEFAULT_OVERFLOW_POLICY = OutboundQueue.OverflowPolicy.DROP_OLDEST;
 
         String host = attr.getNamedItem("host") != null ?
                 attr.getNamedItem("host").getNodeValue() :
@@ -80,7 +84,15 @@ public class ProtocolServerFactory {
                 stringToBoolean(attr.getNamedItem("queue").getNodeValue(), DEFAULT_QUEUE) :
                 DEFAULT_QUEUE;
 
-        return new AMQProtocolServer(host, port, queue, sasl);
+        int outbound_queue_size = attr.getNamedItem("outbound_queue_size") != null ?
+                stringToInt(attr.getNamedItem("outbound_queue_size").getNodeValue(), DEFAULT_OUTBOUND_QUEUE_SIZE) :
+                DEFAULT_OUTBOUND_QUEUE_SIZE;
+
+        OutboundQueue.OverflowPolicy overflow_policy = attr.getNamedItem("overflow_policy") != null ?
+                OutboundQueue.OverflowPolicy.fromString(attr.getNamedItem("overflow_policy").getNodeValue(), DEFAULT_OVERFLOW_POLICY) :
+                DEFAULT_OVERFLOW_POLICY;
+
+        return new AMQProtocolServer(host, port, queue, sasl, outbound_queue_size, overflow_policy);
     }
 
     private static AMQP091ProtocolServer createAMQP091(NamedNodeMap attr) {
@@ -122,6 +134,9 @@ public class ProtocolServerFactory {
         final boolean DEFAULT_NAT = false;
         final String DEFAULT_WAN_HOST = "0.0.0.0";
         final int DEFAULT_WAN_PORT = 61000;
+        final int DEFAULT_MAX_IN_FLIGHT = 8;
+        final int DEFAULT_MAX_QUEUED = 1024;
+        final int DEFAULT_MAX_REQUEST_SIZE = 32 * 1024 * 1024;
 
         String host = attr.getNamedItem("host") != null ?
                 attr.getNamedItem("host").getNodeValue() :
@@ -155,14 +170,29 @@ public class ProtocolServerFactory {
                 stringToInt(attr.getNamedItem("wan_port").getNodeValue(), DEFAULT_WAN_PORT) :
                 DEFAULT_WAN_PORT;
 
+        int max_in_flight = attr.getNamedItem("max_in_flight") != null ?
+                stringToInt(attr.getNamedItem("max_in_flight").getNodeValue(), DEFAULT_MAX_IN_FLIGHT) :
+                DEFAULT_MAX_IN_FLIGHT;
+
+        int max_queued = attr.getNamedItem("max_queued") != null ?
+                stringToInt(attr.getNamedItem("max_queued").getNodeValue(), DEFAULT_MAX_QUEUED) :
+                DEFAULT_MAX_QUEUED;
+
+        int max_request_size = attr.getNamedItem("max_request_size") != null ?
+                stringToInt(attr.getNamedItem("max_request_size").getNodeValue(), DEFAULT_MAX_REQUEST_SIZE) :
+                DEFAULT_MAX_REQUEST_SIZE;
+
         return new WSNotificationServer(
                 host, port, Integer.toUnsignedLong(timeout), pool_size,
-                wrapper_name, nat, wan_host, wan_port);
+                wrapper_name, nat, wan_host, wan_port, max_in_flight, max_queued,
+                Integer.toUnsignedLong(max_request_size));
     }
 
     private static ProtocolServer createStomp(NamedNodeMap attr) {
         final String DEFAULT_HOST = "0.0.0.0";
         final int DEFAULT_PORT = 61613;
+        final int DEFAULT_HIGH_WATER_MARK = STOMPChannelWriter.DEFAULT_HIGH_WATER_MARK;
+        final STOMPChannelWriter.SlowConsumerPolicy DEFAULT_SLOW_CONSUMER_POLICY = STOMPChannelWriter.SlowConsumerPolicy.PARK;
 
         String host = attr.getNamedItem("host") != null ?
                 attr.getNamedItem("host").getNodeValue() :
@@ -172,7 +202,16 @@ public class ProtocolServerFactory {
                 stringToPort(attr.getNamedItem("port").getNodeValue(), DEFAULT_PORT) :
                 DEFAULT_PORT;
 
-        STOMPProtocolServer temp = new STOMPProtocolServer (host, port);
+        int high_water_mark = attr.getNamedItem("high_water_mark") != null ?
+                stringToInt(attr.getNamedItem("high_water_mark").getNodeValue(), DEFAULT_HIGH_WATER_MARK) :
+                DEFAULT_HIGH_WATER_MARK;
+        if(high_water_mark < 1) high_water_mark = DEFAULT_HIGH_WATER_MARK;
+
+        STOMPChannelWriter.SlowConsumerPolicy slow_consumer_policy = attr.getNamedItem("slow_consumer_policy") != null ?
+                STOMPChannelWriter.SlowConsumerPolicy.fromString(attr.getNamedItem("slow_consumer_policy").getNodeValue(), DEFAULT_SLOW_CONSUMER_POLICY) :
+                DEFAULT_SLOW_CONSUMER_POLICY;
+
+        STOMPProtocolServer temp = new STOMPProtocolServer (host, port, high_water_mark, slow_consumer_policy);
         return temp;
     }
 }
@@ -35,21 +35,24 @@ import org.apache.qpid.proton.message.Message;
 import org.apache.qpid.proton.messenger.impl.Address;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AMQPServer extends BaseHandler {
 
     /**
      * Internal message queue for AMQP.
      * Basically one Deque with bytes for each
-     * Queue/Topic
+     * Queue/Topic. Only used in queue mode, where a message
+     * is held until a receiver with credit picks it up.
      */
 
     private static class MessageStore {
 
         Map<String, Deque<MessageBytes>> messages = new HashMap<String, Deque<MessageBytes>>();
 
-        void put(String address, MessageBytes messageBytes) {
+        synchronized void put(String address, MessageBytes messageBytes) {
             Deque<MessageBytes> queue = messages.get(address);
             if (queue == null) {
                 queue = new ArrayDeque<MessageBytes>();
@@ -58,7 +61,28 @@ public class AMQPServer extends BaseHandler {
             queue.add(messageBytes);
         }
 
-        MessageBytes get(String address) {
+        /**
+         * Put a message on an address, applying the overflow policy if the address
+         * already holds limit messages. The messages of a queue are not owned by any
+         * single consumer, so the disconnect policy rejects the new message instead.
+         *
+         * @return QUEUED if the message was added, DROPPED_OLDEST if it was added after discarding the
+         * oldest message on the address, and DROPPED_NEWEST if it was discarded
+         */
+        synchronized OutboundQueue.OfferResult put(String address, MessageBytes messageBytes, int limit,
+                                                   OutboundQueue.OverflowPolicy policy) {
+            Deque<MessageBytes> queue = messages.get(address);
+            if (queue != null && queue.size() >= limit) {
+                if (policy != OutboundQueue.OverflowPolicy.DROP_OLDEST) return OutboundQueue.OfferResult.DROPPED_NEWEST;
+                queue.remove();
+                put(address, messageBytes);
+                return OutboundQueue.OfferResult.DROPPED_OLDEST;
+            }
+            put(address, messageBytes);
+            return OutboundQueue.OfferResult.QUEUED;
+        }
+
+        synchronized MessageBytes get(String address) {
             Deque<MessageBytes> queue = messages.get(address);
             if (queue == null) {
                 return null;
@@ -74,16 +98,39 @@ public class AMQPServer extends BaseHandler {
     public static class TestMessageStore extends MessageStore {
     }
 
+    /**
+     * A message waiting to be fanned out to the subscribers of a topic.
+     * The encoded bytes are shared between all the senders on the topic.
+     */
+    private static class TopicDelivery {
+        final String address;
+        final MessageBytes messageBytes;
+
+        TopicDelivery(String address, MessageBytes messageBytes) {
+            this.address = address;
+            this.messageBytes = messageBytes;
+        }
+    }
+
     public static TestMessageStore createMessageStoreFactory() {
         return new TestMessageStore();
     }
 
+    // Room for section descriptors, type codes and length prefixes when estimating encoded message size
+    private static final int ENCODING_OVERHEAD = 128;
+    private static final int MAX_POOLED_ENCODE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final ThreadLocal<byte[]> encodeBuffer = ThreadLocal.withInitial(() -> new byte[4096]);
+
     final private MessageStore messages = new MessageStore();
     final private SubscriptionHandler subscriptionHandler;
     private static Logger log;
     private boolean quiet;
     private int tag = 0;
     private LinkedBlockingQueue<String> queue;
+    // Messages waiting for the driver thread to fan them out, bounded like the outbound queue of a sender
+    private LinkedBlockingQueue<TopicDelivery> topicDeliveries;
+    private ConcurrentHashMap<Sender, OutboundQueue> outboundQueues;
+    private AtomicLong droppedMessages;
     private AMQProtocolServer ps;
 
     public AMQPServer(AMQProtocolServer ps, SubscriptionHandler subscriptionHandler, boolean quiet) {
@@ -91,6 +138,9 @@ public class AMQPServer extends BaseHandler {
         this.quiet = quiet;
         log = Logger.getLogger(AMQPServer.class.getName());
         queue = new LinkedBlockingQueue<>();
+        topicDeliveries = new LinkedBlockingQueue<>(Math.max(1, ps.getOutboundQueueSize()));
+        outboundQueues = new ConcurrentHashMap<>();
+        droppedMessages = new AtomicLong(0);
         this.ps = ps;
     }
 
@@ -126,7 +176,7 @@ public class AMQPServer extends BaseHandler {
         log.debug("Fetched this sender: " + snd.toString());
 
         int count = 0;
-        while (snd.getCredit() > 0 && snd.getQueued() < 1024) {
+        while (snd.getCredit() > 0 && snd.getQueued() < ps.getOutboundQueueSize()) {
             MessageBytes mb = messages.get(address);
             if (mb == null) {
                 snd.drained();
@@ -143,47 +193,150 @@ public class AMQPServer extends BaseHandler {
     }
 
     /**
-     * Send an AMQP message to the given address,
-     * this method will choose either use Topic
-     * or Queue based on the configuration of
-     * OKSE.
+     * Send the next queued AMQP message on the given address
+     * to one of the receivers of the queue.
      *
-     * @param address / topic / queue
-     * @return int of bytes sent
+     * @param address / queue
+     * @return int of messages sent
      */
     private int send(String address) {
+        log.debug(String.format("Use Queue is set to: %b, using queue mode", ps.useQueue));
+        return send(address, null);
+    }
+
+    /**
+     * Fan an encoded message out to every sender on the given topic.
+     * The same encoded bytes are put on the outbound queue of every sender,
+     * so the message is never re-encoded or copied per subscriber. Each queue
+     * is then drained as far as the credit of its sender allows.
+     *
+     * @param address / topic
+     * @param mb      The encoded message shared by all senders
+     * @return int of messages sent
+     */
+    private int fanOut(String address, MessageBytes mb) {
         int count = 0;
 
-        if (ps.useQueue) {
-            log.debug(String.format("Use Queue is set to: %b, using queue mode", ps.useQueue));
-            return send(address, null);
-        } else {
-            log.debug(String.format("Use Queue is set to: %b, using topic mode", ps.useQueue));
-            List<Sender> sendersOnTopic = subscriptionHandler.getOutgoing(address).getRoutes();
+        for (Sender snd : subscriptionHandler.getOutgoing(address).getRoutes()) {
+            OutboundQueue outbound = outboundQueues.computeIfAbsent(snd,
+                    s -> new OutboundQueue(ps.getOutboundQueueSize(), ps.getOverflowPolicy()));
+
+            switch (outbound.offer(mb)) {
+                case DROPPED_OLDEST:
+                case DROPPED_NEWEST:
+                    droppedMessages.incrementAndGet();
+                    log.debug("Outbound queue full for sender on topic: " + address + ", dropped a message");
+                    break;
+                case OVERFLOW:
+                    droppedMessages.addAndGet(outbound.getCapacity() + 1);
+                    outboundQueues.remove(snd);
+                    log.warn("Outbound queue full for sender on topic: " + address + ", disconnecting slow consumer");
+                    subscriptionHandler.disconnect(snd);
+                    continue;
+                default:
+                    break;
+            }
 
-            MessageBytes mb = messages.get(address);
-            for (Sender snd : sendersOnTopic) {
-                if (mb == null) {
-                    snd.drained();
-                    return count;
-                }
-                Delivery dlv = snd.delivery(nextTag());
+            count += drain(snd, outbound);
+        }
+
+        return count;
+    }
 
-                byte[] bytes = mb.getBytes();
-                snd.send(bytes, 0, bytes.length);
-                ps.incrementTotalMessagesSent();
+    /**
+     * Write messages from the outbound queue of a sender to the link,
+     * consuming one credit per message, until the credit or the queue runs out.
+     *
+     * @param snd      The sender link
+     * @param outbound The outbound queue of the sender
+     * @return int of messages sent
+     */
+    private int drain(Sender snd, OutboundQueue outbound) {
+        int count = 0;
+        while (snd.getCredit() > 0) {
+            MessageBytes mb = outbound.poll();
+            if (mb == null) break;
 
-                dlv.disposition(Accepted.getInstance());
-                dlv.settle();
+            Delivery dlv = snd.delivery(nextTag());
+            byte[] bytes = mb.getBytes();
+            snd.send(bytes, 0, bytes.length);
+            ps.incrementTotalMessagesSent();
 
-                count++;
-            }
+            dlv.disposition(Accepted.getInstance());
+            dlv.settle();
 
+            count++;
         }
-
         return count;
     }
 
+    /**
+     * Get the number of messages waiting in the outbound queue of each sender link,
+     * keyed by the address and name of the link.
+     *
+     * @return A map from link to outbound queue depth
+     */
+    public Map<String, Integer> getOutboundQueueDepths() {
+        HashMap<String, Integer> depths = new HashMap<>();
+        outboundQueues.forEach((snd, outbound) ->
+                depths.put(subscriptionHandler.getAddress(snd) + "/" + snd.getName(), outbound.size()));
+        return depths;
+    }
+
+    /**
+     * Get the total number of messages discarded because an outbound queue was full
+     *
+     * @return The number of dropped messages
+     */
+    public long getTotalDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Add an encoded message for delivery on an address. In queue mode the message is
+     * held in the message store until a receiver picks it up, while in topic mode it is
+     * fanned out to all current subscribers of the topic by the driver thread. Both are
+     * bounded by the outbound queue size, and the overflow policy decides which message
+     * is discarded when they are full. There is no single link to disconnect at this
+     * point, so the disconnect policy discards the new message.
+     *
+     * @param address / topic / queue
+     * @param mb      The encoded message
+     * @return true if there is a new message for the driver to send, false if it was discarded
+     */
+    private boolean enqueue(String address, MessageBytes mb) {
+        if (ps.useQueue) {
+            switch (messages.put(address, mb, ps.getOutboundQueueSize(), ps.getOverflowPolicy())) {
+                case QUEUED:
+                    queue.add(address);
+                    return true;
+                case DROPPED_OLDEST:
+                    // The address already has an entry in the send queue for the message that was replaced
+                    droppedMessages.incrementAndGet();
+                    log.debug("Message queue full for address: " + address + ", dropped the oldest message");
+                    return true;
+                default:
+                    droppedMessages.incrementAndGet();
+                    log.debug("Message queue full for address: " + address + ", dropped the new message");
+                    return false;
+            }
+        }
+
+        TopicDelivery delivery = new TopicDelivery(address, mb);
+        if (topicDeliveries.offer(delivery)) return true;
+        if (ps.getOverflowPolicy() != OutboundQueue.OverflowPolicy.DROP_OLDEST) {
+            droppedMessages.incrementAndGet();
+            log.debug("Topic delivery queue full, dropped the new message on topic: " + address);
+            return false;
+        }
+        // Make room by discarding the oldest deliveries, other threads may be adding to the queue as well
+        while (!topicDeliveries.offer(delivery)) {
+            if (topicDeliveries.poll() != null) droppedMessages.incrementAndGet();
+        }
+        log.debug("Topic delivery queue full, dropped the oldest message to add one on topic: " + address);
+        return true;
+    }
+
     /**
      * Convert a OKSE message to AMQP and add it the the message queue.
      *
@@ -195,13 +348,10 @@ public class AMQPServer extends BaseHandler {
         MessageBytes mb = convertAMQPMessageToMessageBytes(msg);
 
         String address = message.getTopic();
-        messages.put(address, mb);
-        queue.add(address);
+        if (!enqueue(address, mb)) return;
 
         log.debug("Added message on topic: " + address + " to queue");
 
-        log.debug("The first message in the queue is currently: " + queue.peek());
-
         ps.getDriver().wakeUp();
     }
 
@@ -213,48 +363,81 @@ public class AMQPServer extends BaseHandler {
      * @return MessageBytes object
      */
     public static MessageBytes convertAMQPMessageToMessageBytes(Message msg) {
-
-
-        byte[] buffer = gestimateMessageByteSize(msg);
-
-        MessageBytes mb = new MessageBytes(buffer);
-        System.out.println("This is mb.length: " + mb.getBytes().length);
-        return mb;
+        return new MessageBytes(encodeMessage(msg));
     }
 
     /**
-     * Get an AMQP message as a byte array.
-     * This method uses qualified guessing to achieve its goal.
+     * Encode an AMQP message into a byte array of the exact encoded size.
+     * The message is encoded into a reusable per-thread buffer that is sized from an estimate of the
+     * encoded message size. Should the estimate be too small, the buffer is doubled, so the cost of
+     * encoding is linear in the size of the message.
      *
      * @param msg : AMQP internal message
      * @return byte[]
      */
-    private static byte[] gestimateMessageByteSize(Message msg) {
-
-        int guestimateByteSize = 0;
-        if (msg.getBody().toString().length() != 0) {
-            guestimateByteSize += msg.getBody().toString().getBytes().length;
+    private static byte[] encodeMessage(Message msg) {
+        int estimate = estimateEncodedSize(msg);
+        byte[] buffer = encodeBuffer.get();
+        if (buffer.length < estimate) {
+            buffer = new byte[Math.max(estimate, buffer.length * 2)];
         }
-        if (msg.getAddress().getBytes().length != 0) {
-            guestimateByteSize += msg.getAddress().getBytes().length;
-        }
-        if (msg.getSubject().getBytes().length != 0) {
-            guestimateByteSize += msg.getSubject().getBytes().length;
-        }
-        int encoded;
 
-        byte[] buffer = new byte[guestimateByteSize];
+        int encoded;
         while (true) {
             try {
-                //log.debug("While loop: encode block, buffer length: " + buffer.length);
                 encoded = msg.encode(buffer, 0, buffer.length);
                 break;
             } catch (java.nio.BufferOverflowException e) {
-                buffer = new byte[buffer.length + 1];
+                buffer = new byte[buffer.length * 2];
             }
         }
 
-        return buffer;
+        // Keep the buffer for the next message on this thread, unless it has grown unreasonably large
+        if (buffer.length <= MAX_POOLED_ENCODE_BUFFER_SIZE) encodeBuffer.set(buffer);
+
+        return Arrays.copyOf(buffer, encoded);
+    }
+
+    /**
+     * Estimate the number of bytes needed to encode an AMQP message.
+     * The estimate is the UTF-8 length of the body, address and subject, plus room for the
+     * section descriptors and type codes.
+     *
+     * @param msg : AMQP internal message
+     * @return The estimated encoded size in bytes
+     */
+    private static int estimateEncodedSize(Message msg) {
+        int size = ENCODING_OVERHEAD;
+        Section body = msg.getBody();
+        if (body instanceof AmqpValue && ((AmqpValue) body).getValue() instanceof String) {
+            size += utf8Length((String) ((AmqpValue) body).getValue());
+        } else if (body != null) {
+            size += utf8Length(body.toString());
+        }
+        if (msg.getAddress() != null) size += utf8Length(msg.getAddress());
+        if (msg.getSubject() != null) size += utf8Length(msg.getSubject());
+
+        return size;
+    }
+
+    /**
+     * Count the number of bytes needed to encode a string as UTF-8, without encoding it
+     *
+     * @param string The string to measure
+     * @return The UTF-8 length of the string in bytes
+     */
+    private static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else length += 3;
+        }
+        return length;
     }
 
     /**
@@ -278,17 +461,16 @@ public class AMQPServer extends BaseHandler {
      * Send the messages that are ready to go out.
      */
     public void sendNextMessagesInQueue() {
-        try {
-            if (queue.size() > 0) {
-                while (queue.size() > 0) {
-                    String messageTopic = queue.take();
-                    send(messageTopic);
-                    log.debug("Distributed messages with topic: " + messageTopic);
-                }
-            }
-        } catch (InterruptedException e) {
-            ps.incrementTotalErrors();
-            log.error("Got interrupted: " + e.getMessage());
+        String messageTopic;
+        while ((messageTopic = queue.poll()) != null) {
+            send(messageTopic);
+            log.debug("Distributed messages with topic: " + messageTopic);
+        }
+
+        TopicDelivery delivery;
+        while ((delivery = topicDeliveries.poll()) != null) {
+            fanOut(delivery.address, delivery.messageBytes);
+            log.debug("Distributed message with topic: " + delivery.address);
         }
     }
 
@@ -297,11 +479,26 @@ public class AMQPServer extends BaseHandler {
         Link link = evt.getLink();
         if (link instanceof Sender) {
             Sender snd = (Sender) link;
-            send(subscriptionHandler.getAddress(snd), snd);
+            if (ps.useQueue) {
+                send(subscriptionHandler.getAddress(snd), snd);
+            } else {
+                // The receiver granted more credit, so send what has queued up for it
+                OutboundQueue outbound = outboundQueues.get(snd);
+                if (outbound != null) drain(snd, outbound);
+            }
             //AMQProtocolServer.getInstance().incrementTotalRequests();
         }
     }
 
+    @Override
+    public void onLinkFinal(Event evt) {
+        Link link = evt.getLink();
+        if (link instanceof Sender) {
+            // Release any messages still queued up for the closed link
+            outboundQueues.remove(link);
+        }
+    }
+
     /**
      * onDelviery is triggered when the AMQP socket receives
      * a message. When the message is received it will create
@@ -337,14 +534,8 @@ public class AMQPServer extends BaseHandler {
 
                 TopicService.getInstance().addTopic(address.getName());
 
-                // Add straight to AMQP queue
-                try {
-                    messages.put(address.getName(), mb);
-                    queue.put(address.getName());
-                } catch (InterruptedException e) {
-                    ps.incrementTotalErrors();
-                    log.error("Got interrupted: " + e.getMessage());
-                }
+                // Add straight to AMQP queue, reusing the bytes as received from the publisher
+                enqueue(address.getName(), mb);
 
                 no.ntnu.okse.core.messaging.Message message = convertAMQPmessageToOkseMessage(msg, address);
 
@@ -24,7 +24,9 @@
 
 package no.ntnu.okse.protocol.amqp;
 
+import no.ntnu.okse.core.event.listeners.BackpressureListener;
 import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.protocol.AbstractProtocolServer;
 import org.apache.log4j.Logger;
@@ -32,6 +34,8 @@ import org.apache.qpid.proton.engine.Collector;
 
 import java.io.IOException;
 import java.nio.channels.UnresolvedAddressException;
+import java.util.HashMap;
+import java.util.Map;
 
 public class AMQProtocolServer extends AbstractProtocolServer {
 
@@ -45,6 +49,8 @@ public class AMQProtocolServer extends AbstractProtocolServer {
 
     public boolean useQueue;
     protected boolean useSASL;
+    private int outboundQueueSize;
+    private OutboundQueue.OverflowPolicy overflowPolicy;
 
     private Driver driver;
 
@@ -59,9 +65,29 @@ public class AMQProtocolServer extends AbstractProtocolServer {
      * @param sasl A boolean specifying whether to use SASL for its connections
      */
     public AMQProtocolServer(String host, int port, boolean queue, boolean sasl) {
+        this(host, port, queue, sasl, 1024, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Constructor that takes in configuration options for the AMQProtocolServer
+     * server, including the bounds on messages queued up for slow consumers.
+     * <p>
+     *
+     * @param host A String representing the host the WSNServer should bind to
+     * @param port An int representing the port the WSNServer should bind to.
+     * @param queue A boolean specifying whether to use queueing behaviour
+     * @param sasl A boolean specifying whether to use SASL for its connections
+     * @param outboundQueueSize The maximum number of messages queued per sender link (or per queue in queue mode)
+     * @param overflowPolicy What to do with messages for a sender link whose queue is full. In queue mode,
+     *                       the disconnect policy drops the new message, as no consumer owns a queue.
+     */
+    public AMQProtocolServer(String host, int port, boolean queue, boolean sasl,
+                             int outboundQueueSize, OutboundQueue.OverflowPolicy overflowPolicy) {
         protocolServerType = "amqp";
         useQueue = queue;
         useSASL = sasl;
+        this.outboundQueueSize = outboundQueueSize;
+        this.overflowPolicy = overflowPolicy;
         this.port = port;
         this.host = host;
         log = Logger.getLogger(AMQProtocolServer.class.getName());
@@ -77,9 +103,10 @@ public class AMQProtocolServer extends AbstractProtocolServer {
             server = new AMQPServer(this, sh, false);
             try {
                 driver = new Driver(this, collector, new Handshaker(),
-                        new FlowController(1024), sh,
+                        new FlowController(1024, MessageService.getInstance()::isOverloaded), sh,
                         server);
                 driver.listen(this.host, this.port);
+                MessageService.getInstance().addBackpressureListener(backpressureListener);
             } catch(UnresolvedAddressException e) {
                 throw new BootErrorException("Unresolved address");
             } catch (IOException e) {
@@ -107,6 +134,7 @@ public class AMQProtocolServer extends AbstractProtocolServer {
     public void stopServer() {
         log.info("Stopping AMQProtocolServer");
         shuttingdown = true;
+        MessageService.getInstance().removeBackpressureListener(backpressureListener);
         driver.stop();
         sh.unsubscribeAll();
         sh = null;
@@ -130,6 +158,12 @@ public class AMQProtocolServer extends AbstractProtocolServer {
 
     private AMQPServer server;
 
+    // Wakes up the driver when the MessageService has drained, so it can grant credit to the publishers again
+    private final BackpressureListener backpressureListener = overloaded -> {
+        Driver d = driver;
+        if (!overloaded && d != null) d.wakeUp();
+    };
+
     public Driver getDriver() {
         return driver;
     }
@@ -138,6 +172,34 @@ public class AMQProtocolServer extends AbstractProtocolServer {
         return sh;
     }
 
+    public int getOutboundQueueSize() {
+        return outboundQueueSize;
+    }
+
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Get the number of messages waiting for each AMQP sender link
+     *
+     * @return A map from link address and name to outbound queue depth
+     */
+    public Map<String, Integer> getOutboundQueueDepths() {
+        if (server == null) return new HashMap<>();
+        return server.getOutboundQueueDepths();
+    }
+
+    /**
+     * Get the number of messages dropped because a consumer could not keep up
+     *
+     * @return The number of dropped messages
+     */
+    public long getTotalDroppedMessages() {
+        if (server == null) return 0;
+        return server.getTotalDroppedMessages();
+    }
+
     public boolean isShuttingDown() {
         return shuttingdown;
     }
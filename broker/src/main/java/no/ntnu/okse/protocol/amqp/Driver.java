@@ -102,6 +102,10 @@ public class Driver extends BaseHandler {
                 if (h instanceof AMQPServer) {
                     ((AMQPServer) h).sendNextMessagesInQueue();
                 }
+                // Grant credit to publishers that were held back while the broker was overloaded
+                if (h instanceof FlowController) {
+                    ((FlowController) h).topUpStarved();
+                }
             }
 
             processEvents();
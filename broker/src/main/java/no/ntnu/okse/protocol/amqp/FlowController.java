@@ -25,23 +25,70 @@
 package no.ntnu.okse.protocol.amqp;
 
 import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.EndpointState;
 import org.apache.qpid.proton.engine.Event;
 import org.apache.qpid.proton.engine.Link;
 import org.apache.qpid.proton.engine.Receiver;
 
+import java.util.LinkedHashSet;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the credit of the receiving links topped up to the window. While the broker is overloaded no credit is
+ * granted, so publishers run out of credit and stop sending. The starved links are topped up again by
+ * {@link #topUpStarved()}, which the driver calls on every iteration of its event loop.
+ * <p>
+ * All methods must be called from the driver thread, as proton is not thread safe.
+ */
 public class FlowController extends BaseHandler {
 
     final private int window;
+    final private BooleanSupplier overloaded;
+    final private LinkedHashSet<Receiver> starved;
 
     public FlowController(int window) {
+        this(window, () -> false);
+    }
+
+    /**
+     * @param window the number of messages a publisher may send without waiting for more credit
+     * @param overloaded tells whether the broker is overloaded, and credit should be withheld
+     */
+    public FlowController(int window, BooleanSupplier overloaded) {
         this.window = window;
+        this.overloaded = overloaded;
+        this.starved = new LinkedHashSet<>();
     }
 
     private void topUp(Receiver rcv) {
+        if (overloaded.getAsBoolean()) {
+            starved.add(rcv);
+            return;
+        }
         int delta = window - rcv.getCredit();
         rcv.flow(delta);
     }
 
+    /**
+     * Grants credit to the links that were starved while the broker was overloaded, if it no longer is
+     */
+    public void topUpStarved() {
+        if (starved.isEmpty() || overloaded.getAsBoolean()) return;
+        Receiver[] receivers = starved.toArray(new Receiver[starved.size()]);
+        starved.clear();
+        for (Receiver rcv : receivers) {
+            if (rcv.getLocalState() != EndpointState.CLOSED) topUp(rcv);
+        }
+    }
+
+    /**
+     * Returns the number of links that are waiting for credit
+     * @return the number of starved links
+     */
+    public int getStarvedLinks() {
+        return starved.size();
+    }
+
     @Override
     public void onLinkLocalOpen(Event evt) {
         Link link = evt.getLink();
@@ -74,4 +121,12 @@ public class FlowController extends BaseHandler {
         }
     }
 
+    @Override
+    public void onLinkFinal(Event evt) {
+        Link link = evt.getLink();
+        if (link instanceof Receiver) {
+            starved.remove(link);
+        }
+    }
+
 }
@@ -24,7 +24,11 @@
 
 package no.ntnu.okse.protocol.amqp;
 
-public class MessageBytes {
+/**
+ * An encoded AMQP message. Instances are shared between all the senders a message is
+ * fanned out to, so the wrapped byte array must never be modified after construction.
+ */
+public final class MessageBytes {
 
     private final byte[] bytes;
 
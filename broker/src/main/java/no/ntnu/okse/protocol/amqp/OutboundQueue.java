@@ -0,0 +1,137 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.amqp;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue of encoded messages waiting to be written to a single AMQP sender link.
+ * Messages are only written to the link when it has credit, and once the queue is full
+ * the configured overflow policy decides what happens to the link and its messages.
+ */
+public class OutboundQueue {
+
+    /**
+     * What to do when a message is offered to a full queue
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST, DROP_NEWEST, DISCONNECT;
+
+        /**
+         * Parse an overflow policy from its configuration form, e.g. "drop-oldest"
+         *
+         * @param policy        The policy as a string
+         * @param defaultPolicy The policy to use if the string is not recognized
+         * @return The parsed OverflowPolicy
+         */
+        public static OverflowPolicy fromString(String policy, OverflowPolicy defaultPolicy) {
+            if (policy == null) return defaultPolicy;
+            try {
+                return valueOf(policy.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                return defaultPolicy;
+            }
+        }
+    }
+
+    /**
+     * The outcome of offering a message to the queue
+     */
+    public enum OfferResult {
+        QUEUED, DROPPED_OLDEST, DROPPED_NEWEST, OVERFLOW
+    }
+
+    private final ArrayDeque<MessageBytes> messages;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    /**
+     * Create a new outbound queue
+     *
+     * @param capacity The maximum number of messages held in the queue
+     * @param policy   The overflow policy to apply when the queue is full
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.messages = new ArrayDeque<>();
+    }
+
+    /**
+     * Offer a message to the queue, applying the overflow policy if the queue is full
+     *
+     * @param mb The encoded message
+     * @return QUEUED if the message was added, DROPPED_OLDEST if it was added after discarding the oldest
+     * message, DROPPED_NEWEST if it was discarded, and OVERFLOW if the queue was cleared and the link
+     * should be disconnected.
+     */
+    public synchronized OfferResult offer(MessageBytes mb) {
+        if (messages.size() < capacity) {
+            messages.add(mb);
+            return OfferResult.QUEUED;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                messages.poll();
+                messages.add(mb);
+                return OfferResult.DROPPED_OLDEST;
+            case DROP_NEWEST:
+                return OfferResult.DROPPED_NEWEST;
+            default:
+                messages.clear();
+                return OfferResult.OVERFLOW;
+        }
+    }
+
+    /**
+     * Retrieve and remove the next message in the queue
+     *
+     * @return The next encoded message, or null if the queue is empty
+     */
+    public synchronized MessageBytes poll() {
+        return messages.poll();
+    }
+
+    /**
+     * @return The number of messages currently waiting in the queue
+     */
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    /**
+     * @return The maximum number of messages held in the queue
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The overflow policy of the queue
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+}
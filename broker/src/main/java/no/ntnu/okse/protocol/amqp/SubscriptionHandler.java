@@ -414,7 +414,22 @@ public class SubscriptionHandler extends BaseHandler implements SubscriptionChan
         }
     }
 
+    /**
+     * Disconnect a sender by removing its subscriber from OKSE. The UNSUBSCRIBE
+     * callback then removes the sender from the routing system and closes the link.
+     *
+     * @param sender : Client object
+     */
+    public void disconnect(Sender sender) {
+        Subscriber subscriber = localSenderSubscriberMap.get(sender);
+        if (subscriber != null) {
+            SubscriptionService.getInstance().removeSubscriber(subscriber);
+        } else {
+            remove(sender);
+        }
+    }
+
     public void unsubscribeAll() {
-        localSenderSubscriberMap.forEach((sender, subscriber) -> SubscriptionService.getInstance().removeSubscriber(subscriber));
+        SubscriptionService.getInstance().removeSubscribers(new ArrayList<>(localSenderSubscriberMap.values()));
     }
 }
@@ -59,9 +59,7 @@ public class AMQP091MessageListener implements AMQPMessageListener, Subscription
                 disconnectMessage.getHost(), disconnectMessage.getPort()
         ));
         List<Subscriber> subscribers = subscriberMap.getSubscribers(disconnectMessage.getHost(), disconnectMessage.getPort());
-        for(Subscriber subscriber : subscribers) {
-            subscriptionService.removeSubscriber(subscriber);
-        }
+        subscriptionService.removeSubscribers(subscribers);
         amqpProtocolServer.incrementTotalRequests();
     }
 
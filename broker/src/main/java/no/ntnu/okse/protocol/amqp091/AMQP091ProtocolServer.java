@@ -6,7 +6,7 @@ import no.ntnu.okse.protocol.AbstractProtocolServer;
 import no.ntnu.okse.protocol.ProtocolServer;
 import org.apache.log4j.Logger;
 
-import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -112,7 +112,7 @@ public class AMQP091ProtocolServer extends AbstractProtocolServer {
      * @param topic topic
      */
     private void incrementMessageSentForTopic(String topic) {
-        HashSet<Subscriber> allSubscribers = subscriptionService.getAllSubscribers();
+        Set<Subscriber> allSubscribers = subscriptionService.getAllSubscribers();
         allSubscribers.stream()
                 .filter(subscriber -> subscriber.getOriginProtocol().equals(getProtocolServerType()))
                 .filter(subscriber -> subscriber.getTopic().equals(topic))
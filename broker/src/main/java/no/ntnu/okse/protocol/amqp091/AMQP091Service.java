@@ -2,6 +2,7 @@ package no.ntnu.okse.protocol.amqp091;
 
 import fr.dyade.aaa.agent.AgentServer;
 import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.protocol.OutboundExecutor;
 import org.apache.log4j.Logger;
 import org.ow2.joram.mom.amqp.AMQPService;
 
@@ -10,7 +11,6 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -23,8 +23,7 @@ public class AMQP091Service {
     private static Logger log = Logger.getLogger(AMQP091Service.class.getName());
     private AMQP091MessageListener messageListener;
     private AMQP091ProtocolServer protocolServer;
-    private LinkedBlockingQueue<Message> messageQueue;
-    private Thread messageSenderThread;
+    private OutboundExecutor outboundExecutor;
     private AtomicBoolean running;
 
     /**
@@ -37,7 +36,7 @@ public class AMQP091Service {
         this.host = amqp091ProtocolServer.getHost();
         this.port = amqp091ProtocolServer.getPort();
         messageListener = new AMQP091MessageListener(amqp091ProtocolServer);
-        messageQueue = new LinkedBlockingQueue<>();
+        outboundExecutor = amqp091ProtocolServer.createOutboundExecutor(batch -> batch.forEach(this::publish));
         running = new AtomicBoolean(false);
     }
 
@@ -64,18 +63,7 @@ public class AMQP091Service {
         AMQPService.addMessageListener(messageListener);
         AMQPService.setPublishing(false);
 
-        messageSenderThread = new Thread(() -> {
-            while(running.get()) {
-                try {
-                    Message message = messageQueue.take();
-                    AMQPService.internalPublish(message.getTopic(), "", message.getMessage().getBytes(StandardCharsets.UTF_8));
-                } catch (InterruptedException e) {
-                    log.info("AMQP 0.9.1 message queue interrupted, stopping?");
-                }
-
-            }
-        });
-        messageSenderThread.start();
+        outboundExecutor.start();
 
         log.debug("AMQP 0.9.1 service started successfully");
     }
@@ -88,7 +76,7 @@ public class AMQP091Service {
         AMQPService.stopService();
         AgentServer.stop();
         running.set(false);
-        messageSenderThread.interrupt();
+        outboundExecutor.stop();
         log.debug("AMQP 0.9.1 service stopped");
     }
 
@@ -127,6 +115,15 @@ public class AMQP091Service {
      * @param message message
      */
     public void sendMessage(Message message) {
-        messageQueue.add(message);
+        outboundExecutor.submit(message);
+    }
+
+    /**
+     * Publish a message to the AMQP 0.9.1 clients. Called from the message senders.
+     *
+     * @param message message
+     */
+    private void publish(Message message) {
+        AMQPService.internalPublish(message.getTopic(), "", message.getMessage().getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -13,9 +13,11 @@ import io.moquette.server.Server;
 import io.moquette.server.config.IConfig;
 import io.moquette.server.config.MemoryConfig;
 import io.netty.channel.Channel;
+import no.ntnu.okse.core.event.listeners.BackpressureListener;
 import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.protocol.OutboundExecutor;
 import org.apache.log4j.Logger;
 
 import javax.validation.constraints.NotNull;
@@ -25,7 +27,8 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MQTTServer extends Server {
@@ -35,9 +38,11 @@ public class MQTTServer extends Server {
     private final IConfig config;
     private List<InterceptHandler> interceptHandlers;
     private MQTTSubscriptionManager subscriptionManager;
-    private LinkedBlockingQueue<Message> messageQueue;
-    private Thread messageSenderThread;
+    private OutboundExecutor outboundExecutor;
     private AtomicBoolean running;
+    // Publishers that are not read from while the MessageService is overloaded
+    private Set<Channel> pausedPublishers;
+    private BackpressureListener backpressureListener;
 
     /**
      * Class for the interceptors to be used in Moquette
@@ -77,8 +82,12 @@ public class MQTTServer extends Server {
         interceptHandlers = new ArrayList<>();
         interceptHandlers.add(createListeners());
         config = new MemoryConfig(getConfig(host, port));
-        messageQueue = new LinkedBlockingQueue<>();
+        outboundExecutor = ps.createOutboundExecutor(batch -> batch.forEach(this::sendMessage));
         running = new AtomicBoolean(false);
+        pausedPublishers = ConcurrentHashMap.newKeySet();
+        backpressureListener = overloaded -> {
+            if (!overloaded) resumePublishers();
+        };
     }
 
     /**
@@ -89,19 +98,8 @@ public class MQTTServer extends Server {
             if(!running.compareAndSet(false, true))
                 return;
 
-            messageSenderThread = new Thread(() -> {
-                while(running.get()) {
-                    try {
-                        Message message = messageQueue.take();
-                        sendMessage(message);
-                    } catch (InterruptedException e) {
-                        log.info("MQTT message queue interrupted, stopping?");
-                    }
-
-                }
-            });
-
-            messageSenderThread.start();
+            outboundExecutor.start();
+            MessageService.getInstance().addBackpressureListener(backpressureListener);
             startServer(config, interceptHandlers);
         } catch (IOException e) {
             ps.incrementTotalErrors();
@@ -110,11 +108,33 @@ public class MQTTServer extends Server {
     }
 
     /**
-     * Stops the message thread
+     * Stops the message sender threads
      */
     void stopMessageThread() {
         running.set(false);
-        messageSenderThread.interrupt();
+        MessageService.getInstance().removeBackpressureListener(backpressureListener);
+        resumePublishers();
+        outboundExecutor.stop();
+    }
+
+    /**
+     * Stops reading from a publisher while the MessageService is overloaded
+     * @param channel the channel of the publisher
+     */
+    void pausePublisher(Channel channel) {
+        channel.config().setAutoRead(false);
+        pausedPublishers.add(channel);
+        // The backpressure may have been released before the publisher was paused
+        if (!MessageService.getInstance().isOverloaded()) resumePublishers();
+    }
+
+    /**
+     * Starts reading from all the paused publishers again
+     */
+    void resumePublishers() {
+        for (Channel channel : pausedPublishers) {
+            if (pausedPublishers.remove(channel)) channel.config().setAutoRead(true);
+        }
     }
 
     /**
@@ -137,6 +157,11 @@ public class MQTTServer extends Server {
         msg.setAttribute("qos", String.valueOf(message.getQos().byteValue()));
         sendMessageToOKSE(msg);
         ps.incrementTotalMessagesReceived();
+
+        if (MessageService.getInstance().isOverloaded()) {
+            log.debug("MessageService is overloaded, pausing the MQTT publisher " + message.getClientID());
+            pausePublisher(channel);
+        }
     }
 
     /**
@@ -243,11 +268,11 @@ public class MQTTServer extends Server {
     }
 
     /**
-     * Add a message to the message queue
+     * Add a message to the queue of the message senders
      * @param message Message to queue
      */
     public void queueMessage(@NotNull Message message) {
-        messageQueue.add(message);
+        outboundExecutor.submit(message);
     }
 
         /**
@@ -9,25 +9,62 @@ import no.ntnu.okse.core.topic.TopicService;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class handles subscriptions, will add and remove subscribers based on clientID, a subscriber object or a host, a port and a topic.
+ * The subscribers are kept in concurrent maps, so all operations are safe to call from the Moquette handler threads.
  */
 public class MQTTSubscriptionManager implements SubscriptionChangeListener {
     private static Logger log;
     private SubscriptionService subscriptionService = null;
-    private ArrayList<MQTTSubscriber> subscriberList;
+    private ConcurrentHashMap<SubscriptionKey, MQTTSubscriber> subscribers;
+    private ConcurrentHashMap<String, Set<MQTTSubscriber>> subscribersByClientID;
+    private ConcurrentHashMap<Subscriber, MQTTSubscriber> subscribersByOKSESubscriber;
+    private MQTTSubscriptionTrie subscriptionTrie;
+
+    /**
+     * Key identifying a subscription by the host, port and topic of the connection
+     */
+    private static final class SubscriptionKey {
+        private final String host;
+        private final int port;
+        private final String topic;
+
+        SubscriptionKey(String host, int port, String topic) {
+            this.host = host;
+            this.port = port;
+            this.topic = topic;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SubscriptionKey)) return false;
+            SubscriptionKey other = (SubscriptionKey) o;
+            return port == other.port && Objects.equals(host, other.host) && Objects.equals(topic, other.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, topic);
+        }
+    }
 
     /**
      * Constructor
      * Instantiates the log
-     * Instantiates the local subscriber list
+     * Instantiates the local subscriber maps and the topic trie
      */
     public MQTTSubscriptionManager() {
         log = Logger.getLogger(MQTTSubscriptionManager.class.getName());
-        subscriberList = new ArrayList<>();
+        subscribers = new ConcurrentHashMap<>();
+        subscribersByClientID = new ConcurrentHashMap<>();
+        subscribersByOKSESubscriber = new ConcurrentHashMap<>();
+        subscriptionTrie = new MQTTSubscriptionTrie();
     }
 
     /**
@@ -46,21 +83,25 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
      * @param clientID the clientID of the connection
      */
     public void addSubscriber(String host, int port, String topic, String clientID) {
-        if (getSubscriberIndex(host, port, topic) != -1) {
-            log.warn("This subscriber is already added");
-            return;
-        }
         //Create the OKSE sub
         Subscriber sub = new Subscriber(host, port, topic, "mqtt");
         //Create the MQTT sub
         MQTTSubscriber mqttSub = new MQTTSubscriber(host, port, topic, clientID, sub);
 
+        //Add the subscriber to the local map, unless it is already there
+        if (subscribers.putIfAbsent(new SubscriptionKey(host, port, topic), mqttSub) != null) {
+            log.warn("This subscriber is already added");
+            return;
+        }
+        subscribersByClientID.computeIfAbsent(clientID, id -> ConcurrentHashMap.newKeySet()).add(mqttSub);
+        subscribersByOKSESubscriber.put(sub, mqttSub);
+        //Add the subscriber to the topic trie
+        subscriptionTrie.add(mqttSub);
+
         //Add the topic
         TopicService.getInstance().addTopic(topic);
         //Add the subscriber to OKSE
         subscriptionService.addSubscriber(sub);
-        //Add the subscriber to the local map
-        subscriberList.add(mqttSub);
     }
 
     /**
@@ -70,10 +111,13 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
      * @param topic the topic of the subscription
      */
     public void removeSubscriber(String host, int port, String topic) {
-        int index = getSubscriberIndex(host, port, topic);
-        if (index > -1) {
-            subscriptionService.removeSubscriber(subscriberList.get(index).getSubscriber());
-            subscriberList.remove(index);
+        MQTTSubscriber mqttSub = subscribers.remove(new SubscriptionKey(host, port, topic));
+        if (mqttSub != null) {
+            subscribersByClientID.computeIfPresent(mqttSub.getClientID(), (id, set) -> {
+                set.remove(mqttSub);
+                return set.isEmpty() ? null : set;
+            });
+            removeSubscriberLocal(mqttSub);
         }
     }
 
@@ -82,12 +126,9 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
      * @param sub the OKSE subscriber instance to remove
      */
     public void removeSubscriber(Subscriber sub) {
-        for (int i = 0; i < subscriberList.size(); i++) {
-            MQTTSubscriber mqtt_sub = subscriberList.get(i);
-            if (mqtt_sub.getSubscriber() == sub) {
-                removeSubscriber(mqtt_sub.getHost(), mqtt_sub.getPort(), mqtt_sub.getTopic());
-                return;
-            }
+        MQTTSubscriber mqttSub = subscribersByOKSESubscriber.get(sub);
+        if (mqttSub != null) {
+            removeSubscriber(mqttSub.getHost(), mqttSub.getPort(), mqttSub.getTopic());
         }
     }
 
@@ -96,48 +137,49 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
      * @param clientID the clientID, used to remove subscribers
      */
     public void removeSubscribers(String clientID) {
-        ArrayList<Integer> list = getSubscriberIndexes(clientID);
-        int count = 0;
-        for(int i = 0; i < list.size(); i++){
-            int index = list.get(i);
-            //Each time we delete from the lists we also have to subtract 1 from all the indexes
-            //We achieve this easiest by counting the number of the removed subscribers and simply subsctracting
-            //that number from the currect index.
-            subscriptionService.removeSubscriber(subscriberList.get(index - count).getSubscriber());
-            subscriberList.remove(index - count);
-            count ++;
+        Set<MQTTSubscriber> clientSubscribers = subscribersByClientID.remove(clientID);
+        if (clientSubscribers == null)
+            return;
+        // Remove all the subscriptions of the client from OKSE in one batch
+        ArrayList<Subscriber> removed = new ArrayList<>();
+        for (MQTTSubscriber mqttSub : clientSubscribers) {
+            SubscriptionKey key = new SubscriptionKey(mqttSub.getHost(), mqttSub.getPort(), mqttSub.getTopic());
+            if (subscribers.remove(key, mqttSub)) {
+                unindexSubscriber(mqttSub);
+                removed.add(mqttSub.getSubscriber());
+            }
         }
+        subscriptionService.removeSubscribers(removed);
     }
 
     /**
-     * Returns the subscriber index, in the local map, based on the host, port and topic given
-     * @param host the host of the connection
-     * @param port the port of the connection
-     * @param topic the topic of the subscription
-     * @return the index of that subscriber in the local map
+     * Removes a subscriber that has been taken out of the main map from the remaining indexes and the OKSE core
+     * @param mqttSub the MQTTSubscriber to remove
      */
-    public int getSubscriberIndex(String host, int port, String topic) {
-        for (int i = 0; i < subscriberList.size(); i++) {
-            MQTTSubscriber sub = subscriberList.get(i);
-            if (sub.getHost().equals(host) && sub.getPort() == port && sub.getTopic().equals(topic))
-                return i;
-        }
-        return -1;
+    private void removeSubscriberLocal(MQTTSubscriber mqttSub) {
+        unindexSubscriber(mqttSub);
+        subscriptionService.removeSubscriber(mqttSub.getSubscriber());
     }
 
     /**
-     * Returns an ArrayList of indexes based on the clientID
-     * @param clientID the clientID to return indexes for
-     * @return returns an ArrayList of indexes
+     * Removes a subscriber that has been taken out of the main map from the remaining indexes
+     * @param mqttSub the MQTTSubscriber to remove
      */
-    public ArrayList<Integer> getSubscriberIndexes(String clientID) {
-        ArrayList<Integer> indexes = new ArrayList<Integer>();
-        for (int i = 0; i < subscriberList.size(); i++) {
-            MQTTSubscriber sub = subscriberList.get(i);
-            if (sub.getClientID().equals(clientID))
-                indexes.add(i);
-        }
-        return indexes;
+    private void unindexSubscriber(MQTTSubscriber mqttSub) {
+        subscribersByOKSESubscriber.remove(mqttSub.getSubscriber());
+        subscriptionTrie.remove(mqttSub);
+    }
+
+    /**
+     * Returns all subscribers that have subscribed under this clientID
+     * @param clientID the clientID to return subscribers for
+     * @return returns a read-only Set of MQTTSubscriber instances
+     */
+    public Set<MQTTSubscriber> getSubscribers(String clientID) {
+        Set<MQTTSubscriber> clientSubscribers = subscribersByClientID.get(clientID);
+        if (clientSubscribers == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(clientSubscribers);
     }
 
     /**
@@ -148,9 +190,7 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
      * @return returns true if there exists a subscriber with these values.
      */
     public boolean containsSubscriber(String host, int port, String topic) {
-        if (getSubscriberIndex(host, port, topic) == -1)
-            return false;
-        return true;
+        return subscribers.containsKey(new SubscriptionKey(host, port, topic));
     }
 
     /**
@@ -161,26 +201,16 @@ public class MQTTSubscriptionManager implements SubscriptionChangeListener {
      * @return returns the MQTTSubscriber instance
      */
     public MQTTSubscriber getSubscriber(String host, int port, String topic) {
-        int index = getSubscriberIndex(host, port, topic);
-        if (index == -1)
-            return null;
-        return subscriberList.get(index);
+        return subscribers.get(new SubscriptionKey(host, port, topic));
     }
 
     /**
-     * Returns all subscribers from a certain topic
+     * Returns all subscribers with a topic filter matching a certain topic, including wildcard (+ and #) filters
      * @param topic the topic to return subscribers for
      * @return returns an ArrayList of MQTTSubscriber instances
      */
     public ArrayList<MQTTSubscriber> getAllSubscribersFromTopic(String topic) {
-        ArrayList<MQTTSubscriber> subscribers = new ArrayList<MQTTSubscriber>();
-        for (int i = 0; i < subscriberList.size(); i++) {
-            MQTTSubscriber sub = subscriberList.get(i);
-            if (sub.getTopic().equals(topic)) {
-                subscribers.add(sub);
-            }
-        }
-        return subscribers;
+        return subscriptionTrie.match(topic);
     }
 
     @Override
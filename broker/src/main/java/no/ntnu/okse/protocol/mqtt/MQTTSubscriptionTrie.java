@@ -0,0 +1,150 @@
+package no.ntnu.okse.protocol.mqtt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a topic level trie of MQTT subscriptions, supporting the single level (+) and multi level (#)
+ * wildcards. Matching a topic visits at most the nodes along the topic levels and their wildcard siblings,
+ * so the cost depends on the depth of the topic and not on the total number of subscriptions.
+ * <p>
+ * The trie is safe to modify concurrently with lookups. Child nodes are kept in concurrent maps, and the
+ * subscriber sets of the nodes are guarded by the node itself. Emptied nodes are kept in the trie, as topics
+ * are usually reused by MQTT clients.
+ */
+public class MQTTSubscriptionTrie {
+    public static final String LEVEL_SEPARATOR = "/";
+    public static final String SINGLE_LEVEL_WILDCARD = "+";
+    public static final String MULTI_LEVEL_WILDCARD = "#";
+
+    private final Node root;
+    private final AtomicInteger size;
+
+    /**
+     * A single topic level in the trie
+     */
+    private static class Node {
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        // Insertion ordered, so subscribers are returned in the order they subscribed
+        final LinkedHashSet<MQTTSubscriber> subscribers = new LinkedHashSet<>();
+    }
+
+    /**
+     * Constructor
+     * Instantiates an empty trie
+     */
+    public MQTTSubscriptionTrie() {
+        root = new Node();
+        size = new AtomicInteger(0);
+    }
+
+    /**
+     * Adds a subscriber to the trie, under the topic filter of the subscriber
+     * @param subscriber the MQTTSubscriber to add
+     * @return true if the subscriber was added, false if it already existed
+     */
+    public boolean add(MQTTSubscriber subscriber) {
+        Node node = root;
+        for (String level : splitTopic(subscriber.getTopic())) {
+            node = node.children.computeIfAbsent(level, l -> new Node());
+        }
+        boolean added;
+        synchronized (node) {
+            added = node.subscribers.add(subscriber);
+        }
+        if (added) size.incrementAndGet();
+        return added;
+    }
+
+    /**
+     * Removes a subscriber from the trie
+     * @param subscriber the MQTTSubscriber to remove
+     * @return true if the subscriber was removed, false if it did not exist
+     */
+    public boolean remove(MQTTSubscriber subscriber) {
+        Node node = root;
+        for (String level : splitTopic(subscriber.getTopic())) {
+            node = node.children.get(level);
+            if (node == null) return false;
+        }
+        boolean removed;
+        synchronized (node) {
+            removed = node.subscribers.remove(subscriber);
+        }
+        if (removed) size.decrementAndGet();
+        return removed;
+    }
+
+    /**
+     * Returns all the subscribers with a topic filter matching the given topic
+     * @param topic the topic name a message was published to
+     * @return returns an ArrayList of the matching MQTTSubscriber instances
+     */
+    public ArrayList<MQTTSubscriber> match(String topic) {
+        ArrayList<MQTTSubscriber> result = new ArrayList<>();
+        if (topic == null) return result;
+        match(root, splitTopic(topic), 0, result);
+        return result;
+    }
+
+    /**
+     * Returns the number of subscribers in the trie
+     * @return the number of subscribers
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Recursive helper method for matching a topic against the trie
+     * @param node the current node
+     * @param levels the levels of the topic name
+     * @param depth the index of the level to match against the children of the current node
+     * @param result the list to collect matching subscribers in
+     */
+    private void match(Node node, String[] levels, int depth, ArrayList<MQTTSubscriber> result) {
+        // Topics starting with $ are reserved, and should not be matched by wildcards on the first level
+        boolean wildcardsAllowed = depth > 0 || !levels[0].startsWith("$");
+
+        // The multi level wildcard matches the parent level and any number of levels below it
+        if (wildcardsAllowed) {
+            Node multi = node.children.get(MULTI_LEVEL_WILDCARD);
+            if (multi != null) collect(multi, result);
+        }
+
+        if (depth == levels.length) {
+            collect(node, result);
+            return;
+        }
+
+        Node exact = node.children.get(levels[depth]);
+        if (exact != null) match(exact, levels, depth + 1, result);
+
+        if (wildcardsAllowed) {
+            Node single = node.children.get(SINGLE_LEVEL_WILDCARD);
+            if (single != null) match(single, levels, depth + 1, result);
+        }
+    }
+
+    /**
+     * Adds the subscribers of a node to the result list
+     * @param node the node to collect subscribers from
+     * @param result the list to collect the subscribers in
+     */
+    private void collect(Node node, ArrayList<MQTTSubscriber> result) {
+        synchronized (node) {
+            result.addAll(node.subscribers);
+        }
+    }
+
+    /**
+     * Splits a topic or topic filter into its levels. Empty levels are kept, as they are valid in MQTT.
+     * @param topic the topic to split
+     * @return an array of the topic levels
+     */
+    private static String[] splitTopic(String topic) {
+        return topic.split(LEVEL_SEPARATOR, -1);
+    }
+}
@@ -0,0 +1,419 @@
+package no.ntnu.okse.protocol.stomp;
+
+import asia.stampy.common.gateway.HostPort;
+import asia.stampy.server.netty.ServerNettyMessageGateway;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes outgoing STOMP frames to the Netty channels of the connected clients.
+ * <p>
+ * Frames are collected per connection during a dispatch cycle, and written as a single batch when the cycle is
+ * flushed. Every sending thread runs its own dispatch cycles, and only flushes the connections it wrote to.
+ * <p>
+ * The writer is added to the pipeline of the gateway, where it configures the write buffer high-water mark of
+ * every new channel and follows its writability. Frames for a channel that is not writable are handled by the
+ * slow consumer policy, so a slow client can not make Netty buffer without limit. The frames parked in the
+ * broker are limited as well, and a client that exceeds the limit is disconnected.
+ * <p>
+ * Frames are written to the channels as buffers that share the encoded parts of a message between all its
+ * subscribers, see {@link STOMPMessageFrame#encode(byte[])}. Frames for connections that the writer has not seen
+ * a channel for are rendered as text, and written through the gateway without any backpressure.
+ * <p>
+ * The writer can also stop reading from the channels of publishers, while the broker is overloaded.
+ */
+public class STOMPChannelWriter extends SimpleChannelUpstreamHandler {
+    public static final int DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+    // The number of bytes that may be parked for a connection, as a multiple of the high-water mark
+    public static final int PARK_LIMIT_MULTIPLIER = 4;
+
+    /**
+     * What to do with frames for a client that does not keep up with the messages sent to it
+     */
+    public enum SlowConsumerPolicy {
+        /** Drop the frames until the channel is writable again */
+        DROP,
+        /** Close the connection of the client */
+        DISCONNECT,
+        /**
+         * Keep the frames in the broker, and write them when the channel is writable again. A client with more
+         * than {@link #PARK_LIMIT_MULTIPLIER} times the high-water mark parked is disconnected.
+         */
+        PARK;
+
+        /**
+         * Parses a slow consumer policy from its configuration form, e.g. "park"
+         * @param policy the policy as a string
+         * @param defaultPolicy the policy to use if the string is not recognized
+         * @return the parsed slow consumer policy
+         */
+        public static SlowConsumerPolicy fromString(String policy, SlowConsumerPolicy defaultPolicy) {
+            if (policy == null) return defaultPolicy;
+            try {
+                return valueOf(policy.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return defaultPolicy;
+            }
+        }
+    }
+
+    private static Logger log;
+    private final ConcurrentHashMap<HostPort, Connection> connections;
+    private final AtomicLong droppedFrames;
+    private final Set<Channel> pausedReaders;
+    // The connections written to by each thread since it last flushed
+    private final ThreadLocal<Set<Connection>> dirtyConnections;
+    private volatile int highWaterMark;
+    private volatile SlowConsumerPolicy slowConsumerPolicy;
+
+    /**
+     * The outgoing state of a single client connection. Guarded by the connection itself.
+     */
+    private static class Connection {
+        final HostPort hostPort;
+        final Channel channel;
+        // Frames collected during the current dispatch cycle, encoded for a channel or as text for the gateway
+        final ArrayList<ChannelBuffer> pending = new ArrayList<>();
+        final StringBuilder pendingText = new StringBuilder();
+        long pendingSize;
+        int pendingFrames;
+        // Frames held back by the park policy while the channel is not writable
+        final ArrayDeque<ChannelBuffer> parked = new ArrayDeque<>();
+        long parkedSize;
+        int parkedFrames;
+        // Bytes written to the channel but not yet sent, and bytes pending or parked in the broker
+        final AtomicLong bufferedBytes = new AtomicLong(0);
+        boolean closed;
+
+        Connection(HostPort hostPort, Channel channel) {
+            this.hostPort = hostPort;
+            this.channel = channel;
+        }
+
+        boolean isWritable() {
+            return channel == null || channel.isWritable();
+        }
+    }
+
+    /**
+     * Constructor
+     * Sets up a writer with the default high-water mark, that parks the frames of slow consumers
+     */
+    public STOMPChannelWriter() {
+        log = Logger.getLogger(STOMPChannelWriter.class.getName());
+        connections = new ConcurrentHashMap<>();
+        droppedFrames = new AtomicLong(0);
+        pausedReaders = ConcurrentHashMap.newKeySet();
+        dirtyConnections = ThreadLocal.withInitial(HashSet::new);
+        highWaterMark = DEFAULT_HIGH_WATER_MARK;
+        slowConsumerPolicy = SlowConsumerPolicy.PARK;
+    }
+
+    /**
+     * Sets the number of bytes Netty may buffer for a connection before its channel is no longer writable.
+     * Only channels connected after the change are affected.
+     * @param highWaterMark the high-water mark in bytes
+     */
+    public void setHighWaterMark(int highWaterMark) {
+        if (highWaterMark < 1) throw new IllegalArgumentException("The high-water mark must be positive");
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * Returns the number of bytes Netty may buffer for a connection before its channel is no longer writable
+     * @return the high-water mark in bytes
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Sets the policy for clients that do not keep up with the messages sent to them
+     * @param slowConsumerPolicy the slow consumer policy
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * Returns the policy for clients that do not keep up with the messages sent to them
+     * @return the slow consumer policy
+     */
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Adds a frame to the batch of the connection of a subscription. The frame is written when the dispatch cycle
+     * is flushed.
+     * @param subscription the subscription to write the frame to
+     * @param frame the STOMP frame of the message
+     * @return true if the frame was accepted, false if it was dropped
+     */
+    public boolean write(STOMPSubscription subscription, STOMPMessageFrame frame) {
+        Connection connection = connections.computeIfAbsent(subscription.getHostPort(), hp -> new Connection(hp, null));
+        byte[] subscriptionID = subscription.getEncodedClientID();
+        int size = frame.size(subscriptionID);
+        synchronized (connection) {
+            if (connection.closed) {
+                droppedFrames.incrementAndGet();
+                return false;
+            }
+            if (!connection.isWritable() || !connection.parked.isEmpty()) {
+                switch (slowConsumerPolicy) {
+                    case DROP:
+                        droppedFrames.incrementAndGet();
+                        return false;
+                    case DISCONNECT:
+                        log.warn("Closing the connection to the slow STOMP client " + connection.hostPort);
+                        droppedFrames.incrementAndGet();
+                        close(connection);
+                        return false;
+                    case PARK:
+                        long parkLimit = (long) highWaterMark * PARK_LIMIT_MULTIPLIER;
+                        if (connection.parkedSize + connection.pendingSize + size > parkLimit) {
+                            log.warn("Closing the connection to the slow STOMP client " + connection.hostPort +
+                                    ", as it would have more than " + parkLimit + " bytes parked");
+                            droppedFrames.addAndGet(connection.parkedFrames + connection.pendingFrames + 1);
+                            close(connection);
+                            return false;
+                        }
+                        // Keep writing to the parked frames until they are resumed, so the order is preserved
+                        if (connection.pendingSize > 0) {
+                            connection.parked.addAll(connection.pending);
+                            connection.parkedSize += connection.pendingSize;
+                            connection.parkedFrames += connection.pendingFrames;
+                            connection.pending.clear();
+                            connection.pendingSize = 0;
+                            connection.pendingFrames = 0;
+                        }
+                        connection.parked.add(frame.encode(subscriptionID));
+                        connection.parkedSize += size;
+                        connection.parkedFrames++;
+                        connection.bufferedBytes.addAndGet(size);
+                        return true;
+                }
+            }
+            if (connection.channel == null) {
+                connection.pendingText.append(frame.render(subscription.getClientID()));
+            } else {
+                connection.pending.add(frame.encode(subscriptionID));
+            }
+            connection.pendingSize += size;
+            connection.pendingFrames++;
+            connection.bufferedBytes.addAndGet(size);
+            dirtyConnections.get().add(connection);
+            return true;
+        }
+    }
+
+    /**
+     * Ends the dispatch cycle of the calling thread, by writing the batch of frames collected for every connection
+     * the thread has written to since it last flushed
+     * @param gateway the gateway to write through for connections without a known channel
+     */
+    public void flush(ServerNettyMessageGateway gateway) {
+        Set<Connection> dirty = dirtyConnections.get();
+        if (dirty.isEmpty()) return;
+        for (Connection connection : dirty) {
+            synchronized (connection) {
+                if (connection.pendingSize > 0) send(connection, gateway);
+                // Connections without a channel are only kept while they have frames to write
+                if (connection.channel == null) connections.remove(connection.hostPort, connection);
+            }
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Writes the frames parked for a connection, if its channel is writable again
+     * @param hostPort the connection to resume
+     */
+    void resume(HostPort hostPort) {
+        Connection connection = connections.get(hostPort);
+        if (connection == null) return;
+        synchronized (connection) {
+            if (connection.closed || connection.parked.isEmpty() || !connection.isWritable()) return;
+            ChannelBuffer batch = ChannelBuffers.wrappedBuffer(connection.parked.toArray(new ChannelBuffer[0]));
+            long size = connection.parkedSize;
+            connection.parked.clear();
+            connection.parkedSize = 0;
+            connection.parkedFrames = 0;
+            // The parked bytes are already counted, so they are handed over to the channel as they are
+            connection.channel.write(batch).addListener(future -> connection.bufferedBytes.addAndGet(-size));
+        }
+    }
+
+    /**
+     * Starts following the writability of a channel, and sets its high-water mark
+     * @param hostPort the connection of the channel
+     * @param channel the Netty channel
+     */
+    void register(HostPort hostPort, Channel channel) {
+        ChannelConfig config = channel.getConfig();
+        if (config instanceof NioSocketChannelConfig) {
+            NioSocketChannelConfig nioConfig = (NioSocketChannelConfig) config;
+            // The low-water mark can not be above the high-water mark, so it is lowered first
+            nioConfig.setWriteBufferLowWaterMark(0);
+            nioConfig.setWriteBufferHighWaterMark(highWaterMark);
+            nioConfig.setWriteBufferLowWaterMark(highWaterMark / 2);
+        }
+        connections.put(hostPort, new Connection(hostPort, channel));
+    }
+
+    /**
+     * Stops following a channel, and discards any frames that are not written
+     * @param hostPort the connection of the channel
+     */
+    void unregister(HostPort hostPort) {
+        Connection connection = connections.remove(hostPort);
+        if (connection == null) return;
+        if (connection.channel != null) pausedReaders.remove(connection.channel);
+        synchronized (connection) {
+            connection.closed = true;
+            discard(connection);
+        }
+    }
+
+    /**
+     * Stops reading from the channel of a connection, until reading is resumed
+     * @param hostPort the connection to stop reading from
+     */
+    public void pauseReading(HostPort hostPort) {
+        Connection connection = connections.get(hostPort);
+        if (connection == null || connection.channel == null) return;
+        connection.channel.setReadable(false);
+        pausedReaders.add(connection.channel);
+    }
+
+    /**
+     * Starts reading from all the paused channels again
+     */
+    public void resumeReading() {
+        for (Channel channel : pausedReaders) {
+            if (pausedReaders.remove(channel)) channel.setReadable(true);
+        }
+    }
+
+    /**
+     * Discards the state of all connections
+     */
+    public void clear() {
+        for (HostPort hostPort : connections.keySet()) unregister(hostPort);
+        pausedReaders.clear();
+    }
+
+    /**
+     * Returns the number of bytes buffered for every connection, both in Netty and in the broker
+     * @return a map from host:port to the number of buffered bytes
+     */
+    public Map<String, Long> getBufferedBytes() {
+        HashMap<String, Long> bufferedBytes = new HashMap<>();
+        connections.forEach((hostPort, connection) ->
+                bufferedBytes.put(hostPort.getHost() + ":" + hostPort.getPort(), connection.bufferedBytes.get()));
+        return bufferedBytes;
+    }
+
+    /**
+     * Returns the number of bytes buffered for a connection, both in Netty and in the broker
+     * @param hostPort the connection
+     * @return the number of buffered bytes
+     */
+    public long getBufferedBytes(HostPort hostPort) {
+        Connection connection = connections.get(hostPort);
+        return connection == null ? 0 : connection.bufferedBytes.get();
+    }
+
+    /**
+     * Returns the number of frames that were dropped because of slow or closed connections
+     * @return the number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        register(new HostPort((InetSocketAddress) ctx.getChannel().getRemoteAddress()), ctx.getChannel());
+        super.channelConnected(ctx, e);
+    }
+
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (ctx.getChannel().isWritable()) {
+            resume(new HostPort((InetSocketAddress) ctx.getChannel().getRemoteAddress()));
+        }
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void channelDisconnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        unregister(new HostPort((InetSocketAddress) ctx.getChannel().getRemoteAddress()));
+        super.channelDisconnected(ctx, e);
+    }
+
+    /**
+     * Writes the pending frames of a connection as one batch, and releases their bytes when Netty has sent them
+     */
+    private void send(Connection connection, ServerNettyMessageGateway gateway) {
+        long size = connection.pendingSize;
+        connection.pendingSize = 0;
+        connection.pendingFrames = 0;
+        if (connection.channel == null) {
+            String batch = connection.pendingText.toString();
+            connection.pendingText.setLength(0);
+            try {
+                gateway.sendMessage(batch, connection.hostPort);
+            } catch (Exception e) {
+                log.error("Could not write to the STOMP client " + connection.hostPort, e);
+            } finally {
+                connection.bufferedBytes.addAndGet(-size);
+            }
+            return;
+        }
+        ChannelBuffer batch = ChannelBuffers.wrappedBuffer(connection.pending.toArray(new ChannelBuffer[0]));
+        connection.pending.clear();
+        connection.channel.write(batch).addListener(future -> connection.bufferedBytes.addAndGet(-size));
+    }
+
+    /**
+     * Closes the channel of a slow connection. The subscriptions of the client are removed by the disconnect
+     * handling of the server, when the channel is closed.
+     */
+    private void close(Connection connection) {
+        connection.closed = true;
+        discard(connection);
+        if (connection.channel != null) connection.channel.close();
+    }
+
+    /**
+     * Discards the pending and parked frames of a connection
+     */
+    private void discard(Connection connection) {
+        connection.bufferedBytes.addAndGet(-(connection.pendingSize + connection.parkedSize));
+        connection.pending.clear();
+        connection.pendingText.setLength(0);
+        connection.pendingSize = 0;
+        connection.pendingFrames = 0;
+        connection.parked.clear();
+        connection.parkedSize = 0;
+        connection.parkedFrames = 0;
+    }
+}
@@ -0,0 +1,91 @@
+package no.ntnu.okse.protocol.stomp;
+
+import asia.stampy.server.message.message.MessageMessage;
+import no.ntnu.okse.core.messaging.Message;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A STOMP MESSAGE frame rendered once from an OKSE message, and shared by all the subscribers of its topic.
+ * Only the subscription header differs between subscribers, so the frame is encoded with a placeholder for
+ * it and split around the placeholder. The parts before and after the subscription id are encoded as UTF-8
+ * once, and the frame for a subscriber is a composite buffer sharing them, so the frame is not encoded again
+ * for every subscriber.
+ */
+public class STOMPMessageFrame {
+    private static final String SUBSCRIPTION_HEADER = "subscription:";
+
+    private final MessageMessage message;
+    private final String head;
+    private final String tail;
+    private final ChannelBuffer encodedHead;
+    private final ChannelBuffer encodedTail;
+
+    /**
+     * Converts an OKSE message to a STOMP message, and encodes it
+     * @param msg the OKSE message to convert
+     */
+    public STOMPMessageFrame(Message msg) {
+        // A random placeholder, so it can not be confused with the headers or the body of the message
+        String placeholder = UUID.randomUUID().toString();
+        String msgId = msg.getMessageID();
+        message = new MessageMessage(msg.getTopic(), msgId, placeholder);
+
+        //Adds all the user defined headers to the STOMP message
+        for (Map.Entry<String, String> attribute : msg.getAttributes().entrySet()) {
+            message.getHeader().addHeader(attribute.getKey(), attribute.getValue());
+        }
+
+        message.setBody(msg.getMessage());
+        message.getHeader().setAck(msgId);
+
+        String frame = message.toStompMessage(true);
+        String header = SUBSCRIPTION_HEADER + placeholder;
+        int index = frame.indexOf(header);
+        head = frame.substring(0, index + SUBSCRIPTION_HEADER.length());
+        tail = frame.substring(index + header.length());
+        encodedHead = ChannelBuffers.copiedBuffer(head, StandardCharsets.UTF_8);
+        encodedTail = ChannelBuffers.copiedBuffer(tail, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the STOMP message the frame was rendered from. The subscription header of the message is a
+     * placeholder, so it should only be used to inspect the message, for example by the outgoing interceptors.
+     * @return the STOMP message
+     */
+    public MessageMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Renders the frame for a single subscription as text, for connections that are written through the gateway
+     * @param subscriptionID the subscription id of the client
+     * @return the STOMP frame
+     */
+    public String render(String subscriptionID) {
+        return head + subscriptionID + tail;
+    }
+
+    /**
+     * Encodes the frame for a single subscription. The returned buffer shares the encoded parts of the frame
+     * with the buffers of the other subscriptions, and only wraps the subscription id.
+     * @param subscriptionID the subscription id of the client, encoded as UTF-8
+     * @return the encoded STOMP frame
+     */
+    public ChannelBuffer encode(byte[] subscriptionID) {
+        return ChannelBuffers.wrappedBuffer(encodedHead, ChannelBuffers.wrappedBuffer(subscriptionID), encodedTail);
+    }
+
+    /**
+     * Returns the size of the frame encoded for a single subscription
+     * @param subscriptionID the subscription id of the client, encoded as UTF-8
+     * @return the size of the frame in bytes
+     */
+    public int size(byte[] subscriptionID) {
+        return encodedHead.readableBytes() + subscriptionID.length + encodedTail.readableBytes();
+    }
+}
@@ -5,8 +5,13 @@ import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.protocol.AbstractProtocolServer;
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class STOMPProtocolServer extends AbstractProtocolServer {
     private STOMPServer server;
+    private int highWaterMark;
+    private STOMPChannelWriter.SlowConsumerPolicy slowConsumerPolicy;
 
     /**
      * Constructor for the class, sets the host and port for the gateway
@@ -15,8 +20,23 @@ public class STOMPProtocolServer extends AbstractProtocolServer {
      * @param port the port to listen to
      */
     public STOMPProtocolServer(String host, Integer port) {
+        this(host, port, STOMPChannelWriter.DEFAULT_HIGH_WATER_MARK, STOMPChannelWriter.SlowConsumerPolicy.PARK);
+    }
+
+    /**
+     * Constructor for the class, sets the host and port for the gateway, and how slow clients are handled
+     * Also initiates the logger and sets the server type to stomp
+     * @param host the host to listen to
+     * @param port the port to listen to
+     * @param highWaterMark the number of bytes that may be buffered for a client before it is a slow consumer
+     * @param slowConsumerPolicy what to do with messages for slow consumers
+     */
+    public STOMPProtocolServer(String host, Integer port, int highWaterMark,
+                               STOMPChannelWriter.SlowConsumerPolicy slowConsumerPolicy) {
         this.host = host;
         this.port = port;
+        this.highWaterMark = highWaterMark;
+        this.slowConsumerPolicy = slowConsumerPolicy;
 
         protocolServerType = "stomp";
         log = Logger.getLogger(STOMPProtocolServer.class.getName());
@@ -41,6 +61,8 @@ public class STOMPProtocolServer extends AbstractProtocolServer {
         subscriptionManager.initCoreSubscriptionService(SubscriptionService.getInstance());
         try {
             server.setSubscriptionManager(subscriptionManager);
+            server.getChannelWriter().setHighWaterMark(highWaterMark);
+            server.getChannelWriter().setSlowConsumerPolicy(slowConsumerPolicy);
             SubscriptionService.getInstance().addSubscriptionChangeListener(subscriptionManager);
             server.setProtocolServer(this);
             server.init(host, port);
@@ -112,6 +134,26 @@ public class STOMPProtocolServer extends AbstractProtocolServer {
         totalMessagesSent.incrementAndGet();
     }
 
+    /**
+     * Returns the number of bytes buffered for every connected client, both in Netty and in the broker
+     * @return a map from host:port to the number of buffered bytes
+     */
+    public Map<String, Long> getBufferedBytes() {
+        STOMPServer s = server;
+        if (s == null) return Collections.emptyMap();
+        return s.getChannelWriter().getBufferedBytes();
+    }
+
+    /**
+     * Returns the number of messages dropped because their clients were too slow or disconnected
+     * @return the number of dropped messages
+     */
+    public long getTotalMessagesDropped() {
+        STOMPServer s = server;
+        if (s == null) return 0;
+        return s.getChannelWriter().getDroppedFrames();
+    }
+
     /**
      * Returns whether the server is running or not
      * @return true if the server is running, false otherwise
@@ -1,16 +1,16 @@
 package no.ntnu.okse.protocol.stomp;
 
 import asia.stampy.common.gateway.*;
-import asia.stampy.common.message.StampyMessage;
 import asia.stampy.common.message.interceptor.InterceptException;
 import asia.stampy.examples.system.server.SystemAcknowledgementHandler;
-import asia.stampy.server.message.message.MessageMessage;
 import asia.stampy.server.netty.Boilerplate;
 import asia.stampy.server.netty.ServerNettyMessageGateway;
 import io.moquette.server.Server;
+import no.ntnu.okse.Application;
+import no.ntnu.okse.core.event.listeners.BackpressureListener;
 import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.messaging.MessageService;
-import no.ntnu.okse.core.subscription.Subscriber;
+import no.ntnu.okse.protocol.OutboundExecutor;
 import no.ntnu.okse.protocol.stomp.listeners.*;
 import no.ntnu.okse.protocol.stomp.listeners.ErrorInterceptor;
 import no.ntnu.okse.protocol.stomp.listeners.MessageListener;
@@ -18,7 +18,6 @@ import org.apache.log4j.Logger;
 
 import javax.validation.constraints.NotNull;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class STOMPServer extends Server {
@@ -26,17 +25,21 @@ public class STOMPServer extends Server {
     public ServerNettyMessageGateway gateway;
     private static STOMPProtocolServer ps;
     private Logger log;
-    private LinkedBlockingQueue<Message> messageQueue;
-    private Thread messageSenderThread;
+    private OutboundExecutor outboundExecutor;
     private AtomicBoolean running;
+    private STOMPChannelWriter channelWriter;
+    private BackpressureListener backpressureListener;
 
     /**
      * Sets up the logger when we create a new instance of this class
      */
     public STOMPServer(){
         log = Logger.getLogger(STOMPProtocolServer.class.getName());
-        messageQueue = new LinkedBlockingQueue<>();
         running = new AtomicBoolean(false);
+        channelWriter = new STOMPChannelWriter();
+        backpressureListener = overloaded -> {
+            if(!overloaded) channelWriter.resumeReading();
+        };
     }
 
     /**
@@ -67,6 +70,7 @@ public class STOMPServer extends Server {
         SystemAcknowledgementHandler sys = new SystemAcknowledgementHandler();
 
         gateway.addMessageListener(new IDontNeedSecurity());
+        gateway.addHandler(channelWriter);
 
         Boilerplate b = new Boilerplate();
         b.init(gateway, host, port, errorInterceptor, disconnectListener, sys);
@@ -103,6 +107,7 @@ public class STOMPServer extends Server {
         incrementTotalRequestsListener.setProtocolServer(ps);
 
         messageListener.setMessageService(MessageService.getInstance());
+        messageListener.setChannelWriter(channelWriter);
 
         gateway.addOutgoingMessageInterceptor(errorListener);
         gateway.addMessageListener(mimeTypeListener);
@@ -125,18 +130,15 @@ public class STOMPServer extends Server {
         gateway = initialize(host, port);
         gateway.connect();
 
-        messageSenderThread = new Thread(() -> {
-            while(running.get()) {
-                try {
-                    Message message = messageQueue.take();
-                    sendMessage(message);
-                } catch (InterruptedException e) {
-                    log.info("STOMP message queue interrupted, stopping?");
-                }
-
-            }
-        });
-        messageSenderThread.start();
+        // Send everything that is queued for a sender in one dispatch cycle, and write it to each client at once
+        OutboundExecutor.Handler handler = batch -> {
+            for(Message message : batch) bufferMessage(message);
+            channelWriter.flush(getGateway());
+        };
+        outboundExecutor = ps != null ? ps.createOutboundExecutor(handler) :
+                new OutboundExecutor("STOMP", Application.OUTBOUND_SENDER_THREADS, handler);
+        outboundExecutor.start();
+        MessageService.getInstance().addBackpressureListener(backpressureListener);
     }
 
     /**
@@ -152,7 +154,11 @@ public class STOMPServer extends Server {
      * @param message Message to queue
      */
     public void queueMessage(@NotNull Message message) {
-        messageQueue.add(message);
+        if(outboundExecutor == null) {
+            log.warn("STOMP server is not started, dropping message on topic " + message.getTopic());
+            return;
+        }
+        outboundExecutor.submit(message);
     }
 
     /**
@@ -160,20 +166,30 @@ public class STOMPServer extends Server {
      * @param message is the message that is sent from OKSE core
      * */
     public void sendMessage(@NotNull Message message) {
-        HashMap<String, Subscriber> subs = subscriptionManager.getAllSubscribersForTopic(message.getTopic());
-
-        Iterator it = subs.entrySet().iterator();
-        while(it.hasNext()){
-            Map.Entry pair = (Map.Entry) it.next();
-            String key = (String) pair.getKey();
-
-            Subscriber sub = subs.get(key);
+        bufferMessage(message);
+        channelWriter.flush(getGateway());
+    }
 
-            //TODO: Do we also have to change the message id?
-            MessageMessage msg = createSTOMPMessage(message, key);
+    /**
+     * Adds the message to the outgoing batches of the subscribers that are subscribed to the topic of the message.
+     * The message is encoded once, and the encoded frame is shared by all the subscribers. The batches are
+     * written when the channel writer is flushed.
+     * @param message is the message that is sent from OKSE core
+     */
+    private void bufferMessage(@NotNull Message message) {
+        // The subscription list is prebuilt by the subscription manager, and is not copied for every message
+        List<STOMPSubscription> subscriptions = subscriptionManager.getSubscriptionsForTopic(message.getTopic());
+        if(subscriptions.isEmpty()) return;
+
+        //TODO: Do we also have to change the message id?
+        STOMPMessageFrame frame = new STOMPMessageFrame(message);
+        for(STOMPSubscription subscription : subscriptions){
             try {
-                getGateway().sendMessage((StampyMessage<?>) msg, new HostPort(sub.getHost(), sub.getPort()));
-                ps.incrementTotalMessagesSent();
+                // The outgoing interceptors still see every delivery, the acknowledgement handler depends on it
+                getGateway().interceptOutgoingMessage(frame.getMessage(), subscription.getHostPort());
+                if(channelWriter.write(subscription, frame)) {
+                    ps.incrementTotalMessagesSent();
+                }
             } catch (InterceptException e) {
                 ps.incrementTotalErrors();
                 log.error("Error happened when STOMP tried to send a message to the client", e);
@@ -181,30 +197,6 @@ public class STOMPServer extends Server {
         }
     }
 
-    /**
-     * Creates a STOMP message from an OKSE message
-     * @param msg - OKSE message to convert to STOMP message
-     * @param id - Specific ID for the message
-     * @return
-     */
-    private MessageMessage createSTOMPMessage(Message msg, String id){
-        String msgId = msg.getMessageID();
-        MessageMessage message = new MessageMessage(msg.getTopic(), msgId, id);
-
-        //Adds all the user defined headers to the STOMP message
-        HashMap<String, String> attributes = msg.getAttributes();
-        Iterator it = attributes.entrySet().iterator();
-        while(it.hasNext()){
-            Map.Entry pair = (Map.Entry) it.next();
-            String key = (String) pair.getKey();
-            message.getHeader().addHeader(key, attributes.get(key));
-        }
-
-        message.setBody(msg.getMessage());
-        message.getHeader().setAck(msgId);
-        return message;
-    }
-
     /**
      * Stops the server and sets gateway to null
      */
@@ -214,8 +206,10 @@ public class STOMPServer extends Server {
         try {
             gateway.shutdown();
             gateway = null;
+            channelWriter.clear();
             running.set(false);
-            messageSenderThread.interrupt();
+            MessageService.getInstance().removeBackpressureListener(backpressureListener);
+            if(outboundExecutor != null) outboundExecutor.stop();
         } catch (Exception e) {
             log.error("Exception when trying to shutdown the server", e);
         }
@@ -224,4 +218,12 @@ public class STOMPServer extends Server {
     public ServerNettyMessageGateway getGateway() {
         return gateway;
     }
+
+    /**
+     * Returns the writer that batches outgoing frames and applies backpressure to slow clients
+     * @return the channel writer
+     */
+    public STOMPChannelWriter getChannelWriter() {
+        return channelWriter;
+    }
 }
@@ -0,0 +1,63 @@
+package no.ntnu.okse.protocol.stomp;
+
+import asia.stampy.common.gateway.HostPort;
+import no.ntnu.okse.core.subscription.Subscriber;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable STOMP subscription, pairing the subscription id the client chose with the OKSE subscriber.
+ * The connection of the subscriber and the encoded subscription id are resolved once, so they do not have to be
+ * created for every message.
+ */
+public class STOMPSubscription {
+    private final String clientID;
+    private final byte[] encodedClientID;
+    private final Subscriber subscriber;
+    private final HostPort hostPort;
+
+    /**
+     * Creates a new subscription
+     * @param clientID the subscription id of the client
+     * @param subscriber the OKSE subscriber
+     */
+    public STOMPSubscription(String clientID, Subscriber subscriber) {
+        this.clientID = clientID;
+        this.encodedClientID = String.valueOf(clientID).getBytes(StandardCharsets.UTF_8);
+        this.subscriber = subscriber;
+        this.hostPort = new HostPort(subscriber.getHost(), subscriber.getPort());
+    }
+
+    /**
+     * Returns the subscription id of the client
+     * @return the subscription id
+     */
+    public String getClientID() {
+        return clientID;
+    }
+
+    /**
+     * Returns the subscription id of the client encoded as UTF-8, as it is written in the subscription header.
+     * The array is shared, and must not be modified.
+     * @return the encoded subscription id
+     */
+    public byte[] getEncodedClientID() {
+        return encodedClientID;
+    }
+
+    /**
+     * Returns the OKSE subscriber of this subscription
+     * @return the subscriber
+     */
+    public Subscriber getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * Returns the connection of the subscriber
+     * @return the host and port of the subscriber
+     */
+    public HostPort getHostPort() {
+        return hostPort;
+    }
+}
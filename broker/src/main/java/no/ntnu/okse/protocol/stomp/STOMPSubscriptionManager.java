@@ -1,5 +1,6 @@
 package no.ntnu.okse.protocol.stomp;
 
+import no.ntnu.okse.core.event.SubscriptionBatchChangeEvent;
 import no.ntnu.okse.core.event.SubscriptionChangeEvent;
 import no.ntnu.okse.core.event.listeners.SubscriptionChangeListener;
 import no.ntnu.okse.core.subscription.Subscriber;
@@ -7,14 +8,54 @@ import no.ntnu.okse.core.subscription.SubscriptionService;
 import org.apache.log4j.Logger;
 import org.oasis_open.docs.wsn.bw_2.SubscriptionManager;
 
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class STOMPSubscriptionManager implements SubscriptionChangeListener {
     private static Logger log;
     private SubscriptionService subscriptionService = null;
     public ConcurrentHashMap<String, Subscriber> localSubscriberMap;
+    // Secondary indexes, kept consistent with localSubscriberMap
+    private ConcurrentHashMap<String, Destination> subscriptionsByDestination;
+    private ConcurrentHashMap<String, Set<String>> clientIDsByConnection;
+    private ConcurrentHashMap<String, String> clientIDsBySubscriberID;
+
+    /**
+     * The subscriptions on a single destination, in the order they were added. Subscriptions are added and
+     * removed in constant time, and the read-only list handed to the message sender is only rebuilt the first
+     * time it is asked for after a change, so a batch of changes costs a single copy.
+     */
+    private static class Destination {
+        private final LinkedHashMap<String, STOMPSubscription> subscriptions = new LinkedHashMap<>();
+        private volatile List<STOMPSubscription> snapshot = Collections.emptyList();
+
+        synchronized void add(STOMPSubscription subscription){
+            subscriptions.put(subscription.getClientID(), subscription);
+            snapshot = null;
+        }
+
+        /**
+         * @return true if the destination has no subscriptions left
+         */
+        synchronized boolean remove(String clientID){
+            if(subscriptions.remove(clientID) != null) snapshot = null;
+            return subscriptions.isEmpty();
+        }
+
+        List<STOMPSubscription> getSubscriptions(){
+            List<STOMPSubscription> current = snapshot;
+            if(current != null) return current;
+            synchronized (this) {
+                if(snapshot == null) snapshot = Collections.unmodifiableList(new ArrayList<>(subscriptions.values()));
+                return snapshot;
+            }
+        }
+    }
 
     /**
      * Setup of variables
@@ -22,6 +63,9 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
     public STOMPSubscriptionManager () {
         log = Logger.getLogger(SubscriptionManager.class.getName());
         localSubscriberMap = new ConcurrentHashMap<>();
+        subscriptionsByDestination = new ConcurrentHashMap<>();
+        clientIDsByConnection = new ConcurrentHashMap<>();
+        clientIDsBySubscriberID = new ConcurrentHashMap<>();
     }
 
     /**
@@ -44,7 +88,7 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
         }
         subscriptionService.addSubscriber(s);
         log.debug("Adding Subscriber to local mappings: " + clientID);
-        localSubscriberMap.put(clientID, s);
+        indexSubscriber(clientID, s);
     }
 
     /**
@@ -52,9 +96,9 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
      * @param clientID the client id of the message
      */
     public void removeSubscriber(String clientID){
-        if(containsSubscriber(clientID)){
-            subscriptionService.removeSubscriber(getSubscriber(clientID));
-            localSubscriberMap.remove(clientID);
+        Subscriber sub = unindexSubscriber(clientID);
+        if(sub != null){
+            subscriptionService.removeSubscriber(sub);
         }
     }
 
@@ -64,15 +108,16 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
      * @param port the port of the connection
      */
     public void removeSubscriber(String host, int port){
-        Enumeration<String> enum_keys = localSubscriberMap.keys();
-        while(enum_keys.hasMoreElements()){
-            String key = enum_keys.nextElement();
-            Subscriber sub = localSubscriberMap.get(key);
-            if(sub.getHost().equals(host) && sub.getPort() == port){
-                subscriptionService.removeSubscriber(sub);
-                localSubscriberMap.remove(key);
-            }
+        Set<String> clientIDs = clientIDsByConnection.get(connectionKey(host, port));
+        if(clientIDs == null) return;
+
+        ArrayList<Subscriber> removed = new ArrayList<>();
+        for(String clientID : new ArrayList<>(clientIDs)){
+            Subscriber sub = unindexSubscriber(clientID);
+            if(sub != null) removed.add(sub);
         }
+        // Remove all the subscriptions of the connection from OKSE in one batch
+        subscriptionService.removeSubscribers(removed);
     }
 
     /**
@@ -80,14 +125,9 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
      * @param sub The subscriber to remove
      */
     public void removeSubscriber(Subscriber sub) {
-        Enumeration<String> enum_keys = localSubscriberMap.keys();
-        while(enum_keys.hasMoreElements()){
-            String key = enum_keys.nextElement();
-            Subscriber local_sub = localSubscriberMap.get(key);
-            if(local_sub.getSubscriberID().equals(sub.getSubscriberID())){
-                subscriptionService.removeSubscriber(sub);
-                localSubscriberMap.remove(key);
-            }
+        String clientID = clientIDsBySubscriberID.get(sub.getSubscriberID());
+        if(clientID != null && unindexSubscriber(clientID) != null){
+            subscriptionService.removeSubscriber(sub);
         }
     }
 
@@ -116,17 +156,73 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
      */
     public HashMap<String, Subscriber> getAllSubscribersForTopic(String topic){
         HashMap<String, Subscriber> newHashMap = new HashMap<String, Subscriber>();
-        Object[] keyArr = localSubscriberMap.keySet().toArray();
-        for(int i = 0; i < localSubscriberMap.size(); i++){
-            String key = (String)keyArr[i];
-            Subscriber sub = localSubscriberMap.get(key);
-            if(sub.getTopic().equals(topic)){
-                newHashMap.put(key, sub);
-            }
+        for(STOMPSubscription subscription : getSubscriptionsForTopic(topic)){
+            newHashMap.put(subscription.getClientID(), subscription.getSubscriber());
         }
         return newHashMap;
     }
 
+    /**
+     * Gets all subscriptions for some specific topic. The list is shared and must not be modified, but it
+     * is never changed after it is returned, so it can be iterated while subscriptions are added or removed.
+     * @param topic the topic to look up
+     * @return a read-only list of the subscriptions on the topic
+     */
+    public List<STOMPSubscription> getSubscriptionsForTopic(String topic){
+        if(topic == null) return Collections.emptyList();
+        Destination destination = subscriptionsByDestination.get(topic);
+        return destination == null ? Collections.emptyList() : destination.getSubscriptions();
+    }
+
+    /**
+     * Adds a subscriber to the local map and the secondary indexes
+     * @param clientID the client id of the subscription
+     * @param sub the OKSE subscriber
+     */
+    private synchronized void indexSubscriber(String clientID, Subscriber sub){
+        localSubscriberMap.put(clientID, sub);
+        clientIDsBySubscriberID.put(sub.getSubscriberID(), clientID);
+        clientIDsByConnection.computeIfAbsent(connectionKey(sub.getHost(), sub.getPort()),
+                k -> ConcurrentHashMap.newKeySet()).add(clientID);
+        if(sub.getTopic() != null){
+            subscriptionsByDestination.computeIfAbsent(sub.getTopic(), k -> new Destination())
+                    .add(new STOMPSubscription(clientID, sub));
+        }
+    }
+
+    /**
+     * Removes a subscriber from the local map and the secondary indexes
+     * @param clientID the client id of the subscription
+     * @return the removed subscriber, or null if there was no subscriber with the client id
+     */
+    private synchronized Subscriber unindexSubscriber(String clientID){
+        Subscriber sub = localSubscriberMap.remove(clientID);
+        if(sub == null) return null;
+
+        clientIDsBySubscriberID.remove(sub.getSubscriberID(), clientID);
+        clientIDsByConnection.computeIfPresent(connectionKey(sub.getHost(), sub.getPort()), (k, clientIDs) -> {
+            clientIDs.remove(clientID);
+            return clientIDs.isEmpty() ? null : clientIDs;
+        });
+        if(sub.getTopic() != null){
+            Destination destination = subscriptionsByDestination.get(sub.getTopic());
+            if(destination != null && destination.remove(clientID)){
+                subscriptionsByDestination.remove(sub.getTopic(), destination);
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * Creates the key of a connection in the connection index
+     * @param host the host of the connection
+     * @param port the port of the connection
+     * @return the connection key
+     */
+    private static String connectionKey(String host, int port){
+        return host + ":" + port;
+    }
+
     /**
      * Method that is called from OKSE whenever a subscription changes
      * @param e the subscription change event
@@ -140,4 +236,22 @@ public class STOMPSubscriptionManager implements SubscriptionChangeListener {
             }
         }
     }
+
+    /**
+     * Method that is called from OKSE whenever several subscriptions change at once. Unsubscribed
+     * subscribers are looked up in the subscriber index and removed from the local mappings.
+     * @param e the subscription batch change event
+     */
+    @Override
+    public void subscriptionsChanged(SubscriptionBatchChangeEvent e) {
+        if (!e.getType().equals(SubscriptionChangeEvent.Type.UNSUBSCRIBE)) return;
+
+        int removed = 0;
+        for (Subscriber sub : e.getData()) {
+            if (!sub.getOriginProtocol().equals("stomp")) continue;
+            String clientID = clientIDsBySubscriberID.get(sub.getSubscriberID());
+            if (clientID != null && unindexSubscriber(clientID) != null) removed++;
+        }
+        if (removed > 0) log.debug("Received a UNSUBSCRIBE batch event, removed " + removed + " subscribers");
+    }
 }
@@ -8,6 +8,7 @@ import asia.stampy.common.message.StompMessageType;
 import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.protocol.stomp.STOMPChannelWriter;
 import no.ntnu.okse.protocol.stomp.STOMPProtocolServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,13 +24,15 @@ import java.util.Map;
  * OKSE. It also has special handling for adding any user defined
  * headers to the OKSE message.
  *
- * Also increments the total number of messages received
+ * Also increments the total number of messages received, and stops reading from
+ * the client while OKSE is overloaded
  */
 public class MessageListener implements StampyMessageListener {
     private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     private String protocol;
     private STOMPProtocolServer protocolServer;
     private MessageService messageService;
+    private STOMPChannelWriter channelWriter;
 
     /**
      * Constructor for the class, simply sets the protocol type
@@ -78,6 +81,13 @@ public class MessageListener implements StampyMessageListener {
 
         sendMessageToOKSE(okseMsg);
         protocolServer.incrementTotalMessagesReceived();
+
+        if(channelWriter != null && messageService.isOverloaded()){
+            log.debug("MessageService is overloaded, pausing the STOMP publisher " + hostPort);
+            channelWriter.pauseReading(hostPort);
+            // The backpressure may have been released before the publisher was paused
+            if(!messageService.isOverloaded()) channelWriter.resumeReading();
+        }
     }
 
     /**
@@ -97,6 +107,14 @@ public class MessageListener implements StampyMessageListener {
         messageService = instance;
     }
 
+    /**
+     * Sets the channel writer, used to stop reading from publishers while OKSE is overloaded
+     * @param channelWriter the channel writer of the server
+     */
+    public void setChannelWriter(STOMPChannelWriter channelWriter) {
+        this.channelWriter = channelWriter;
+    }
+
     /**
      * Sets the protocol server, used to increment total number of message
      * received
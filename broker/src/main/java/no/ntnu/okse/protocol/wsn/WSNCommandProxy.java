@@ -54,6 +54,7 @@ import org.oasis_open.docs.wsn.brw_2.PublisherRegistrationFailedFault;
 import org.oasis_open.docs.wsn.brw_2.PublisherRegistrationRejectedFault;
 import org.oasis_open.docs.wsn.bw_2.*;
 import org.oasis_open.docs.wsrf.rw_2.ResourceUnknownFault;
+import org.w3c.dom.Node;
 
 import javax.jws.*;
 import javax.jws.soap.SOAPBinding;
@@ -205,6 +206,16 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
         return _subscriptionManager.getAllRecipients();
     }
 
+    /**
+     * Fetch the subscriptionKeys of the recipients that could match a notify on the given topics
+     *
+     * @param topics The topics of the messages in the notify
+     * @return A collection containing the subscriptionKeys as strings
+     */
+    protected Collection<String> getCandidateRecipients(Collection<String> topics) {
+        return _subscriptionManager.getCandidateRecipients(topics);
+    }
+
     /**
      * Retrieves the endpointReference of a subscriber from its subscription key
      *
@@ -268,6 +279,40 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
         return filterSupport.evaluateNotifyToSubscription(notify, subscriptionHandle.subscriptionInfo, nuNamespaceContextResolver);
     }
 
+    /**
+     * Filters the recipients eligible for a notify, reusing the result for recipients that share filters.
+     * The map should be created once per notify, so each distinct filter set is only evaluated once.
+     *
+     * @param s                          The subscriptionKey of the subscriber
+     * @param notify                     The Notify object to be checked
+     * @param nuNamespaceContextResolver An instance of NuNameSpaceContextResolver
+     * @param evaluated                  The results of the filter sets already evaluated for this notify
+     * @return The Notify object if it passed validation, null otherwise
+     */
+    protected Notify getRecipientFilteredNotify(String s, Notify notify, NuNamespaceContextResolver nuNamespaceContextResolver,
+                                                Map<WSNFilterEvaluator, Notify> evaluated) {
+        // Check if we have the current recipient registered, and that it is not paused
+        if (!this._subscriptionManager.hasSubscription(s) || _subscriptionManager.subscriptionIsPaused(s)) {
+            return null;
+        }
+
+        // If we dont have filter support, nothing more to do.
+        if (this.filterSupport == null) {
+            return notify;
+        }
+
+        WSNFilterEvaluator evaluator = _subscriptionManager.getFilterEvaluator(s);
+        if (evaluator == null) {
+            return getRecipientFilteredNotify(s, notify, nuNamespaceContextResolver);
+        }
+        if (evaluated.containsKey(evaluator)) {
+            return evaluated.get(evaluator);
+        }
+        Notify filtered = evaluator.evaluate(filterSupport, notify, nuNamespaceContextResolver);
+        evaluated.put(evaluator, filtered);
+        return filtered;
+    }
+
     /**
      * Will try to send the {@link org.oasis_open.docs.wsn.b_2.Notify} to the
      * {@link javax.xml.ws.wsaddressing.W3CEndpointReference} indicated.
@@ -321,6 +366,10 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
         TopicService topicService = TopicService.getInstance();
         // Declare the message object
         Message message;
+        // The topics of the messages in this notify, used to look up candidate recipients
+        HashSet<String> notifyTopics = new HashSet<>();
+        // The messages share their content trees with this notify, so they are distributed when it is sent
+        ArrayList<Message> messages = new ArrayList<>();
 
         for (NotificationMessageHolderType messageHolderType : notify.getNotificationMessage()) {
             TopicExpressionType topic = messageHolderType.getTopic();
@@ -332,6 +381,7 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
                     List<QName> topicQNames = TopicValidator.evaluateTopicExpressionToQName(topic, namespaceContextResolver.resolveNamespaceContext(topic));
                     String topicName = TopicUtils.topicToString(topicQNames);
                     topicName = WSNTools.removeNameSpacePrefixesFromTopicExpression(topicName);
+                    notifyTopics.add(topicName);
 
                     log.debug("Message topic extracted: " + topicName);
 
@@ -346,6 +396,8 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
 
                     // Generate the message
                     message = new Message(content, topicName, null, _protocolserver.getProtocolServerType());
+                    // Keep the already parsed content, so it is not parsed again if the message is relayed
+                    message.setRepresentation(WSNTools.MESSAGE_CONTENT_REPRESENTATION, messageHolderType.getMessage().getAny());
                     log.debug("OKSE Message generated");
                     // Extract the endpoint reference from publisher
                     W3CEndpointReference publisherReference = messageHolderType.getProducerReference();
@@ -355,8 +407,7 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
                         message.setAttribute(WSNSubscriptionManager.WSN_ENDPOINT_TOKEN, ServiceUtilities.getAddress(publisherReference));
                     }
 
-                    // Add the message to the message queue for dispatch
-                    messageService.distributeMessage(message);
+                    messages.add(message);
 
                 } catch (InvalidTopicExpressionFault invalidTopicExpressionFault) {
                     log.warn("Tried to send a topic with an invalid expression");
@@ -392,47 +443,46 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
         currentMessage = notify;
         currentMessageNamespaceContextResolver = namespaceContextResolver;
 
-        // For all valid recipients
-        for (String recipient : this.getAllRecipients()) {
+        // Results of each distinct filter set for this notify, and the envelopes shared by recipients
+        HashMap<WSNFilterEvaluator, Notify> evaluated = new HashMap<>();
+        WSNEnvelopeCache envelopes = new WSNEnvelopeCache();
+
+        // For all recipients subscribed to the topics of the notify, or to no concrete topic
+        for (String recipient : this.getCandidateRecipients(notifyTopics)) {
 
-            // If the subscription has expired, continue
-            if (_subscriptionManager.getSubscriber(recipient).hasExpired()) continue;
+            Subscriber subscriber = _subscriptionManager.getSubscriber(recipient);
+
+            // If the subscription has been removed or has expired, continue
+            if (subscriber == null || subscriber.hasExpired()) continue;
 
             // Filter do filter handling, if any
-            Notify toSend = getRecipientFilteredNotify(recipient, notify, namespaceContextResolver);
+            Notify toSend = getRecipientFilteredNotify(recipient, notify, namespaceContextResolver, evaluated);
 
             // If any message was left to send, send it
             if (toSend != null) {
-                InternalMessage outMessage = new InternalMessage(
-                        InternalMessage.STATUS_OK |
-                                InternalMessage.STATUS_HAS_MESSAGE |
-                                InternalMessage.STATUS_ENDPOINTREF_IS_SET,
-                        toSend
-                );
-                // Update the requestinformation
-                outMessage.getRequestInformation().setEndpointReference(getEndpointReferenceOfRecipient(recipient));
+                String endpoint = getEndpointReferenceOfRecipient(recipient);
+                Soap.SoapVersion version = WSNEnvelopeCache.parseSoapVersion(subscriber.getAttribute("soap_version"));
 
                 // If the recipient has requested UseRaw, remove Notify payload wrapping
-                if (_subscriptionManager
-                        .getSubscriber(recipient)
-                        .getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null) {
+                if (subscriber.getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null) {
 
                     // For all bundled messages, extract and push
                     for (NotificationMessageHolderType holderType : toSend.getNotificationMessage()) {
-                        // Extract the content
-                        Object content = WSNTools.extractMessageContentFromNotify(toSend);
-                        // Update the InternalMessage with the content of the NotificationMessage
-                        outMessage.setMessage(content);
-                        // Pass it to the requestparser
-                        CoreService.getInstance().execute(() -> hub.acceptLocalMessage(outMessage));
+                        // Extract the content, and share its envelope with other recipients
+                        Object content = WSNTools.extractMessageContentFromNotify(holderType);
+                        _protocolserver.sendEnvelope(endpoint, envelopes.getEnvelope(content, version));
                     }
                 } else {
-                    // Pass it along to the requestparser
-                    CoreService.getInstance().execute(() -> hub.acceptLocalMessage(outMessage));
+                    // Share the envelope with other recipients of the same notify and SOAP version
+                    _protocolserver.sendEnvelope(endpoint, envelopes.getEnvelope(toSend, version));
                 }
             }
         }
         log.debug("Finished sending message to valid WS-Notification recipients");
+
+        // Add the messages to the message queue for dispatch. This is done after the envelopes have been
+        // marshalled, as the content trees can not be read by this thread and the dispatchers at once.
+        messages.forEach(messageService::distributeMessage);
     }
 
     /**
@@ -714,7 +764,8 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
         }
 
         subscriber.setAttribute("soap_version", ver);
-        _subscriptionManager.addSubscriber(subscriber, subscriptionHandle);
+        _subscriptionManager.addSubscriber(subscriber, subscriptionHandle,
+                WSNFilterEvaluator.createKey(filtersPresent, connection.getRequestInformation().getNamespaceContextResolver()));
 
         return response;
     }
@@ -890,27 +941,15 @@ public class WSNCommandProxy extends AbstractNotificationBroker {
             // Initialize the response object
             GetCurrentMessageResponse response = new GetCurrentMessageResponse();
 
-            WSNTools.NotifyWithContext notifywrapper = WSNTools.buildNotifyWithContext
-                    (_protocolserver.getMessageContentWrapperElementName(), currentMessage.getMessage(), currentMessage.getTopic(), null, null);
-            // If it contained XML, we need to create properly marshalled jaxb node structure
-            if (currentMessage.getMessage().contains("<") || currentMessage.getMessage().contains(">")) {
-                // Unmarshal from raw XML
-                Notify notify = WSNTools.createNotify(currentMessage);
-                // If it was malformed, or maybe just a message containing < or >, build it as generic content element
-                if (notify == null) {
-                    WSNTools.injectMessageContentIntoNotify(WSNTools.buildGenericContentElement(
-                            _protocolserver.getMessageContentWrapperElementName(), currentMessage.getMessage()), notifywrapper.notify);
-                    // Else inject the unmarshalled XML nodes into the Notify message attribute
-                } else {
-                    WSNTools.injectMessageContentIntoNotify(WSNTools.extractMessageContentFromNotify(notify), notifywrapper.notify);
+            // Fetch the unmarshalled and linked message content, shared with the recipients of the message
+            Object messageObject = WSNTools.getMessageContent(currentMessage, _protocolserver.getMessageContentWrapperElementName());
+            // The response is marshalled after this method returns, so it gets its own copy of the content tree.
+            // The tree can not be read while the WSNotificationServer reads it, so it is copied under its lock.
+            if (messageObject instanceof Node) {
+                synchronized (messageObject) {
+                    messageObject = ((Node) messageObject).cloneNode(true);
                 }
             }
-
-            // Generate the NotificationMessage
-            log.debug("Generated Notify wrapper");
-
-            // Create a unmarshalled and linked Notify and extract the Message content from it
-            Object messageObject = WSNTools.extractMessageContentFromNotify(notifywrapper.notify);
             response.getAny().add(messageObject);
 
             // Return the response
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import com.google.common.io.ByteStreams;
+import org.apache.log4j.Logger;
+import org.ntnunotif.wsnu.base.soap.Soap;
+import org.ntnunotif.wsnu.base.util.Utilities;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * A per message cache of serialized SOAP envelopes. Recipients that receive the same content in the same
+ * SOAP version share one envelope, so the content is marshalled once per group and not once per recipient.
+ * <p>
+ * The cache is only meant to be used by the thread distributing a message. Envelopes are marshalled as soon as
+ * they are created, on that thread, since the content is a DOM tree shared by every envelope of the message,
+ * and DOM trees are not safe to read from several threads at once. The marshalled bytes can then be read from
+ * any thread.
+ */
+public class WSNEnvelopeCache {
+
+    private static Logger log = Logger.getLogger(WSNEnvelopeCache.class.getName());
+
+    // Content is keyed by identity, as filtered Notify objects and their extracted content are shared
+    private final IdentityHashMap<Object, HashMap<Soap.SoapVersion, SerializedEnvelope>> envelopes = new IdentityHashMap<>();
+
+    /**
+     * Retrieve the envelope for the given content and SOAP version, marshalling it if needed
+     *
+     * @param content The content of the SOAP body, a Notify or the raw content of a notification message
+     * @param version The SOAP version of the envelope
+     * @return The shared SerializedEnvelope
+     */
+    public SerializedEnvelope getEnvelope(Object content, Soap.SoapVersion version) {
+        return envelopes
+                .computeIfAbsent(content, c -> new HashMap<>())
+                .computeIfAbsent(version, v -> new SerializedEnvelope(content, v));
+    }
+
+    /**
+     * @return The number of distinct envelopes in the cache
+     */
+    public int size() {
+        return envelopes.values().stream().mapToInt(HashMap::size).sum();
+    }
+
+    /**
+     * Translates the soap_version attribute of a subscriber into a SOAP version, defaulting to SOAP 1.1
+     *
+     * @param version The soap_version attribute, may be null
+     * @return The SOAP version
+     */
+    public static Soap.SoapVersion parseSoapVersion(String version) {
+        if (version == null) return Soap.SoapVersion.SOAP_1_1;
+        switch (version) {
+            case "soap12D":
+                return Soap.SoapVersion.SOAP_1_2_2001;
+            case "soap12F":
+                return Soap.SoapVersion.SOAP_1_2_2003;
+            case "soap11":
+            default:
+                return Soap.SoapVersion.SOAP_1_1;
+        }
+    }
+
+    /**
+     * A SOAP envelope that is marshalled when it is created
+     */
+    public static class SerializedEnvelope {
+
+        private final Soap.SoapVersion version;
+        private final byte[] bytes;
+
+        private SerializedEnvelope(Object content, Soap.SoapVersion version) {
+            this.version = version;
+            this.bytes = marshal(content, version);
+        }
+
+        private static byte[] marshal(Object content, Soap.SoapVersion version) {
+            try {
+                Soap soap = Soap.create(version);
+                InputStream stream = Utilities.convertUnknownToInputStream(soap.createMessage(content));
+                return ByteStreams.toByteArray(stream);
+            } catch (Exception e) {
+                log.error("Unable to marshal SOAP envelope: " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Fetch the serialized envelope
+         *
+         * @return The envelope as bytes, or null if it could not be marshalled
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public Soap.SoapVersion getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.ntnunotif.wsnu.base.net.NuNamespaceContextResolver;
+import org.ntnunotif.wsnu.services.filterhandling.FilterSupport;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.oasis_open.docs.wsn.b_2.QueryExpressionType;
+import org.oasis_open.docs.wsn.b_2.TopicExpressionType;
+
+import javax.xml.namespace.QName;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared evaluator for one distinct set of subscription filters. Subscriptions with the same filter
+ * expressions and namespace bindings share the same evaluator, so a notify only has to be evaluated
+ * once per distinct filter set, and not once per subscriber.
+ * <p>
+ * The evaluator holds no per message state, and can be used from several threads at once.
+ */
+public class WSNFilterEvaluator {
+
+    private final String key;
+    private final FilterSupport.SubscriptionInfo subscriptionInfo;
+    private final AtomicInteger references;
+
+    /**
+     * Create a new evaluator for a filter set
+     *
+     * @param key              The canonical key of the filter set
+     * @param subscriptionInfo The WS-Nu SubscriptionInfo holding the filters of the first subscription with this key
+     */
+    public WSNFilterEvaluator(String key, FilterSupport.SubscriptionInfo subscriptionInfo) {
+        this.key = key;
+        this.subscriptionInfo = subscriptionInfo;
+        this.references = new AtomicInteger(0);
+    }
+
+    /**
+     * Evaluates a notify against the filters
+     *
+     * @param filterSupport            The WS-Nu FilterSupport to evaluate with
+     * @param notify                   The Notify to filter
+     * @param namespaceContextResolver The namespace context of the notify
+     * @return The filtered Notify, or null if nothing in it passed the filters
+     */
+    public Notify evaluate(FilterSupport filterSupport, Notify notify, NuNamespaceContextResolver namespaceContextResolver) {
+        return filterSupport.evaluateNotifyToSubscription(notify, subscriptionInfo, namespaceContextResolver);
+    }
+
+    /**
+     * @return The canonical key of the filter set
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The number of subscriptions sharing this evaluator
+     */
+    public int getReferences() {
+        return references.get();
+    }
+
+    protected int retain() {
+        return references.incrementAndGet();
+    }
+
+    protected int release() {
+        return references.decrementAndGet();
+    }
+
+    /**
+     * Create the canonical key of a filter set. The key contains the name, dialect and expression of every
+     * filter, along with the namespace bindings in scope of the expression, as the same prefix can be bound
+     * to different namespaces by different subscribers.
+     *
+     * @param filters                  The filters of the subscription, may be null
+     * @param namespaceContextResolver The namespace context of the subscribe request
+     * @return The key, an empty string if there are no filters, or null if the filters can not be shared
+     */
+    public static String createKey(Map<QName, Object> filters, NuNamespaceContextResolver namespaceContextResolver) {
+        if (filters == null || filters.isEmpty()) return "";
+
+        // Sort the filters by name, so the key does not depend on their order in the request
+        TreeMap<String, Object> sorted = new TreeMap<>();
+        filters.forEach((name, value) -> sorted.put(name.toString(), value));
+
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Object> filter : sorted.entrySet()) {
+            Object value = filter.getValue();
+            String dialect;
+            List<Object> content;
+
+            if (value instanceof TopicExpressionType) {
+                dialect = ((TopicExpressionType) value).getDialect();
+                content = ((TopicExpressionType) value).getContent();
+            } else if (value instanceof QueryExpressionType) {
+                dialect = ((QueryExpressionType) value).getDialect();
+                content = ((QueryExpressionType) value).getContent();
+            } else {
+                // Unknown filter types can not be compared, so they get an evaluator of their own
+                return null;
+            }
+
+            builder.append(filter.getKey()).append('|').append(dialect).append('|');
+            content.forEach(c -> builder.append(c.toString().trim()));
+
+            if (namespaceContextResolver != null) {
+                NuNamespaceContextResolver.NuResolvedNamespaceContext context = namespaceContextResolver.resolveNamespaceContext(value);
+                if (context != null) {
+                    TreeSet<String> prefixes = new TreeSet<>();
+                    for (String prefix : context.getAllPrefixes()) prefixes.add(prefix);
+                    prefixes.forEach(prefix -> builder.append('|').append(prefix).append('=').append(context.getNamespaceURI(prefix)));
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
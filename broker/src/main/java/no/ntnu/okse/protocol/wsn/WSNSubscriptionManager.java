@@ -25,10 +25,13 @@ import javax.xml.bind.annotation.XmlSeeAlso;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 @WebService(targetNamespace = "http://docs.oasis-open.org/wsn/bw-2", name = "PausableSubscriptionManager")
@@ -45,6 +48,13 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
     private SubscriptionService _subscriptionService = null;
     private ConcurrentHashMap<String, Subscriber> localSubscriberMap;
     private ConcurrentHashMap<String, AbstractNotificationProducer.SubscriptionHandle> localSubscriberHandle;
+    // Index from concrete topic to subscriptionKeys, and the subscriptionKeys that have no concrete topic
+    // (all topics, wildcard and XPATH expressions), whose filters must be evaluated for every message
+    private ConcurrentHashMap<String, Set<String>> recipientsByTopic;
+    private Set<String> recipientsForAllTopics;
+    // Filter evaluators shared between subscriptions with identical filters, and the evaluator of each subscriptionKey
+    private ConcurrentHashMap<String, WSNFilterEvaluator> filterEvaluators;
+    private ConcurrentHashMap<String, WSNFilterEvaluator> recipientFilterEvaluators;
     private WSNotificationServer _protocolserver;
 
     /**
@@ -54,6 +64,10 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
         log = Logger.getLogger(WSNSubscriptionManager.class.getName());
         localSubscriberMap = new ConcurrentHashMap<>();
         localSubscriberHandle = new ConcurrentHashMap<>();
+        recipientsByTopic = new ConcurrentHashMap<>();
+        recipientsForAllTopics = ConcurrentHashMap.newKeySet();
+        filterEvaluators = new ConcurrentHashMap<>();
+        recipientFilterEvaluators = new ConcurrentHashMap<>();
         _protocolserver = protocolserver;
     }
 
@@ -114,10 +128,25 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
      * @param subHandle An instance of WS-Nu SubscriptionHandle with proper fields and attributes set.
      */
     public void addSubscriber(Subscriber s, AbstractNotificationProducer.SubscriptionHandle subHandle) {
+        addSubscriber(s, subHandle, null);
+    }
+
+    /**
+     * Adds a subscriber like {@link #addSubscriber(Subscriber, AbstractNotificationProducer.SubscriptionHandle)},
+     * sharing its filter evaluator with the other subscriptions that have the same filter key.
+     *
+     * @param s         An instance of OKSE Subscriber with proper fields and attributes set.
+     * @param subHandle An instance of WS-Nu SubscriptionHandle with proper fields and attributes set.
+     * @param filterKey The canonical key of the subscription filters, as created by
+     *                  {@link WSNFilterEvaluator#createKey}, or null if the filters can not be shared
+     */
+    public void addSubscriber(Subscriber s, AbstractNotificationProducer.SubscriptionHandle subHandle, String filterKey) {
         _subscriptionService.addSubscriber(s);
         log.debug("Adding Subscriber to local mappings: " + s.getAttribute(WSN_SUBSCRIBER_TOKEN));
         localSubscriberMap.put(s.getAttribute(WSN_SUBSCRIBER_TOKEN), s);
         localSubscriberHandle.put(s.getAttribute(WSN_SUBSCRIBER_TOKEN), subHandle);
+        addRecipientToTopicIndex(s);
+        addFilterEvaluator(s.getAttribute(WSN_SUBSCRIBER_TOKEN), subHandle, filterKey);
     }
 
     // This should not be called in any of the OKSE Custom/Proxy web service implementations.
@@ -141,6 +170,14 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
         }
     }
 
+    /**
+     * Removes all Subscribers registered to this manager from the SubscriptionService in one batch, and the
+     * listener callback will remove them from local mappings.
+     */
+    public void removeAllSubscribers() {
+        _subscriptionService.removeSubscribers(new ArrayList<>(localSubscriberMap.values()));
+    }
+
     /**
      * Retrieve a collection of all the WS-Nu subscriptionKeys registered to this manager
      *
@@ -150,6 +187,136 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
         return localSubscriberMap.keySet();
     }
 
+    /**
+     * Retrieve the subscriptionKeys that could possibly match a message on the given topic. These are the
+     * recipients subscribed to the topic or one of its ancestors, and the recipients without a concrete topic.
+     * The filters of the returned recipients must still be evaluated to decide whether they should receive it.
+     *
+     * @param topic The topic of the message, or null if it has none
+     * @return A Set of WS-Nu subscriptionKeys
+     */
+    public Set<String> getCandidateRecipients(String topic) {
+        HashSet<String> candidates = new HashSet<>(recipientsForAllTopics);
+        addRecipientsOfTopicAndAncestors(topic, candidates);
+        return candidates;
+    }
+
+    /**
+     * Retrieve the subscriptionKeys that could possibly match a notify carrying messages on the given topics.
+     *
+     * @param topics The topics of the messages in the notify
+     * @return A Set of WS-Nu subscriptionKeys
+     */
+    public Set<String> getCandidateRecipients(Collection<String> topics) {
+        HashSet<String> candidates = new HashSet<>(recipientsForAllTopics);
+        topics.forEach(topic -> addRecipientsOfTopicAndAncestors(topic, candidates));
+        return candidates;
+    }
+
+    /**
+     * Adds the recipients subscribed to the topic, and to each of its ancestor topics, to the candidate set
+     *
+     * @param topic      The full topic name
+     * @param candidates The set to add the subscriptionKeys to
+     */
+    private void addRecipientsOfTopicAndAncestors(String topic, Set<String> candidates) {
+        while (topic != null && !topic.isEmpty()) {
+            Set<String> keys = recipientsByTopic.get(topic);
+            if (keys != null) candidates.addAll(keys);
+            int separator = topic.lastIndexOf('/');
+            topic = separator > 0 ? topic.substring(0, separator) : null;
+        }
+    }
+
+    /**
+     * Retrieve the filter evaluator of a subscription
+     *
+     * @param s The subscriptionKey of the subscriber
+     * @return The WSNFilterEvaluator of the subscription, or null if the subscription does not exist
+     */
+    public WSNFilterEvaluator getFilterEvaluator(String s) {
+        return recipientFilterEvaluators.get(s);
+    }
+
+    /**
+     * Retrieve the number of distinct filter sets shared between subscriptions
+     *
+     * @return The number of shared filter evaluators
+     */
+    public int getNumberOfFilterEvaluators() {
+        return filterEvaluators.size();
+    }
+
+    /**
+     * Looks up or creates the filter evaluator for a subscription
+     *
+     * @param key       The subscriptionKey
+     * @param subHandle The SubscriptionHandle holding the filters
+     * @param filterKey The canonical filter key, or null if the filters can not be shared
+     */
+    private void addFilterEvaluator(String key, AbstractNotificationProducer.SubscriptionHandle subHandle, String filterKey) {
+        if (key == null || subHandle == null) return;
+        WSNFilterEvaluator evaluator;
+        if (filterKey == null) {
+            evaluator = new WSNFilterEvaluator(null, subHandle.subscriptionInfo);
+            evaluator.retain();
+        } else {
+            evaluator = filterEvaluators.compute(filterKey, (k, existing) -> {
+                WSNFilterEvaluator e = existing != null ? existing : new WSNFilterEvaluator(k, subHandle.subscriptionInfo);
+                e.retain();
+                return e;
+            });
+        }
+        WSNFilterEvaluator previous = recipientFilterEvaluators.put(key, evaluator);
+        if (previous != null) releaseFilterEvaluator(previous);
+    }
+
+    /**
+     * Removes the filter evaluator of a subscription, discarding the shared evaluator when no one uses it
+     *
+     * @param key The subscriptionKey
+     */
+    private void removeFilterEvaluator(String key) {
+        if (key == null) return;
+        WSNFilterEvaluator evaluator = recipientFilterEvaluators.remove(key);
+        if (evaluator != null) releaseFilterEvaluator(evaluator);
+    }
+
+    private void releaseFilterEvaluator(WSNFilterEvaluator evaluator) {
+        if (evaluator.getKey() == null) return;
+        filterEvaluators.computeIfPresent(evaluator.getKey(), (k, e) -> e.release() <= 0 ? null : e);
+    }
+
+    /**
+     * Adds the subscriptionKey of a Subscriber to the topic index
+     *
+     * @param s The Subscriber to index
+     */
+    private void addRecipientToTopicIndex(Subscriber s) {
+        String key = s.getAttribute(WSN_SUBSCRIBER_TOKEN);
+        if (key == null) return;
+        if (s.getTopic() == null) recipientsForAllTopics.add(key);
+        else recipientsByTopic.computeIfAbsent(s.getTopic(), t -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    /**
+     * Removes the subscriptionKey of a Subscriber from the topic index
+     *
+     * @param s The Subscriber to remove
+     */
+    private void removeRecipientFromTopicIndex(Subscriber s) {
+        String key = s.getAttribute(WSN_SUBSCRIBER_TOKEN);
+        if (key == null) return;
+        if (s.getTopic() == null) {
+            recipientsForAllTopics.remove(key);
+        } else {
+            recipientsByTopic.computeIfPresent(s.getTopic(), (t, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
     /**
      * Retrieve the SubscriptionHandle of the subscriber identified by the argument subscriptionKey.
      *
@@ -509,6 +676,8 @@ public class WSNSubscriptionManager extends AbstractSubscriptionManager implemen
                 // Remove the local mappings from WS-Nu subscriptionKey to OKSE Subscriber object and WS-Nu subscriptionHandle
                 localSubscriberMap.remove(e.getData().getAttribute(WSN_SUBSCRIBER_TOKEN));
                 localSubscriberHandle.remove(e.getData().getAttribute(WSN_SUBSCRIBER_TOKEN));
+                removeRecipientFromTopicIndex(e.getData());
+                removeFilterEvaluator(e.getData().getAttribute(WSN_SUBSCRIBER_TOKEN));
 
             } else if (e.getType().equals(SubscriptionChangeEvent.Type.SUBSCRIBE)) {
                 log.debug("Received a SUBSCRIBE event");
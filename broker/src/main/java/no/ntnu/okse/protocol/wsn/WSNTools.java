@@ -48,6 +48,7 @@ import javax.validation.constraints.NotNull;
 import javax.xml.bind.DatatypeConverter;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.*;
@@ -78,6 +79,30 @@ public class WSNTools {
     public static final String _FullTopicExpression = "http://docs.oasis-open.org/wsn/t-1/TopicExpression/Full";
     public static final String _XpathTopicExpression = "http://www.w3.org/TR/1999/REC-xpath-19991116";
 
+    // Key of the WS-Notification message content representation cached on OKSE Messages
+    public static final String MESSAGE_CONTENT_REPRESENTATION = "wsn-message-content";
+
+    // The XML factories are expensive to create and not thread safe, so each thread reuses its own
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = ThreadLocal.withInitial(() -> {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            log.error("Invalid parser configuration, unknown reason: " + e.getMessage());
+            return null;
+        }
+    });
+    private static final ThreadLocal<Transformer> transformer = ThreadLocal.withInitial(() -> {
+        try {
+            Transformer t = TransformerFactory.newInstance().newTransformer();
+            // We dont want the xml declaration
+            t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            return t;
+        } catch (TransformerConfigurationException e) {
+            log.error(e.getMessage());
+            return null;
+        }
+    });
+
     /**
      * Generate a valid XML SOAP envelope containing a WS-Notification Notify
      *
@@ -143,22 +168,17 @@ public class WSNTools {
      */
     public static String extractRawXmlContentFromDomNode(Node node) {
         try {
-            // Create transformer
-            TransformerFactory transFactory = TransformerFactory.newInstance();
-            Transformer transformer = transFactory.newTransformer();
+            // Fetch the transformer of this thread
+            Transformer transformer = WSNTools.transformer.get();
+            if (transformer == null) return null;
             // Init a stringbuffer
             StringWriter buffer = new StringWriter();
-            // We dont want the xml declaration
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
             // Transform the node from source and beyond
             transformer.transform(new DOMSource(node), new StreamResult(buffer));
             // Convert to string
             String str = buffer.toString();
             // Return results
             return str;
-        } catch (TransformerConfigurationException e) {
-            log.error(e.getMessage());
-            e.printStackTrace();
         } catch (TransformerException e) {
             log.error(e.getMessage());
             e.printStackTrace();
@@ -205,6 +225,27 @@ public class WSNTools {
         return notify;
     }
 
+    /**
+     * Retrieve the WS-Notification message content of an OKSE Message. XML payloads are unmarshalled into
+     * linked XML nodes, while other payloads are wrapped in a generic content element. The content is built
+     * once per message and cached on it, so it is shared by all recipients and must not be modified.
+     *
+     * @param m                    The OKSE Message
+     * @param wrapper_element_name The name of the element wrapping non-XML content
+     * @return The message content, ready to be injected into a Notify
+     */
+    public static Object getMessageContent(Message m, String wrapper_element_name) {
+        return m.getRepresentation(MESSAGE_CONTENT_REPRESENTATION, message -> {
+            // If it contained XML, we need to create properly marshalled jaxb node structure
+            if (message.getMessage().contains("<") || message.getMessage().contains(">")) {
+                Notify notify = createNotify(message);
+                // If it was malformed, or maybe just a message containing < or >, build it as generic content element
+                if (notify != null) return extractMessageContentFromNotify(notify);
+            }
+            return buildGenericContentElement(wrapper_element_name, message.getMessage());
+        });
+    }
+
     /**
      * Extract the Message element from a WS-Notification Notify wrapper
      * This method does not support multiple notificationmessages bundled in a single Notify
@@ -285,6 +326,30 @@ public class WSNTools {
      * @return a notify with its context
      */
     public static NotifyWithContext buildNotifyWithContext(String wrapper_element_name, String content, String topic, String prefix, String namespace) {
+        return buildNotifyWithContext(buildGenericContentElement(wrapper_element_name, content), topic, prefix, namespace);
+    }
+
+    /**
+     * Helper method that builds a notify from an OKSE Message, using the cached message content
+     *
+     * @param m                    The OKSE Message
+     * @param wrapper_element_name The name of the element wrapping non-XML content
+     * @return a notify with its context
+     */
+    public static NotifyWithContext buildNotifyWithContext(Message m, String wrapper_element_name) {
+        return buildNotifyWithContext(getMessageContent(m, wrapper_element_name), m.getTopic(), null, null);
+    }
+
+    /**
+     * Helper method that builds a notify around already built message content
+     *
+     * @param content   The XML content of the notification message
+     * @param topic     Notify Topic
+     * @param prefix    Notify prefix
+     * @param namespace Notify namespace
+     * @return a notify with its context
+     */
+    public static NotifyWithContext buildNotifyWithContext(Object content, String topic, String prefix, String namespace) {
 
         // Create a contextResolver, and fill it with the namespace bindings used in the notify
         NuNamespaceContextResolver contextResolver = new NuNamespaceContextResolver();
@@ -299,8 +364,7 @@ public class WSNTools {
         NotificationMessageHolderType.Message message = factory.createNotificationMessageHolderTypeMessage();
         NotificationMessageHolderType messageHolderType = factory.createNotificationMessageHolderType();
 
-        Element e = buildGenericContentElement(wrapper_element_name, content);
-        message.setAny(e);
+        message.setAny(content);
 
         // Set holders message
         messageHolderType.setMessage(message);
@@ -341,17 +405,12 @@ public class WSNTools {
     public static Element buildGenericContentElement(String wrapper_element_name, String content) {
 
         // create message content
-        try {
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
-            Element element = document.createElement(wrapper_element_name);
-            element.setTextContent(content);
-            return element;
-        } catch (ParserConfigurationException e) {
-            log.error("Invalid parser configuration, unknown reason: " + e.getMessage());
-        }
-
-        return null;
+        DocumentBuilder builder = documentBuilder.get();
+        if (builder == null) return null;
+        Document document = builder.newDocument();
+        Element element = document.createElement(wrapper_element_name);
+        element.setTextContent(content);
+        return element;
     }
 
     /**
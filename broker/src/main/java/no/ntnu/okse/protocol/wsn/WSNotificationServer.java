@@ -29,10 +29,12 @@ import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.protocol.AbstractProtocolServer;
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.InputStreamContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
@@ -60,9 +62,8 @@ import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WSNotificationServer extends AbstractProtocolServer {
 
@@ -76,6 +77,9 @@ public class WSNotificationServer extends AbstractProtocolServer {
     private static final String DEFAULT_HOST = "0.0.0.0";
     private static final int DEFAULT_PORT = 61000;
     private static final String DEFAULT_MESSAGE_CONTENT_WRAPPER_NAME = "Content";
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_DESTINATION = 8;
+    private static final int DEFAULT_MAX_QUEUED_PER_DESTINATION = 1024;
+    private static final long DEFAULT_MAX_REQUEST_SIZE = 32 * 1024 * 1024;
 
     // Flag and defaults for operation behind NAT
     private boolean behindNAT;
@@ -84,7 +88,12 @@ public class WSNotificationServer extends AbstractProtocolServer {
 
     // HTTP Client fields
     private Long connectionTimeout;
-    private Integer clientPoolSize;
+    private Integer maxInFlightPerDestination;
+    private Integer maxQueuedPerDestination;
+
+    // The largest request body accepted by the server, in bytes
+    private long maxRequestSize;
+    private final AtomicInteger inFlightRequests = new AtomicInteger(0);
 
     // Non-XMl Content Wrapper Name
     private String contentWrapperElementName;
@@ -96,7 +105,6 @@ public class WSNotificationServer extends AbstractProtocolServer {
     private final ArrayList<Connector> _connectors = new ArrayList();
     private HttpClient _client;
     private HashSet<ServiceConnection> _services;
-    private ExecutorService clientPool;
     private TreeSet<String> relays = new TreeSet<>();
 
     /**
@@ -107,7 +115,7 @@ public class WSNotificationServer extends AbstractProtocolServer {
      * @param host A String representing the host the WSNServer should bind to
      * @param port An int representing the port the WSNServer should bind to.
      * @param timeout A Long
-     * @param pool_size An int
+     * @param pool_size Not used, notifications are sent asynchronously by the HttpClient
      * @param wrapper_name A String
      * @param nat A boolean
      * @param wan_host A string
@@ -117,14 +125,42 @@ public class WSNotificationServer extends AbstractProtocolServer {
             String host, int port, Long timeout,
             int pool_size, String wrapper_name,
             boolean nat, String wan_host, int wan_port) {
+        this(host, port, timeout, pool_size, wrapper_name, nat, wan_host, wan_port,
+                DEFAULT_MAX_IN_FLIGHT_PER_DESTINATION, DEFAULT_MAX_QUEUED_PER_DESTINATION, DEFAULT_MAX_REQUEST_SIZE);
+    }
+
+    /**
+     * Constructor that takes in configuration options for the WSNotification
+     * server, including the limits on asynchronous notification delivery.
+     * <p>
+     *
+     * @param host A String representing the host the WSNServer should bind to
+     * @param port An int representing the port the WSNServer should bind to.
+     * @param timeout A Long
+     * @param pool_size Not used, notifications are sent asynchronously by the HttpClient
+     * @param wrapper_name A String
+     * @param nat A boolean
+     * @param wan_host A string
+     * @param wan_port An int
+     * @param max_in_flight The maximum number of concurrent requests (and connections) per consumer endpoint
+     * @param max_queued The maximum number of requests waiting for a connection per consumer endpoint
+     * @param max_request_size The largest request body accepted, in bytes
+     */
+    public WSNotificationServer(
+            String host, int port, Long timeout,
+            int pool_size, String wrapper_name,
+            boolean nat, String wan_host, int wan_port,
+            int max_in_flight, int max_queued, long max_request_size) {
         this.host = host;
         this.port = port;
         connectionTimeout = timeout;
-        clientPoolSize = pool_size;
         contentWrapperElementName = wrapper_name;
         behindNAT = nat;
         publicWANHost = wan_host;
         publicWANPort = wan_port;
+        maxInFlightPerDestination = max_in_flight;
+        maxQueuedPerDestination = max_queued;
+        maxRequestSize = max_request_size;
         log = Logger.getLogger(WSNotificationServer.class.getName());
         init();
     }
@@ -142,8 +178,6 @@ public class WSNotificationServer extends AbstractProtocolServer {
         // Declare HttpClient field
         _client = null;
 
-        clientPool = Executors.newFixedThreadPool(clientPoolSize);
-
         if (contentWrapperElementName.contains("<") || contentWrapperElementName.contains(">")) {
             log.warn("Non-XML message payload element wrapper name cannot contain XML element characters (< or >)," +
                     " using default: " + DEFAULT_MESSAGE_CONTENT_WRAPPER_NAME);
@@ -196,12 +230,7 @@ public class WSNotificationServer extends AbstractProtocolServer {
 
         if (!_running) {
             try {
-                // Initialize a plain HttpClient
-                this._client = new HttpClient();
-                // Turn off following HTTP 30x redirects for the client
-                this._client.setFollowRedirects(false);
-                this._client.start();
-                log.info("Started WSNServer HTTPClient");
+                startHttpClient();
 
                 // For all registered connectors in WSNotificationServer, add these to the Jetty Server
                 this._connectors.stream().forEach(c -> this._server.addConnector(c));
@@ -277,6 +306,24 @@ public class WSNotificationServer extends AbstractProtocolServer {
         return _services;
     }
 
+    /**
+     * Initializes and starts the HttpClient used to deliver notifications to consumers
+     *
+     * @throws Exception If the client could not be started
+     */
+    void startHttpClient() throws Exception {
+        // Initialize a plain HttpClient
+        this._client = new HttpClient();
+        // Turn off following HTTP 30x redirects for the client
+        this._client.setFollowRedirects(false);
+        // Cap the concurrent requests per consumer endpoint. Connections are kept alive and reused,
+        // and requests beyond the cap wait in the destination queue until a connection is free.
+        this._client.setMaxConnectionsPerDestination(maxInFlightPerDestination);
+        this._client.setMaxRequestsQueuedPerDestination(maxQueuedPerDestination);
+        this._client.start();
+        log.info("Started WSNServer HTTPClient");
+    }
+
     /**
      * This method stops the execution of the WSNotificationServer instance.
      */
@@ -284,17 +331,18 @@ public class WSNotificationServer extends AbstractProtocolServer {
     public void stopServer() {
         try {
             log.info("Stopping WSNServer...");
-            // Removing all subscribers
-            _commandProxy.getAllRecipients().forEach(s -> {
-                _commandProxy.getProxySubscriptionManager().removeSubscriber(s);
-            });
-            // Removing all publishers
-            _commandProxy.getProxyRegistrationManager().getAllPublishers().forEach(p -> {
-                _commandProxy.getProxyRegistrationManager().removePublisher(p);
-            });
+            // The command proxy and client are only set up once the server has been booted
+            if (_commandProxy != null) {
+                // Removing all subscribers
+                _commandProxy.getProxySubscriptionManager().removeAllSubscribers();
+                // Removing all publishers
+                _commandProxy.getProxyRegistrationManager().getAllPublishers().forEach(p -> {
+                    _commandProxy.getProxyRegistrationManager().removePublisher(p);
+                });
+            }
 
             // Stop the HTTP Client
-            this._client.stop();
+            if (this._client != null) this._client.stop();
             // Stop the ServerConnector
             this._server.stop();
             this._serverThread = null;
@@ -340,105 +388,76 @@ public class WSNotificationServer extends AbstractProtocolServer {
         if (!message.getOriginProtocol().equals(protocolServerType) || message.getAttribute("duplicate") != null) {
             log.debug("The message originated from other protocol than WSNotification");
 
-            WSNTools.NotifyWithContext notifywrapper = WSNTools.buildNotifyWithContext(getMessageContentWrapperElementName(), message.getMessage(), message.getTopic(), null, null);
-            // If it contained XML, we need to create properly marshalled jaxb node structure
-            if (message.getMessage().contains("<") || message.getMessage().contains(">")) {
-                // Unmarshal from raw XML
-                Notify notify = WSNTools.createNotify(message);
-                // If it was malformed, or maybe just a message containing < or >, build it as generic content element
-                if (notify == null) {
-                    WSNTools.injectMessageContentIntoNotify(WSNTools.buildGenericContentElement(getMessageContentWrapperElementName(), message.getMessage()), notifywrapper.notify);
-                    // Else inject the unmarshalled XML nodes into the Notify message attribute
-                } else {
-                    WSNTools.injectMessageContentIntoNotify(WSNTools.extractMessageContentFromNotify(notify), notifywrapper.notify);
-                }
-            }
+            // The content tree is shared by every copy of the message and by GetCurrentMessage requests, and a DOM
+            // tree can not be read by several threads at once, so it is locked while it is filtered and marshalled
+            Object messageContent = WSNTools.getMessageContent(message, getMessageContentWrapperElementName());
+            synchronized (messageContent != null ? messageContent : message) {
+                // Build the notify around the message content, which is parsed at most once per message
+                WSNTools.NotifyWithContext notifywrapper = WSNTools.buildNotifyWithContext(messageContent, message.getTopic(), null, null);
 
-            /*
-                Start to resolve recipients. The reason we cannot re-use the WSNCommandProxy's
-                sendNotification method is that it will inject the message to the MessageService for relay
-                thus creating duplicate messages.
-             */
+                /*
+                    Start to resolve recipients. The reason we cannot re-use the WSNCommandProxy's
+                    sendNotification method is that it will inject the message to the MessageService for relay
+                    thus creating duplicate messages.
+                 */
 
-            NuNamespaceContextResolver namespaceContextResolver = notifywrapper.nuNamespaceContextResolver;
+                NuNamespaceContextResolver namespaceContextResolver = notifywrapper.nuNamespaceContextResolver;
 
-            // bind namespaces to topics
-            for (NotificationMessageHolderType holderType : notifywrapper.notify.getNotificationMessage()) {
+                // bind namespaces to topics
+                for (NotificationMessageHolderType holderType : notifywrapper.notify.getNotificationMessage()) {
 
-                // Extract the topic
-                TopicExpressionType topic = holderType.getTopic();
+                    // Extract the topic
+                    TopicExpressionType topic = holderType.getTopic();
 
-                if (holderType.getTopic() != null) {
-                    NuNamespaceContextResolver.NuResolvedNamespaceContext context = namespaceContextResolver.resolveNamespaceContext(topic);
+                    if (holderType.getTopic() != null) {
+                        NuNamespaceContextResolver.NuResolvedNamespaceContext context = namespaceContextResolver.resolveNamespaceContext(topic);
 
-                    if (context == null) {
-                        continue;
-                    }
-
-                    context.getAllPrefixes().forEach(prefix -> {
-                        // check if this is the default xmlns attribute
-                        if (!prefix.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
-                            // add namespace context to the expression node
-                            topic.getOtherAttributes().put(new QName("xmlns:" + prefix), context.getNamespaceURI(prefix));
+                        if (context == null) {
+                            continue;
                         }
-                    });
-                }
-            }
 
-            // For all valid recipients
-            for (String recipient : _commandProxy.getAllRecipients()) {
-
-                // If the subscription has expired, continue
-                if (_commandProxy.getProxySubscriptionManager().getSubscriber(recipient).hasExpired()) continue;
-
-                // Filter do filter handling, if any
-                Notify toSend = _commandProxy.getRecipientFilteredNotify(recipient, notifywrapper.notify, namespaceContextResolver);
-
-                // If any message was left to send, send it
-                if (toSend != null) {
-                    InternalMessage outMessage = new InternalMessage(
-                            InternalMessage.STATUS_OK |
-                                    InternalMessage.STATUS_HAS_MESSAGE |
-                                    InternalMessage.STATUS_ENDPOINTREF_IS_SET,
-                            toSend
-                    );
-                    // Update the requestinformation
-                    outMessage.getRequestInformation().setEndpointReference(_commandProxy.getEndpointReferenceOfRecipient(recipient));
-
-                    // Check if the subscriber has requested raw message format
-                    // If the recipient has requested UseRaw, remove Notify payload wrapping
-                    if (_commandProxy
-                            .getProxySubscriptionManager()
-                            .getSubscriber(recipient)
-                            .getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null) {
-
-                        Object content = WSNTools.extractMessageContentFromNotify(toSend);
-                        // Update the InternalMessage with the content of the NotificationMessage
-                        outMessage.setMessage(content);
+                        context.getAllPrefixes().forEach(prefix -> {
+                            // check if this is the default xmlns attribute
+                            if (!prefix.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+                                // add namespace context to the expression node
+                                topic.getOtherAttributes().put(new QName("xmlns:" + prefix), context.getNamespaceURI(prefix));
+                            }
+                        });
                     }
+                }
 
-                    // Use the correct SOAP version for this subscriber
-                    Subscriber subscriber =_commandProxy.getProxySubscriptionManager().getSubscriber(recipient);
-                    String version = subscriber.getAttribute("soap_version");
-                    if(version == null) {
-                        outMessage.setVersion(Soap.SoapVersion.SOAP_1_1);
-                    } else {
-                        switch(version) {
-                            default:
-                            case "soap11":
-                                outMessage.setVersion(Soap.SoapVersion.SOAP_1_1);
-                                break;
-                            case "soap12D":
-                                outMessage.setVersion(Soap.SoapVersion.SOAP_1_2_2001);
-                                break;
-                            case "soap12F":
-                                outMessage.setVersion(Soap.SoapVersion.SOAP_1_2_2003);
-                                break;
+                // Results of each distinct filter set for this message, and the envelopes shared by recipients
+                HashMap<WSNFilterEvaluator, Notify> evaluated = new HashMap<>();
+                WSNEnvelopeCache envelopes = new WSNEnvelopeCache();
+
+                // For all recipients subscribed to the message topic, or to no concrete topic
+                for (String recipient : _commandProxy.getCandidateRecipients(Collections.singleton(message.getTopic()))) {
+
+                    Subscriber subscriber = _commandProxy.getProxySubscriptionManager().getSubscriber(recipient);
+
+                    // If the subscription has been removed or has expired, continue
+                    if (subscriber == null || subscriber.hasExpired()) continue;
+
+                    // Filter do filter handling, if any
+                    Notify toSend = _commandProxy.getRecipientFilteredNotify(recipient, notifywrapper.notify, namespaceContextResolver, evaluated);
+
+                    // If any message was left to send, send it
+                    if (toSend != null) {
+                        Object content = toSend;
+
+                        // Check if the subscriber has requested raw message format
+                        // If the recipient has requested UseRaw, remove Notify payload wrapping
+                        if (subscriber.getAttribute(WSNSubscriptionManager.WSN_USERAW_TOKEN) != null) {
+                            content = WSNTools.extractMessageContentFromNotify(toSend);
                         }
-                    }
 
-                    // Pass it along to the request parser wrapped as a thread pool executed job
-                    clientPool.execute(() -> _requestParser.acceptLocalMessage(outMessage));
+                        // Use the correct SOAP version for this subscriber, and share the envelope with
+                        // every other recipient of the same content and version
+                        WSNEnvelopeCache.SerializedEnvelope envelope = envelopes.getEnvelope(
+                                content, WSNEnvelopeCache.parseSoapVersion(subscriber.getAttribute("soap_version")));
+
+                        sendEnvelope(_commandProxy.getEndpointReferenceOfRecipient(recipient), envelope);
+                    }
                 }
             }
         } else {
@@ -543,8 +562,61 @@ public class WSNotificationServer extends AbstractProtocolServer {
         return this._requestParser;
     }
 
+    /**
+     * An InputStream that fails once more than a set number of bytes have been read from it, so request
+     * bodies of unknown length can be streamed without reading an unbounded amount of data.
+     */
+    static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+        private boolean limitExceeded;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long read) throws IOException {
+            count += read;
+            if (count > limit) {
+                limitExceeded = true;
+                throw new IOException("Request body exceeds the limit of " + limit + " bytes");
+            }
+        }
+
+        boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+    }
+
     // This is the HTTP Handler that the WSNServer uses to process all incoming requests
-    private class HttpHandler extends AbstractHandler {
+    class HttpHandler extends AbstractHandler {
 
         @Override
         public void handle(String target, Request baseRequest, HttpServletRequest request,
@@ -555,42 +627,27 @@ public class WSNotificationServer extends AbstractProtocolServer {
             // Do some stats.
             totalRequests.incrementAndGet();
 
-            boolean isChunked = false;
-
-            Enumeration headerNames = request.getHeaderNames();
-
-            log.debug("Checking headers...");
+            // Check for chunked encoding
+            boolean isChunked = "chunked".equalsIgnoreCase(request.getHeader("Transfer-Encoding"));
 
-            // Check the request headers, check for chunked encoding
-            while (headerNames.hasMoreElements()) {
-                String outMessage = (String) headerNames.nextElement();
-                Enumeration returnMessage = request.getHeaders(outMessage);
-
-                while (returnMessage.hasMoreElements()) {
-                    String inputStream = (String) returnMessage.nextElement();
-                    if (outMessage.equals("Transfer-Encoding") && inputStream.equals("chunked")) {
-                        log.debug("Found Transfer-Encoding was chunked.");
-                        isChunked = true;
-                    }
-                }
+            // Reject requests that announce a body larger than we accept
+            if (request.getContentLength() > maxRequestSize) {
+                log.warn("Rejected request of " + request.getContentLength() + " bytes, the limit is " + maxRequestSize);
+                response.setStatus(HttpStatus.REQUEST_ENTITY_TOO_LARGE_413);
+                baseRequest.setHandled(true);
+                totalBadRequests.incrementAndGet();
+                return;
             }
 
             log.debug("Accepted message, trying to instantiate WSNu InternalMessage");
 
-            // Get message content, if any
+            // Get message content, if any. The body is streamed straight into the parser, whether it is
+            // chunked or not, and the size of chunked bodies is checked as they are read.
             InternalMessage outgoingMessage;
-            if (request.getContentLength() > 0) {
-                InputStream inputStream = request.getInputStream();
-                outgoingMessage = new InternalMessage(InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE, inputStream);
-            } else if (isChunked) {
-                InputStream chunkedInputStream = request.getInputStream();
-                StringWriter swriter = new StringWriter();
-                IOUtils.copy(chunkedInputStream, swriter);
-                String rawRequest = swriter.toString();
-                log.debug(rawRequest);
-                outgoingMessage = new InternalMessage(
-                        InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE,
-                        new ByteArrayInputStream(rawRequest.getBytes()));
+            LimitedInputStream requestBody = null;
+            if (request.getContentLength() > 0 || isChunked) {
+                requestBody = new LimitedInputStream(request.getInputStream(), maxRequestSize);
+                outgoingMessage = new InternalMessage(InternalMessage.STATUS_OK | InternalMessage.STATUS_HAS_MESSAGE, requestBody);
             } else {
                 outgoingMessage = new InternalMessage(InternalMessage.STATUS_OK, null);
             }
@@ -608,15 +665,28 @@ public class WSNotificationServer extends AbstractProtocolServer {
             log.debug("Forwarding message to requestParser...");
 
             // Push the outgoingMessage to the request parser. Based on the status flags of the return message
-            // we should know what has happened, and which response we should send.
+            // we should know what has happened, and which response we should send. Anything the parser writes
+            // is buffered, so the response is not committed before we know the body was within the limit.
             InternalMessage returnMessage = null;
+            ByteArrayOutputStream parserOutput = new ByteArrayOutputStream();
             try {
-                returnMessage = WSNotificationServer.this._requestParser.parseMessage(outgoingMessage, response.getOutputStream());
+                returnMessage = WSNotificationServer.this._requestParser.parseMessage(outgoingMessage, parserOutput);
             } catch (Exception e) {
                 log.error("Uncaught exception: " + e.getMessage());
                 log.trace(e.getStackTrace());
             }
 
+            // A chunked body that grew past the limit was cut off during parsing
+            if (requestBody != null && requestBody.isLimitExceeded()) {
+                log.warn("Rejected chunked request larger than the limit of " + maxRequestSize + " bytes");
+                response.setStatus(HttpStatus.REQUEST_ENTITY_TOO_LARGE_413);
+                baseRequest.setHandled(true);
+                totalBadRequests.incrementAndGet();
+                return;
+            }
+
+            if (parserOutput.size() > 0) parserOutput.writeTo(response.getOutputStream());
+
             // Improper response from WSNRequestParser! FC WHAT DO?
             if (returnMessage == null) {
                 response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
@@ -823,6 +893,78 @@ public class WSNotificationServer extends AbstractProtocolServer {
         }
     }
 
+    /**
+     * Sends a pre-serialized SOAP envelope to a recipient asynchronously. The envelope has already been
+     * marshalled by the distributing thread, and its bytes are reused for every other recipient sharing it.
+     * The request is handed straight to the HttpClient, which does not block, so requests beyond the
+     * per-destination limits are rejected by the client instead of queueing up in the broker. The response
+     * is handled in a completion callback that updates the statistics, so slow or dead consumers only occupy
+     * their own connections, and not the threads delivering to others.
+     *
+     * @param endpoint The endpoint reference of the recipient
+     * @param envelope The shared envelope to send
+     */
+    public void sendEnvelope(String endpoint, WSNEnvelopeCache.SerializedEnvelope envelope) {
+        byte[] bytes = envelope.getBytes();
+        if (bytes == null) {
+            totalErrors.incrementAndGet();
+            return;
+        }
+        sendAsync(endpoint, new BytesContentProvider(bytes));
+    }
+
+    /**
+     * Posts content to an endpoint asynchronously, updating the statistics when the request completes
+     *
+     * @param endpoint The endpoint reference of the recipient
+     * @param content  The content of the request
+     */
+    private void sendAsync(String endpoint, ContentProvider content) {
+
+        /* If we have nowhere to send the message */
+        if (endpoint == null) {
+            log.error("Endpoint reference not set");
+            totalErrors.incrementAndGet();
+            return;
+        }
+
+        try {
+            org.eclipse.jetty.client.api.Request request = _client.newRequest(endpoint)
+                    .method(HttpMethod.POST)
+                    .timeout(connectionTimeout, TimeUnit.SECONDS)
+                    .content(content, "application/soap+xml; charset=utf-8");
+
+            log.debug("Sending message with content to " + endpoint);
+            inFlightRequests.incrementAndGet();
+            request.send((Result result) -> {
+                inFlightRequests.decrementAndGet();
+                if (result.isFailed()) {
+                    totalErrors.incrementAndGet();
+                    log.error("sendAsync(): Unable to deliver message to " + endpoint + ": " +
+                            result.getFailure().getMessage());
+                    return;
+                }
+                totalMessagesSent.incrementAndGet();
+                if (!HttpStatus.isSuccess(result.getResponse().getStatus())) {
+                    totalBadRequests.incrementAndGet();
+                    log.debug("Consumer " + endpoint + " responded with status " + result.getResponse().getStatus());
+                }
+            });
+        } catch (Exception e) {
+            totalErrors.incrementAndGet();
+            log.error("sendAsync(): Unable to create request to " + endpoint + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetches the number of notifications that have been sent but not yet answered
+     *
+     * @return The number of requests in flight
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
     public boolean addRelay(String relay, String host, Integer port, String topic, Soap.SoapVersion version) {
         final Set<String> localRelays = new HashSet<String>() {{
             add("127.0.0.1");
@@ -92,7 +92,7 @@ public class ConfigController {
     @ResponseBody
     HashMap<String, Object> getAllInfo() {
         TopicService ts = TopicService.getInstance();
-        HashMap<String, HashSet<String>> allMappings = ts.getAllMappings();
+        Map<String, Set<String>> allMappings = ts.getAllMappings();
 
         HashMap<String, Object> result = new HashMap<String, Object>() {{
             put("mappings", allMappings);
@@ -109,7 +109,7 @@ public class ConfigController {
     @RequestMapping(method = RequestMethod.GET, value = GET_ALL_MAPPINGS)
     public
     @ResponseBody
-    HashMap<String, HashSet<String>> getAllMappings() {
+    Map<String, Set<String>> getAllMappings() {
         TopicService ts = TopicService.getInstance();
         return ts.getAllMappings();
     }
@@ -127,8 +127,10 @@ public class ConfigController {
     ResponseEntity<String> addMapping(@RequestParam(value = "fromTopic") String topic, @RequestParam(value = "toTopic") String newTopic) {
         log.debug("Adding a mapping between Topic{" + topic + "} and Topic{" + newTopic + "}");
         TopicService ts = TopicService.getInstance();
-        ts.addMappingBetweenTopics(topic, newTopic);
         // TODO: We probably need to add some check somewhere, that checks if the input string is correct.
+        if (!ts.addMappingBetweenTopics(topic, newTopic)) {
+            return new ResponseEntity<String>("{ \"message\" :\"The mapping from Topic{" + topic + "} to Topic{ " + newTopic + " } would create a cycle\" }", HttpStatus.BAD_REQUEST);
+        }
 
         return new ResponseEntity<String>("{ \"message\" :\"Added mapping from Topic{" + topic + "} to Topic{ " + newTopic + " }\" }", HttpStatus.OK);
     }
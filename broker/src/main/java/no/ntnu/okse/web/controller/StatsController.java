@@ -25,9 +25,13 @@
 package no.ntnu.okse.web.controller;
 
 import no.ntnu.okse.core.CoreService;
+import no.ntnu.okse.core.messaging.MessageService;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import no.ntnu.okse.core.topic.TopicService;
 import no.ntnu.okse.protocol.ProtocolServer;
+import no.ntnu.okse.protocol.amqp.AMQProtocolServer;
+import no.ntnu.okse.protocol.stomp.STOMPProtocolServer;
+import no.ntnu.okse.protocol.wsn.WSNotificationServer;
 import no.ntnu.okse.web.model.ProtocolStats;
 import org.apache.log4j.Logger;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -60,6 +64,7 @@ public class StatsController {
         CoreService cs = CoreService.getInstance();
         SubscriptionService ss = SubscriptionService.getInstance();
         TopicService ts = TopicService.getInstance();
+        MessageService ms = MessageService.getInstance();
 
         HashMap<String, Object> result = new HashMap<>();
 
@@ -75,6 +80,12 @@ public class StatsController {
             put("topics", ts.getTotalNumberOfTopics());
         }});
 
+        // MessageService statistics
+        result.put("messageServiceStatistics", new HashMap<String, Object>() {{
+            put("queuedMessages", ms.getTotalQueueDepth());
+            put("shardQueueDepths", ms.getShardQueueDepths());
+        }});
+
         // ProtocolServer statistics
         ArrayList<ProtocolServer> protocols = cs.getAllProtocolServers();
         ArrayList<ProtocolStats> protocolStats = new ArrayList<>();
@@ -91,6 +102,38 @@ public class StatsController {
         });
         result.put("protocolServerStatistics", protocolStats);
 
+        // Notifications sent by the WSNotification servers that have not yet been answered by the consumers
+        result.put("wsnInFlightRequests", protocols.stream()
+                .filter(p -> p instanceof WSNotificationServer)
+                .mapToInt(p -> ((WSNotificationServer) p).getInFlightRequests())
+                .sum());
+
+        // Messages waiting for each AMQP sender link, and messages discarded because a consumer could not keep up
+        HashMap<String, Integer> amqpQueueDepths = new HashMap<>();
+        protocols.stream()
+                .filter(p -> p instanceof AMQProtocolServer)
+                .forEach(p -> amqpQueueDepths.putAll(((AMQProtocolServer) p).getOutboundQueueDepths()));
+        result.put("amqpServerStatistics", new HashMap<String, Object>() {{
+            put("outboundQueueDepths", amqpQueueDepths);
+            put("droppedMessages", protocols.stream()
+                    .filter(p -> p instanceof AMQProtocolServer)
+                    .mapToLong(p -> ((AMQProtocolServer) p).getTotalDroppedMessages())
+                    .sum());
+        }});
+
+        // Bytes buffered for each STOMP connection, and frames discarded because a consumer could not keep up
+        HashMap<String, Long> stompBufferedBytes = new HashMap<>();
+        protocols.stream()
+                .filter(p -> p instanceof STOMPProtocolServer)
+                .forEach(p -> stompBufferedBytes.putAll(((STOMPProtocolServer) p).getBufferedBytes()));
+        result.put("stompServerStatistics", new HashMap<String, Object>() {{
+            put("bufferedBytes", stompBufferedBytes);
+            put("droppedMessages", protocols.stream()
+                    .filter(p -> p instanceof STOMPProtocolServer)
+                    .mapToLong(p -> ((STOMPProtocolServer) p).getTotalMessagesDropped())
+                    .sum());
+        }});
+
         return result;
     }
 }
@@ -30,8 +30,8 @@ import org.apache.log4j.Logger;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @RestController
@@ -56,7 +56,7 @@ public class SubscriberController {
     @ResponseBody
     List<Subscriber> getAllSubscribers() {
         SubscriptionService ss = SubscriptionService.getInstance();
-        HashSet<Subscriber> allSubscribers = ss.getAllSubscribers(); // TODO: Sort this lexicographically on topic
+        Set<Subscriber> allSubscribers = ss.getAllSubscribers(); // TODO: Sort this lexicographically on topic
         List<Subscriber> listToSort = new ArrayList<>(allSubscribers).stream()
                 .sorted((s1, s2) -> { // Null-safe compare operator
                     if (s1.getTopic() == null ^ s2.getTopic() == null) {
@@ -100,8 +100,8 @@ public class SubscriberController {
     @ResponseBody
     String deleteAllSubscribers() {
         SubscriptionService ss = SubscriptionService.getInstance();
-        HashSet<Subscriber> allSubscribers = ss.getAllSubscribers();
-        allSubscribers.stream().forEach(s -> ss.removeSubscriber(s));
+        Set<Subscriber> allSubscribers = ss.getAllSubscribers();
+        ss.removeSubscribers(allSubscribers);
         return "{ \"deleted\" :true }";
     }
 
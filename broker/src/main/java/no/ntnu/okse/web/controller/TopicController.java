@@ -32,8 +32,8 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/topic")
@@ -56,7 +56,7 @@ public class TopicController {
     List<HashMap<String, Object>> getAlltopics() {
         TopicService ts = TopicService.getInstance();
         SubscriptionService ss = SubscriptionService.getInstance();
-        HashSet<Topic> allTopics = ts.getAllTopics();
+        Set<Topic> allTopics = ts.getAllTopics();
 
         List<HashMap<String, Object>> results = new ArrayList<>();
 
@@ -86,7 +86,7 @@ public class TopicController {
     String deleteAllTopics() {
         log.info("Deleting all topics");
         TopicService ts = TopicService.getInstance();
-        HashSet<Topic> allRootTopics = ts.getAllRootTopics();
+        Set<Topic> allRootTopics = ts.getAllRootTopics();
         allRootTopics.forEach(t -> ts.deleteTopic(t.getFullTopicString()));
 
         return "{ \"messages\" :\"The topic were successfully deleted\" }";
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class VersionedSnapshotTest {
+
+    HashSet<String> registry;
+    int builds;
+    VersionedSnapshot<Set<String>> snapshot;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        registry = new HashSet<>();
+        builds = 0;
+        snapshot = new VersionedSnapshot<>(() -> {
+            builds++;
+            return Collections.unmodifiableSet(new HashSet<>(registry));
+        });
+    }
+
+    @Test
+    public void testGetIsSharedUntilInvalidated() throws Exception {
+        registry.add("a");
+        Set<String> first = snapshot.get();
+        assertSame(snapshot.get(), first);
+        assertEquals(builds, 1);
+
+        registry.add("b");
+        snapshot.invalidate();
+        Set<String> second = snapshot.get();
+        assertNotSame(second, first);
+        assertEquals(builds, 2);
+        assertTrue(second.contains("b"));
+        assertFalse(first.contains("b"));
+    }
+
+    @Test
+    public void testGetVersion() throws Exception {
+        long version = snapshot.getVersion();
+        snapshot.invalidate();
+        snapshot.invalidate();
+        assertEquals(snapshot.getVersion(), version + 2);
+    }
+}
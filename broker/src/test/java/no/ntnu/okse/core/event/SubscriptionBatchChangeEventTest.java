@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.event;
+
+import no.ntnu.okse.core.event.listeners.SubscriptionChangeListener;
+import no.ntnu.okse.core.subscription.Subscriber;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+public class SubscriptionBatchChangeEventTest {
+
+    Subscriber s1;
+    Subscriber s2;
+    SubscriptionBatchChangeEvent sbce;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        s1 = new Subscriber("0.0.0.0", 8080, "topic", "Test");
+        s2 = new Subscriber("0.0.0.0", 8081, "topic", "Test");
+        sbce = new SubscriptionBatchChangeEvent(SubscriptionChangeEvent.Type.UNSUBSCRIBE, Arrays.asList(s1, s2));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        s1 = null;
+        s2 = null;
+        sbce = null;
+    }
+
+    @Test
+    public void testGetData() throws Exception {
+        assertNotNull(sbce.getData());
+        assertEquals(sbce.getData().size(), 2);
+        assertSame(sbce.getData().get(0), s1);
+        assertSame(sbce.getData().get(1), s2);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testGetDataIsReadOnly() throws Exception {
+        sbce.getData().clear();
+    }
+
+    @Test
+    public void testGetType() throws Exception {
+        assertEquals(sbce.getType(), SubscriptionChangeEvent.Type.UNSUBSCRIBE);
+    }
+
+    @Test
+    public void testDefaultListenerFansOut() throws Exception {
+        ArrayList<SubscriptionChangeEvent> received = new ArrayList<>();
+        SubscriptionChangeListener listener = received::add;
+
+        listener.subscriptionsChanged(sbce);
+
+        assertEquals(received.size(), 2);
+        assertSame(received.get(0).getData(), s1);
+        assertSame(received.get(1).getData(), s2);
+        assertEquals(received.get(1).getType(), SubscriptionChangeEvent.Type.UNSUBSCRIBE);
+    }
+}
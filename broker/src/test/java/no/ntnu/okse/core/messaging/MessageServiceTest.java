@@ -25,13 +25,24 @@
 package no.ntnu.okse.core.messaging;
 
 import no.ntnu.okse.Application;
+import no.ntnu.okse.core.AbstractCoreService;
+import no.ntnu.okse.core.CoreService;
 import no.ntnu.okse.core.topic.Topic;
+import no.ntnu.okse.core.topic.TopicService;
+import no.ntnu.okse.protocol.ProtocolServer;
+import org.mockito.Mockito;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.*;
 
@@ -69,4 +80,195 @@ public class MessageServiceTest {
         });
         assertEquals(generated.size(), 2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGenerateMappedMessages() throws Exception {
+        Message msg = new Message("message", "origTopic", null, "Test");
+        List<Message> generated = m.generateMappedMessages(msg, Arrays.asList("test", "test2"));
+
+        assertEquals(generated.size(), 2);
+        assertEquals(generated.get(0).getTopic(), "test");
+        assertEquals(generated.get(1).getTopic(), "test2");
+        generated.forEach(genMsg -> {
+            assertNotSame(genMsg, msg);
+            assertSame(genMsg.getMessage(), msg.getMessage());
+        });
+    }
+
+    /**
+     * Creates a standalone MessageService with a single queue shard, and starts its dispatcher
+     */
+    private MessageService startService(int capacity) throws Exception {
+        return startService(1, capacity);
+    }
+
+    /**
+     * Creates a standalone MessageService with the given number of queue shards, and starts its dispatchers
+     */
+    private MessageService startService(int workers, int capacity) throws Exception {
+        MessageService service = new MessageService(workers, capacity);
+        Field running = AbstractCoreService.class.getDeclaredField("_running");
+        running.setAccessible(true);
+        running.set(service, true);
+        service.startDispatchers();
+        return service;
+    }
+
+    @Test
+    public void testBackpressureHysteresis() throws Exception {
+        // With a capacity of 8, the high-water mark is 6 and the low-water mark is 2
+        MessageService service = startService(8);
+        LinkedBlockingQueue<Boolean> changes = new LinkedBlockingQueue<>();
+        service.addBackpressureListener(changes::add);
+
+        // A protocol server that blocks the dispatcher on every message until it is given a permit
+        Semaphore entered = new Semaphore(0);
+        Semaphore permits = new Semaphore(0);
+        ProtocolServer server = Mockito.mock(ProtocolServer.class);
+        Mockito.doAnswer(invocation -> {
+            entered.release();
+            permits.acquire();
+            return null;
+        }).when(server).sendMessage(Mockito.any(Message.class));
+        CoreService.getInstance().addProtocolServer(server);
+
+        try {
+            service.distributeMessage(new Message("0", "topic", null, "Test"));
+            assertTrue(entered.tryAcquire(5, TimeUnit.SECONDS));
+
+            for (int i = 1; i < 6; i++) service.distributeMessage(new Message(Integer.toString(i), "topic", null, "Test"));
+            assertEquals(service.getTotalQueueDepth(), 5);
+            assertFalse(service.isOverloaded());
+            assertTrue(changes.isEmpty());
+
+            service.distributeMessage(new Message("6", "topic", null, "Test"));
+            assertTrue(service.isOverloaded());
+            assertEquals(changes.poll(), Boolean.TRUE);
+
+            // Backpressure is kept while the queue drains, until it reaches the low-water mark
+            for (int depth = 5; depth > 2; depth--) {
+                permits.release();
+                assertTrue(entered.tryAcquire(5, TimeUnit.SECONDS));
+                assertEquals(service.getTotalQueueDepth(), depth);
+                assertTrue(service.isOverloaded());
+                assertTrue(changes.isEmpty());
+            }
+
+            permits.release();
+            assertTrue(entered.tryAcquire(5, TimeUnit.SECONDS));
+            assertEquals(service.getTotalQueueDepth(), 2);
+            assertFalse(service.isOverloaded());
+            assertEquals(changes.poll(), Boolean.FALSE);
+            assertTrue(changes.isEmpty());
+        } finally {
+            permits.release(100);
+            service.stop();
+            CoreService.getInstance().removeProtocolServer(server);
+        }
+    }
+
+    @Test
+    public void testBackpressureIsReleasedWhenQueuesDrainBeforeItIsApplied() throws Exception {
+        // Publishers flag the overload after their put, so the dispatcher may drain the queue before the flag is
+        // set. Concurrent bursts of exactly the high-water mark make that likely, and once a burst has been
+        // dispatched nothing more arrives, so the backpressure must have been released by then.
+        MessageService service = startService(4);
+        try {
+            for (int round = 0; round < 500; round++) {
+                ArrayList<Thread> publishers = new ArrayList<>();
+                for (int p = 0; p < 4; p++) {
+                    Thread publisher = new Thread(() -> {
+                        for (int i = 0; i < 3; i++) service.distributeMessage(new Message("message", "topic", null, "Test"));
+                    });
+                    publishers.add(publisher);
+                    publisher.start();
+                }
+                for (Thread publisher : publishers) publisher.join();
+
+                long deadline = System.currentTimeMillis() + 5000;
+                while ((service.isOverloaded() || service.getTotalQueueDepth() > 0) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                assertEquals(service.getTotalQueueDepth(), 0);
+                assertFalse(service.isOverloaded(), "Backpressure was not released after round " + round);
+            }
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testMappedCopiesAreDeliveredByTheShardOfTheirTopic() throws Exception {
+        MessageService service = startService(2, 16);
+        String from = "MappingFrom";
+        String to = null;
+        for (int i = 0; to == null; i++) {
+            if (service.getShardForTopic("MappingTo" + i) != service.getShardForTopic(from)) to = "MappingTo" + i;
+        }
+        final String target = to;
+
+        TopicService ts = TopicService.getInstance();
+        ts.addTopicLocal(new Topic(from, "Default"));
+        ts.addTopicLocal(new Topic(target, "Default"));
+        assertTrue(ts.addMappingBetweenTopics(from, target));
+
+        // Records the dispatcher thread and content of every message delivered on the target topic
+        LinkedBlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+        ProtocolServer server = Mockito.mock(ProtocolServer.class);
+        Mockito.doAnswer(invocation -> {
+            Message message = (Message) invocation.getArguments()[0];
+            if (target.equals(message.getTopic())) {
+                threads.add(Thread.currentThread().getName());
+                delivered.add(message.getMessage());
+            }
+            return null;
+        }).when(server).sendMessage(Mockito.any(Message.class));
+        CoreService.getInstance().addProtocolServer(server);
+
+        try {
+            for (int i = 0; i < 50; i++) {
+                service.distributeMessage(new Message("mapped" + i, from, null, "Test"));
+                service.distributeMessage(new Message("direct" + i, target, null, "Test"));
+            }
+
+            ArrayList<String> received = new ArrayList<>();
+            for (int i = 0; i < 100; i++) received.add(delivered.poll(5, TimeUnit.SECONDS));
+
+            // Both the copies and the messages published on the target topic are delivered by its own dispatcher
+            String dispatcher = "MessageService-Dispatcher-" + service.getShardForTopic(target);
+            threads.forEach(thread -> assertEquals(thread, dispatcher));
+            assertEquals(threads.size(), 100);
+
+            // Each source keeps its order on the target topic
+            int mapped = 0, direct = 0;
+            for (String content : received) {
+                assertNotNull(content);
+                if (content.startsWith("mapped")) assertEquals(content, "mapped" + mapped++);
+                else assertEquals(content, "direct" + direct++);
+            }
+            assertEquals(mapped, 50);
+            assertEquals(direct, 50);
+            assertEquals(service.getTotalQueueDepth(), 0);
+        } finally {
+            service.stop();
+            ts.deleteMapping(from);
+            CoreService.getInstance().removeProtocolServer(server);
+        }
+    }
+
+    @Test
+    public void testGetShardForTopic() throws Exception {
+        assertEquals(m.getShardForTopic(null), 0);
+        assertEquals(m.getShardForTopic("some/topic"), m.getShardForTopic("some/topic"));
+        int shard = m.getShardForTopic("another/topic");
+        assertTrue(shard >= 0 && shard < m.getNumberOfShards());
+    }
+
+    @Test
+    public void testGetShardQueueDepths() throws Exception {
+        List<Integer> depths = m.getShardQueueDepths();
+        assertEquals(depths.size(), m.getNumberOfShards());
+        assertEquals((int) depths.stream().mapToInt(Integer::intValue).sum(), m.getTotalQueueDepth());
+    }
+}
@@ -167,6 +167,44 @@ public class MessageTest {
         assertTrue(m.isSystemMessage());
     }
 
+    @Test
+    public void testGetRepresentation() throws Exception {
+        int[] builds = {0};
+        Object first = m.getRepresentation("test", message -> {
+            builds[0]++;
+            return message.getMessage().length();
+        });
+        Object second = m.getRepresentation("test", message -> {
+            builds[0]++;
+            return 0;
+        });
+        assertEquals(first, second);
+        assertEquals(1, builds[0]);
+
+        m.setRepresentation("other", "value");
+        assertEquals("value", m.getRepresentation("other", message -> null));
+    }
+
+    @Test
+    public void testCreateMappedCopy() throws Exception {
+        m.setSystemMessage(true);
+        m.setAttribute("key", "value");
+        Object representation = m.getRepresentation("test", message -> new Object());
+
+        Message copy = m.createMappedCopy("mapped/topic");
+        assertNotSame(copy, m);
+        assertEquals(copy.getTopic(), "mapped/topic");
+        assertFalse(copy.getMessageID().equals(m.getMessageID()));
+        assertSame(copy.getMessage(), m.getMessage());
+        assertSame(copy.getPublisher(), m.getPublisher());
+        assertEquals(copy.getOriginProtocol(), m.getOriginProtocol());
+        assertTrue(copy.isSystemMessage());
+        assertFalse(copy.isProcessed());
+        // Attributes are per message, while representations of the shared content are shared
+        assertNull(copy.getAttribute("key"));
+        assertSame(copy.getRepresentation("test", message -> new Object()), representation);
+    }
+
     @Test
     public void testToString() throws Exception {
         assertNotNull(m.toString());
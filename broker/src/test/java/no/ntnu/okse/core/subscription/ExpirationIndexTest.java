@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.subscription;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class ExpirationIndexTest {
+
+    ExpirationIndex<String> index;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        index = new ExpirationIndex<>(1000);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        index = null;
+    }
+
+    @Test
+    public void testPollExpired() throws Exception {
+        index.schedule("a", 1500L);
+        index.schedule("b", 1200L);
+        index.schedule("c", 3500L);
+        assertEquals(index.size(), 3);
+
+        // Timeouts are rounded up to the resolution, so nothing is reported before it has expired
+        assertFalse(index.hasExpired(1600));
+        assertTrue(index.pollExpired(2000).isEmpty());
+
+        // Entries sharing a bucket are polled together
+        assertTrue(index.hasExpired(2001));
+        List<String> expired = index.pollExpired(2001);
+        assertEquals(expired.size(), 2);
+        assertTrue(expired.containsAll(Arrays.asList("a", "b")));
+        assertEquals(index.size(), 1);
+        assertEquals(index.nextExpiry(), Long.valueOf(4000));
+
+        assertEquals(index.pollExpired(5000), Arrays.asList("c"));
+        assertEquals(index.size(), 0);
+        assertNull(index.nextExpiry());
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        index.schedule("a", 1500L);
+        // Rescheduling replaces the previous timeout
+        index.schedule("a", 10500L);
+        assertEquals(index.size(), 1);
+        assertTrue(index.pollExpired(5000).isEmpty());
+
+        // A null timeout means the entry never expires
+        index.schedule("a", null);
+        assertEquals(index.size(), 0);
+        assertTrue(index.pollExpired(20000).isEmpty());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        index.schedule("a", 1500L);
+        index.schedule("b", 1500L);
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertEquals(index.pollExpired(3000), Arrays.asList("b"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidResolution() throws Exception {
+        new ExpirationIndex<String>(0);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.core.subscription;
+
+import no.ntnu.okse.core.event.TopicChangeEvent;
+import no.ntnu.okse.core.topic.Topic;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.*;
+
+public class SubscriptionServiceTest {
+
+    SubscriptionService ss = SubscriptionService.getInstance();
+    Topic topic;
+    Subscriber one, two, all;
+    HashSet<Subscriber> added;
+
+    @BeforeClass
+    public void boot() throws Exception {
+        ss.boot();
+    }
+
+    @AfterClass
+    public void stop() throws Exception {
+        ss.stop();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        topic = new Topic("IndexTopic", "Default");
+        one = new Subscriber("localhost", 61001, topic.getFullTopicString(), "Test");
+        two = new Subscriber("localhost", 61002, "IndexOther", "Test");
+        all = new Subscriber("localhost", 61003, null, "Test");
+
+        added = new HashSet<>();
+        added.add(one);
+        added.add(two);
+        added.add(all);
+        ss.addSubscribers(added);
+        waitFor(() -> ss.getAllSubscribers().containsAll(added));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        HashSet<Subscriber> remaining = new HashSet<>(added);
+        remaining.retainAll(ss.getAllSubscribers());
+        ss.removeSubscribers(remaining);
+        waitFor(() -> remaining.stream().noneMatch(s -> ss.getAllSubscribers().contains(s)));
+    }
+
+    @Test
+    public void testGetSubscribersForExactTopic() throws Exception {
+        Set<Subscriber> exact = ss.getSubscribersForExactTopic(topic.getFullTopicString());
+        assertEquals(exact.size(), 1);
+        assertTrue(exact.contains(one));
+
+        assertTrue(ss.getSubscribersForExactTopic("IndexOther").contains(two));
+        assertTrue(ss.getSubscribersForExactTopic("IndexUnknown").isEmpty());
+    }
+
+    @Test
+    public void testSubscribersToAllTopics() throws Exception {
+        // Subscribers without a topic are kept in the bucket returned for null
+        Set<Subscriber> allTopics = ss.getSubscribersForExactTopic(null);
+        assertTrue(allTopics.contains(all));
+        assertFalse(allTopics.contains(one));
+        assertFalse(allTopics.contains(two));
+
+        // They receive messages on every topic, including topics without subscribers of their own
+        Set<Subscriber> forTopic = ss.getAllSubscribersForTopic(topic.getFullTopicString());
+        assertTrue(forTopic.contains(one));
+        assertTrue(forTopic.contains(all));
+        assertFalse(forTopic.contains(two));
+        assertTrue(ss.getAllSubscribersForTopic("IndexUnknown").contains(all));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testTopicIndexIsReadOnly() throws Exception {
+        ss.getAllSubscribersForTopic(topic.getFullTopicString()).clear();
+    }
+
+    @Test
+    public void testRemoveSubscriberCleansTopicIndex() throws Exception {
+        ss.removeSubscriber(one);
+        waitFor(() -> !ss.getAllSubscribers().contains(one));
+        assertTrue(ss.getSubscribersForExactTopic(topic.getFullTopicString()).isEmpty());
+        assertFalse(ss.getAllSubscribersForTopic(topic.getFullTopicString()).contains(one));
+
+        ss.removeSubscriber(all);
+        waitFor(() -> !ss.getAllSubscribers().contains(all));
+        assertFalse(ss.getSubscribersForExactTopic(null).contains(all));
+        assertFalse(ss.getAllSubscribersForTopic("IndexOther").contains(all));
+    }
+
+    @Test
+    public void testExpiredSubscriberIsRemovedFromTopicIndex() throws Exception {
+        Subscriber expiring = new Subscriber("localhost", 61004, topic.getFullTopicString(), "Test");
+        expiring.setTimeout(System.currentTimeMillis() + 100);
+        added.add(expiring);
+        ss.addSubscriber(expiring);
+        waitFor(() -> ss.getAllSubscribers().contains(expiring));
+        assertTrue(ss.getSubscribersForExactTopic(topic.getFullTopicString()).contains(expiring));
+
+        // The periodic purge runs once per second
+        waitFor(() -> !ss.getAllSubscribers().contains(expiring));
+        assertFalse(ss.getSubscribersForExactTopic(topic.getFullTopicString()).contains(expiring));
+        assertTrue(ss.getSubscribersForExactTopic(topic.getFullTopicString()).contains(one));
+    }
+
+    @Test
+    public void testTopicDeleteCleansTopicIndex() throws Exception {
+        ss.topicChanged(new TopicChangeEvent(TopicChangeEvent.Type.DELETE, topic));
+        waitFor(() -> !ss.getAllSubscribers().contains(one));
+        assertTrue(ss.getSubscribersForExactTopic(topic.getFullTopicString()).isEmpty());
+
+        // Subscribers of other topics and of all topics are left alone
+        assertTrue(ss.getAllSubscribers().contains(two));
+        assertTrue(ss.getAllSubscribers().contains(all));
+        assertTrue(ss.getSubscribersForExactTopic(null).contains(all));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the SubscriptionService");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.testng.annotations.Test;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Set;
 
 import static org.testng.Assert.*;
 
@@ -89,16 +90,80 @@ public class TopicServiceTest {
 
     @Test
     public void testAllGetRootTopics() throws Exception {
-        HashSet<Topic> rootTopics = ts.getAllRootTopics();
+        Set<Topic> rootTopics = ts.getAllRootTopics();
         roots.forEach(t -> assertTrue(rootTopics.contains(t)));
     }
 
     @Test
     public void testGetAllTopics() throws Exception {
-        HashSet<Topic> allTopics = ts.getAllTopics();
+        Set<Topic> allTopics = ts.getAllTopics();
         all.forEach(t -> assertTrue(allTopics.contains(t)));
     }
 
+    @Test
+    public void testTopicSnapshotsAreShared() throws Exception {
+        Set<Topic> allTopics = ts.getAllTopics();
+        assertSame(ts.getAllTopics(), allTopics);
+
+        // Adding a topic rebuilds the snapshot, but leaves the old one untouched
+        Topic four = new Topic("Four", "Default");
+        ts.addTopicLocal(four);
+        assertNotSame(ts.getAllTopics(), allTopics);
+        assertTrue(ts.getAllTopics().contains(four));
+        assertFalse(allTopics.contains(four));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testTopicSnapshotIsReadOnly() throws Exception {
+        ts.getAllTopics().clear();
+    }
+
+    @Test
+    public void testGetMappedTopics() throws Exception {
+        assertTrue(ts.getMappedTopics("unmapped/topic").isEmpty());
+
+        ts.addMappingBetweenTopics("mapping/from", "mapping/to");
+        assertTrue(ts.getMappedTopics("mapping/from").contains("mapping/to"));
+        assertSame(ts.getMappedTopics("mapping/from"), ts.getMappedTopics("mapping/from"));
+
+        ts.deleteMapping("mapping/from");
+        assertTrue(ts.getMappedTopics("mapping/from").isEmpty());
+    }
+
+    @Test
+    public void testGetMappedTopicsFollowsChains() throws Exception {
+        assertTrue(ts.addMappingBetweenTopics("chain/a", "chain/b"));
+        assertTrue(ts.addMappingBetweenTopics("chain/b", "chain/c"));
+        assertTrue(ts.addMappingBetweenTopics("chain/a", "chain/c"));
+
+        Set<String> mapped = ts.getMappedTopics("chain/a");
+        assertEquals(mapped.size(), 2);
+        assertTrue(mapped.contains("chain/b"));
+        assertTrue(mapped.contains("chain/c"));
+        assertEquals(ts.getMappedTopics("chain/b").size(), 1);
+        // The direct mappings are left as they were registered
+        assertEquals(ts.getAllMappings().get("chain/a").size(), 2);
+
+        ts.deleteMapping("chain/b");
+        assertEquals(ts.getMappedTopics("chain/a").size(), 2);
+        assertTrue(ts.getMappedTopics("chain/b").isEmpty());
+        ts.deleteMapping("chain/a");
+    }
+
+    @Test
+    public void testAddMappingRejectsCycles() throws Exception {
+        assertFalse(ts.addMappingBetweenTopics("cycle/a", "cycle/a"));
+        assertTrue(ts.addMappingBetweenTopics("cycle/a", "cycle/b"));
+        assertTrue(ts.addMappingBetweenTopics("cycle/b", "cycle/c"));
+        assertFalse(ts.addMappingBetweenTopics("cycle/c", "cycle/a"));
+        assertFalse(ts.addMappingBetweenTopics("cycle/b", "cycle/a"));
+
+        assertTrue(ts.getMappedTopics("cycle/c").isEmpty());
+        assertFalse(ts.getMappedTopics("cycle/b").contains("cycle/a"));
+        ts.deleteMapping("cycle/a");
+        ts.deleteMapping("cycle/b");
+    }
+
     @Test
     public void testGetTopic() throws Exception {
         assertEquals(three, ts.getTopic(three.getFullTopicString()));
@@ -106,7 +171,7 @@ public class TopicServiceTest {
 
     @Test
     public void testGetAllLeafTopics() throws Exception {
-        HashSet<Topic> leafTopics = ts.getAllLeafTopics();
+        Set<Topic> leafTopics = ts.getAllLeafTopics();
         leafs.forEach(t -> assertTrue(leafTopics.contains(t)));
     }
 
@@ -0,0 +1,147 @@
+package no.ntnu.okse.protocol;
+
+import no.ntnu.okse.core.messaging.Message;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class OutboundExecutorTest {
+    private OutboundExecutor executor;
+
+    @AfterMethod
+    public void tearDown() {
+        if (executor != null) executor.stop();
+        executor = null;
+    }
+
+    @Test
+    public void sendsMessagesInOrderPerTopic() throws InterruptedException {
+        int topics = 8;
+        int messagesPerTopic = 500;
+        CountDownLatch latch = new CountDownLatch(topics * messagesPerTopic);
+        List<Message> sent = Collections.synchronizedList(new ArrayList<>());
+        executor = new OutboundExecutor("Test", 4, batch -> {
+            sent.addAll(batch);
+            batch.forEach(m -> latch.countDown());
+        });
+        executor.start();
+
+        for (int i = 0; i < messagesPerTopic; i++) {
+            for (int t = 0; t < topics; t++) {
+                executor.submit(new Message(Integer.toString(i), "topic" + t, null, "Test"));
+            }
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        HashMap<String, Integer> next = new HashMap<>();
+        synchronized (sent) {
+            for (Message m : sent) {
+                int expected = next.getOrDefault(m.getTopic(), 0);
+                assertEquals(Integer.toString(expected), m.getMessage());
+                next.put(m.getTopic(), expected + 1);
+            }
+        }
+        assertEquals(topics, next.size());
+        assertEquals(0, executor.getQueueSize());
+    }
+
+    @Test
+    public void topicsAreShardedConsistently() {
+        executor = new OutboundExecutor("Test", 4, batch -> { });
+        assertEquals(4, executor.getParallelism());
+        assertEquals(0, executor.getShardForTopic(null));
+        for (int i = 0; i < 100; i++) {
+            int shard = executor.getShardForTopic("topic" + i);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, executor.getShardForTopic("topic" + i));
+        }
+    }
+
+    @Test
+    public void atLeastOneSender() {
+        executor = new OutboundExecutor("Test", 0, batch -> { });
+        assertEquals(1, executor.getParallelism());
+    }
+
+    @Test
+    public void handlerExceptionsDoNotStopTheSender() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        executor = new OutboundExecutor("Test", 1, batch -> {
+            for (Message m : batch) {
+                if (m.getMessage().equals("fail")) throw new RuntimeException("Test exception");
+                latch.countDown();
+            }
+        });
+        executor.start();
+
+        executor.submit(new Message("fail", "topic", null, "Test"));
+        // Give the sender time to fail on the first message, so the second is sent in a new batch
+        Thread.sleep(100);
+        executor.submit(new Message("ok", "topic", null, "Test"));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queueIsBoundedWhileStopped() {
+        executor = new OutboundExecutor("Test", 1, 2, batch -> { });
+        executor.submit(new Message("first", "topic", null, "Test"));
+        executor.submit(new Message("second", "topic", null, "Test"));
+        // Nothing drains the queue while the executor is stopped, so the message is dropped instead of blocking
+        executor.submit(new Message("third", "topic", null, "Test"));
+        assertEquals(2, executor.getQueueSize());
+    }
+
+    @Test
+    public void submitBlocksWhileQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(3);
+        executor = new OutboundExecutor("Test", 1, 1, batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            batch.forEach(m -> sent.countDown());
+        });
+        executor.start();
+        executor.submit(new Message("first", "topic", null, "Test"));
+
+        Thread submitter = new Thread(() -> {
+            executor.submit(new Message("second", "topic", null, "Test"));
+            executor.submit(new Message("third", "topic", null, "Test"));
+        });
+        submitter.start();
+        submitter.join(200);
+        // The sender is busy with the first message, and the queue only has room for one more
+        assertTrue(submitter.isAlive());
+
+        release.countDown();
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void startAndStop() {
+        executor = new OutboundExecutor("Test", 2, batch -> { });
+        assertFalse(executor.isRunning());
+        executor.start();
+        assertTrue(executor.isRunning());
+        executor.stop();
+        assertFalse(executor.isRunning());
+
+        // Messages queued while stopped are kept until the executor is started
+        executor.submit(new Message("message", "topic", null, "Test"));
+        assertEquals(1, executor.getQueueSize());
+    }
+}
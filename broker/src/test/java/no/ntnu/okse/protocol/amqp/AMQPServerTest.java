@@ -32,6 +32,8 @@ import org.apache.qpid.proton.amqp.transport.*;
 import org.apache.qpid.proton.engine.*;
 import org.apache.qpid.proton.messenger.Messenger;
 import org.apache.qpid.proton.messenger.impl.Address;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -138,6 +140,28 @@ public class AMQPServerTest {
         assertEquals((String) ((AmqpValue) AMQPMessage.getBody()).getValue(), (String) ((AmqpValue) AMQPMessageReconstruct.getBody()).getValue());
     }
 
+    @Test(groups = "amqp")
+    public void testConvertLargeAMQPMessageToMessageBytes() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100000; i++) builder.append(i % 2 == 0 ? 'a' : 'å');
+        String message = builder.toString();
+
+        org.apache.qpid.proton.message.Message AMQPMessage = org.apache.qpid.proton.message.Message.Factory.create();
+        AMQPMessage.setAddress("127.0.0.1/test/testConvertLargeAMQPMessageToMessageBytes");
+        AMQPMessage.setSubject("Supertesty test");
+        AMQPMessage.setBody(new AmqpValue(message));
+
+        MessageBytes mb = AMQPServer.convertAMQPMessageToMessageBytes(AMQPMessage);
+
+        // The encoded bytes should contain exactly the message, without any trailing buffer space
+        byte[] reference = new byte[1024 * 1024];
+        assertEquals(AMQPMessage.encode(reference, 0, reference.length), mb.getBytes().length);
+
+        org.apache.qpid.proton.message.Message AMQPMessageReconstruct = org.apache.qpid.proton.message.Message.Factory.create();
+        AMQPMessageReconstruct.decode(mb.getBytes(), 0, mb.getBytes().length);
+        assertEquals(message, (String) ((AmqpValue) AMQPMessageReconstruct.getBody()).getValue());
+    }
+
     @Test(groups = "amqp")
     public void testConvertOkseMessageToAMQP() throws Exception {
         System.out.println("testConvertOkseMessageToAMQP");
@@ -579,6 +603,105 @@ public class AMQPServerTest {
 
     }
 
+    @Test(groups = "amqp")
+    public void testMessageStoreOverflowPolicy() throws Exception {
+        AMQPServer.TestMessageStore messageStore = AMQPServer.createMessageStoreFactory();
+
+        MessageBytes mb1 = new MessageBytes("test1".getBytes());
+        MessageBytes mb2 = new MessageBytes("test2".getBytes());
+        MessageBytes mb3 = new MessageBytes("test3".getBytes());
+
+        assertEquals(messageStore.put("oldest", mb1, 2, OutboundQueue.OverflowPolicy.DROP_OLDEST),
+                OutboundQueue.OfferResult.QUEUED);
+        assertEquals(messageStore.put("oldest", mb2, 2, OutboundQueue.OverflowPolicy.DROP_OLDEST),
+                OutboundQueue.OfferResult.QUEUED);
+        assertEquals(messageStore.put("oldest", mb3, 2, OutboundQueue.OverflowPolicy.DROP_OLDEST),
+                OutboundQueue.OfferResult.DROPPED_OLDEST);
+        assertEquals(messageStore.get("oldest"), mb2);
+        assertEquals(messageStore.get("oldest"), mb3);
+
+        assertEquals(messageStore.put("newest", mb1, 2, OutboundQueue.OverflowPolicy.DROP_NEWEST),
+                OutboundQueue.OfferResult.QUEUED);
+        assertEquals(messageStore.put("newest", mb2, 2, OutboundQueue.OverflowPolicy.DROP_NEWEST),
+                OutboundQueue.OfferResult.QUEUED);
+        assertEquals(messageStore.put("newest", mb3, 2, OutboundQueue.OverflowPolicy.DROP_NEWEST),
+                OutboundQueue.OfferResult.DROPPED_NEWEST);
+        assertEquals(messageStore.get("newest"), mb1);
+        assertEquals(messageStore.get("newest"), mb2);
+        assertNull(messageStore.get("newest"));
+
+        // A queue has no single consumer to disconnect, so the new message is dropped
+        assertEquals(messageStore.put("disconnect", mb1, 1, OutboundQueue.OverflowPolicy.DISCONNECT),
+                OutboundQueue.OfferResult.QUEUED);
+        assertEquals(messageStore.put("disconnect", mb2, 1, OutboundQueue.OverflowPolicy.DISCONNECT),
+                OutboundQueue.OfferResult.DROPPED_NEWEST);
+        assertEquals(messageStore.get("disconnect"), mb1);
+        assertNull(messageStore.get("disconnect"));
+    }
+
+    @Test(groups = "amqp")
+    public void testFanOutSharesMessageBytes() throws Exception {
+        AMQProtocolServer protocolServer = Mockito.mock(AMQProtocolServer.class);
+        Mockito.when(protocolServer.getHost()).thenReturn("0.0.0.0");
+        Mockito.when(protocolServer.getOutboundQueueSize()).thenReturn(16);
+        Mockito.when(protocolServer.getOverflowPolicy()).thenReturn(OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        Mockito.when(protocolServer.getDriver()).thenReturn(Mockito.mock(Driver.class));
+
+        SubscriptionHandler.Routes<Sender> routes = new SubscriptionHandler.Routes<>();
+        ArrayList<Sender> senders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Sender snd = Mockito.mock(Sender.class);
+            Mockito.when(snd.getCredit()).thenReturn(10);
+            Mockito.when(snd.delivery(Mockito.any(byte[].class))).thenReturn(Mockito.mock(Delivery.class));
+            routes.add(snd);
+            senders.add(snd);
+        }
+        SubscriptionHandler subscriptionHandler = Mockito.mock(SubscriptionHandler.class);
+        Mockito.when(subscriptionHandler.getOutgoing("test")).thenReturn(routes);
+
+        AMQPServer server = new AMQPServer(protocolServer, subscriptionHandler, true);
+        server.addMessageToQueue(new Message("Hei", "test", null, "AMQP"));
+        server.sendNextMessagesInQueue();
+
+        // Every sender is handed the very same encoded bytes, not a copy
+        byte[] shared = null;
+        for (Sender snd : senders) {
+            ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+            Mockito.verify(snd).send(bytes.capture(), Mockito.eq(0), Mockito.anyInt());
+            if (shared == null) shared = bytes.getValue();
+            assertSame(bytes.getValue(), shared);
+        }
+        assertTrue(shared.length > 0);
+        assertEquals(server.getTotalDroppedMessages(), 0);
+    }
+
+    @Test(groups = "amqp")
+    public void testTopicDeliveriesAreBounded() throws Exception {
+        AMQProtocolServer protocolServer = Mockito.mock(AMQProtocolServer.class);
+        Mockito.when(protocolServer.getHost()).thenReturn("0.0.0.0");
+        Mockito.when(protocolServer.getOutboundQueueSize()).thenReturn(2);
+        Mockito.when(protocolServer.getOverflowPolicy()).thenReturn(OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        Driver driver = Mockito.mock(Driver.class);
+        Mockito.when(protocolServer.getDriver()).thenReturn(driver);
+
+        SubscriptionHandler.Routes<Sender> routes = new SubscriptionHandler.Routes<>();
+        Sender snd = Mockito.mock(Sender.class);
+        Mockito.when(snd.getCredit()).thenReturn(10);
+        Mockito.when(snd.delivery(Mockito.any(byte[].class))).thenReturn(Mockito.mock(Delivery.class));
+        routes.add(snd);
+        SubscriptionHandler subscriptionHandler = Mockito.mock(SubscriptionHandler.class);
+        Mockito.when(subscriptionHandler.getOutgoing("test")).thenReturn(routes);
+
+        // The driver thread is behind, so only two messages are held for it and the third is discarded
+        AMQPServer server = new AMQPServer(protocolServer, subscriptionHandler, true);
+        for (int i = 0; i < 3; i++) server.addMessageToQueue(new Message("Hei" + i, "test", null, "AMQP"));
+        assertEquals(server.getTotalDroppedMessages(), 1);
+        Mockito.verify(driver, Mockito.times(2)).wakeUp();
+
+        server.sendNextMessagesInQueue();
+        Mockito.verify(snd, Mockito.times(2)).send(Mockito.any(byte[].class), Mockito.eq(0), Mockito.anyInt());
+    }
+
     @Test(groups = "amqp")
     public void testRoutes() throws Exception {
         SubscriptionHandler.Routes<Sender> routes = new SubscriptionHandler.Routes();
@@ -0,0 +1,100 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.amqp;
+
+import org.apache.qpid.proton.engine.EndpointState;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Receiver;
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+public class FlowControllerTest {
+
+    private AtomicBoolean overloaded;
+    private FlowController controller;
+    private Receiver receiver;
+    private Event event;
+
+    @BeforeMethod
+    public void setUp() {
+        overloaded = new AtomicBoolean(false);
+        controller = new FlowController(10, overloaded::get);
+        receiver = Mockito.mock(Receiver.class);
+        Mockito.when(receiver.getCredit()).thenReturn(4);
+        Mockito.when(receiver.getLocalState()).thenReturn(EndpointState.ACTIVE);
+        event = Mockito.mock(Event.class);
+        Mockito.when(event.getLink()).thenReturn(receiver);
+    }
+
+    @Test
+    public void grantsCreditUpToWindow() {
+        controller.onDelivery(event);
+        Mockito.verify(receiver).flow(6);
+        assertEquals(0, controller.getStarvedLinks());
+    }
+
+    @Test
+    public void withholdsCreditWhileOverloaded() {
+        overloaded.set(true);
+        controller.onDelivery(event);
+        controller.onLinkFlow(event);
+        Mockito.verify(receiver, Mockito.never()).flow(Mockito.anyInt());
+        assertEquals(1, controller.getStarvedLinks());
+
+        // Still overloaded, so nothing is granted
+        controller.topUpStarved();
+        Mockito.verify(receiver, Mockito.never()).flow(Mockito.anyInt());
+
+        overloaded.set(false);
+        controller.topUpStarved();
+        Mockito.verify(receiver).flow(6);
+        assertEquals(0, controller.getStarvedLinks());
+    }
+
+    @Test
+    public void closedLinksAreNotToppedUp() {
+        overloaded.set(true);
+        controller.onDelivery(event);
+        Mockito.when(receiver.getLocalState()).thenReturn(EndpointState.CLOSED);
+
+        overloaded.set(false);
+        controller.topUpStarved();
+        Mockito.verify(receiver, Mockito.never()).flow(Mockito.anyInt());
+        assertEquals(0, controller.getStarvedLinks());
+    }
+
+    @Test
+    public void finalLinksAreForgotten() {
+        overloaded.set(true);
+        controller.onDelivery(event);
+        controller.onLinkFinal(event);
+        assertEquals(0, controller.getStarvedLinks());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.amqp;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class OutboundQueueTest {
+
+    private static MessageBytes bytes(String s) {
+        return new MessageBytes(s);
+    }
+
+    @Test
+    public void testOfferAndPoll() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        MessageBytes first = bytes("first");
+        MessageBytes second = bytes("second");
+
+        assertEquals(queue.offer(first), OutboundQueue.OfferResult.QUEUED);
+        assertEquals(queue.offer(second), OutboundQueue.OfferResult.QUEUED);
+        assertEquals(queue.size(), 2);
+        assertSame(queue.poll(), first);
+        assertSame(queue.poll(), second);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDropOldest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        MessageBytes second = bytes("second");
+        MessageBytes third = bytes("third");
+        queue.offer(bytes("first"));
+        queue.offer(second);
+
+        assertEquals(queue.offer(third), OutboundQueue.OfferResult.DROPPED_OLDEST);
+        assertEquals(queue.size(), 2);
+        assertSame(queue.poll(), second);
+        assertSame(queue.poll(), third);
+    }
+
+    @Test
+    public void testDropNewest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        MessageBytes first = bytes("first");
+        MessageBytes second = bytes("second");
+        queue.offer(first);
+        queue.offer(second);
+
+        assertEquals(queue.offer(bytes("third")), OutboundQueue.OfferResult.DROPPED_NEWEST);
+        assertEquals(queue.size(), 2);
+        assertSame(queue.poll(), first);
+        assertSame(queue.poll(), second);
+    }
+
+    @Test
+    public void testDisconnect() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        queue.offer(bytes("first"));
+
+        assertEquals(queue.offer(bytes("second")), OutboundQueue.OfferResult.OVERFLOW);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testPolicyFromString() {
+        OutboundQueue.OverflowPolicy fallback = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+        assertEquals(OutboundQueue.OverflowPolicy.fromString("drop-newest", fallback), OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        assertEquals(OutboundQueue.OverflowPolicy.fromString("DISCONNECT", fallback), OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertEquals(OutboundQueue.OverflowPolicy.fromString("drop_oldest", fallback), OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        assertEquals(OutboundQueue.OverflowPolicy.fromString("bogus", fallback), fallback);
+        assertEquals(OutboundQueue.OverflowPolicy.fromString(null, fallback), fallback);
+    }
+}
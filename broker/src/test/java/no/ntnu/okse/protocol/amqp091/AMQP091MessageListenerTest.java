@@ -46,7 +46,8 @@ public class AMQP091MessageListenerTest {
                 disconnectMessage.getHost(), disconnectMessage.getPort()
         );
         messageListener.onDisconnect(disconnectMessage);
-        Mockito.verify(subscriptionService, Mockito.times(3)).removeSubscriber(any());
+        Mockito.verify(subscriptionService, Mockito.times(1)).removeSubscribers(subscribers);
+        Mockito.verify(subscriptionService, Mockito.never()).removeSubscriber(any());
         Mockito.verify(protocolServer, Mockito.times(1)).incrementTotalRequests();
     }
 
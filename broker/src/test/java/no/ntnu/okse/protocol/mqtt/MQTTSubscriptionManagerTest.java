@@ -41,7 +41,7 @@ public class MQTTSubscriptionManagerTest {
         assertEquals(true, subscriptionHandler_spy.containsSubscriber("127.0.0.1", 1883, "testing"));
         subscriptionHandler_spy.addSubscriber("127.0.0.1", 1883, "testing", clientID);
         assertEquals(true, subscriptionHandler_spy.containsSubscriber("127.0.0.1", 1883, "testing"));
-        assertEquals(1, subscriptionHandler_spy.getSubscriberIndexes(clientID).size());
+        assertEquals(1, subscriptionHandler_spy.getSubscribers(clientID).size());
     }
 
     @Test
@@ -125,15 +125,21 @@ public class MQTTSubscriptionManagerTest {
     }
 
     @Test
-    public void getSubscriberIndex() {
+    public void getSubscribers() {
         MQTTSubscriptionManager subscriptionManager = new MQTTSubscriptionManager();
         subscriptionManager.initCoreSubscriptionService(SubscriptionService.getInstance());
         MQTTSubscriptionManager subscriptionHandler_spy = Mockito.spy(subscriptionManager);
 
         String clientID = "testClientID";
         subscriptionHandler_spy.addSubscriber("127.0.0.1", 1883, "testing", clientID);
-        int index = subscriptionHandler_spy.getSubscriberIndex("127.0.0.1", 1883, "testing");
-        assertEquals(0, index);
+        subscriptionHandler_spy.addSubscriber("127.0.0.1", 1883, "testing2", clientID);
+        subscriptionHandler_spy.addSubscriber("127.1.0.1", 1883, "testing", clientID + "2");
+        assertEquals(2, subscriptionHandler_spy.getSubscribers(clientID).size());
+        assertEquals(1, subscriptionHandler_spy.getSubscribers(clientID + "2").size());
+        assertEquals(0, subscriptionHandler_spy.getSubscribers("unknownClientID").size());
+
+        subscriptionHandler_spy.removeSubscriber("127.0.0.1", 1883, "testing");
+        assertEquals(1, subscriptionHandler_spy.getSubscribers(clientID).size());
     }
 
     @Test
@@ -0,0 +1,84 @@
+package no.ntnu.okse.protocol.mqtt;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class MQTTSubscriptionTrieTest {
+
+    private MQTTSubscriptionTrie trie;
+
+    @BeforeMethod
+    public void setUp() {
+        trie = new MQTTSubscriptionTrie();
+    }
+
+    private MQTTSubscriber subscriber(String topic) {
+        return new MQTTSubscriber("127.0.0.1", 1883, topic, "testClientID", null);
+    }
+
+    @Test
+    public void matchExactTopic() {
+        MQTTSubscriber sub = subscriber("a/b");
+        trie.add(sub);
+        trie.add(subscriber("a/c"));
+
+        ArrayList<MQTTSubscriber> subs = trie.match("a/b");
+        assertEquals(1, subs.size());
+        assertEquals(sub, subs.get(0));
+        assertEquals(0, trie.match("a").size());
+        assertEquals(0, trie.match("a/b/c").size());
+    }
+
+    @Test
+    public void matchSingleLevelWildcard() {
+        trie.add(subscriber("a/+/c"));
+        trie.add(subscriber("+"));
+
+        assertEquals(1, trie.match("a/b/c").size());
+        assertEquals(1, trie.match("a/x/c").size());
+        assertEquals(0, trie.match("a/b/d").size());
+        assertEquals(0, trie.match("a/c").size());
+        assertEquals(1, trie.match("a").size());
+    }
+
+    @Test
+    public void matchMultiLevelWildcard() {
+        trie.add(subscriber("a/#"));
+        trie.add(subscriber("#"));
+
+        assertEquals(2, trie.match("a").size());
+        assertEquals(2, trie.match("a/b").size());
+        assertEquals(2, trie.match("a/b/c").size());
+        assertEquals(1, trie.match("b").size());
+    }
+
+    @Test
+    public void wildcardsDoNotMatchReservedTopics() {
+        trie.add(subscriber("#"));
+        trie.add(subscriber("+/info"));
+        trie.add(subscriber("$SYS/#"));
+
+        assertEquals(1, trie.match("$SYS/info").size());
+        assertEquals(2, trie.match("broker/info").size());
+    }
+
+    @Test
+    public void addAndRemove() {
+        MQTTSubscriber sub = subscriber("a/+");
+        assertTrue(trie.add(sub));
+        assertFalse(trie.add(sub));
+        assertEquals(1, trie.size());
+
+        assertTrue(trie.remove(sub));
+        assertFalse(trie.remove(sub));
+        assertFalse(trie.remove(subscriber("x/y")));
+        assertEquals(0, trie.size());
+        assertEquals(0, trie.match("a/b").size());
+    }
+}
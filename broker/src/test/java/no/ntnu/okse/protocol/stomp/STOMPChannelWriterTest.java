@@ -0,0 +1,258 @@
+package no.ntnu.okse.protocol.stomp;
+
+import asia.stampy.common.gateway.HostPort;
+import asia.stampy.server.netty.ServerNettyMessageGateway;
+import no.ntnu.okse.core.messaging.Message;
+import no.ntnu.okse.core.subscription.Subscriber;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class STOMPChannelWriterTest {
+    private STOMPChannelWriter writer;
+    private ServerNettyMessageGateway gateway;
+    private Channel channel;
+    private ChannelFuture future;
+    private NioSocketChannelConfig config;
+    private HostPort hostPort;
+    private STOMPSubscription subscription;
+    private STOMPMessageFrame first, second, third;
+
+    @BeforeMethod
+    public void setUp() {
+        writer = new STOMPChannelWriter();
+        writer.setHighWaterMark(1024);
+        gateway = Mockito.mock(ServerNettyMessageGateway.class);
+        channel = Mockito.mock(Channel.class);
+        future = Mockito.mock(ChannelFuture.class);
+        config = Mockito.mock(NioSocketChannelConfig.class);
+        Mockito.when(channel.getConfig()).thenReturn(config);
+        Mockito.when(channel.write(Mockito.any())).thenReturn(future);
+        Mockito.when(channel.isWritable()).thenReturn(true);
+        hostPort = new HostPort("127.0.0.1", 61613);
+        subscription = new STOMPSubscription("sub-0", new Subscriber("127.0.0.1", 61613, "testing", "stomp"));
+        first = frame("first");
+        second = frame("second");
+        third = frame("third");
+    }
+
+    private static STOMPMessageFrame frame(String body) {
+        return new STOMPMessageFrame(new Message(body, "testing", null, "stomp"));
+    }
+
+    private int size(STOMPMessageFrame frame) {
+        return frame.size(subscription.getEncodedClientID());
+    }
+
+    private String render(STOMPMessageFrame... frames) {
+        StringBuilder rendered = new StringBuilder();
+        for (STOMPMessageFrame frame : frames) rendered.append(frame.render(subscription.getClientID()));
+        return rendered.toString();
+    }
+
+    /**
+     * Returns the text of the single buffer written to a channel
+     */
+    private static String written(Channel channel) {
+        ArgumentCaptor<Object> buffer = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(channel).write(buffer.capture());
+        return ((ChannelBuffer) buffer.getValue()).toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void registerSetsHighWaterMark() {
+        writer.register(hostPort, channel);
+        Mockito.verify(config).setWriteBufferHighWaterMark(1024);
+        Mockito.verify(config).setWriteBufferLowWaterMark(512);
+    }
+
+    @Test
+    public void flushWritesOneBatchPerConnection() throws Exception {
+        writer.register(hostPort, channel);
+        assertTrue(writer.write(subscription, first));
+        assertTrue(writer.write(subscription, second));
+        int size = size(first) + size(second);
+        assertEquals(size, writer.getBufferedBytes(hostPort));
+        Mockito.verify(channel, Mockito.never()).write(Mockito.any());
+
+        writer.flush(gateway);
+        assertEquals(render(first, second), written(channel));
+
+        // The bytes are released when Netty has sent the batch
+        ArgumentCaptor<ChannelFutureListener> listener = ArgumentCaptor.forClass(ChannelFutureListener.class);
+        Mockito.verify(future).addListener(listener.capture());
+        assertEquals(size, writer.getBufferedBytes(hostPort));
+        listener.getValue().operationComplete(future);
+        assertEquals(0, writer.getBufferedBytes(hostPort));
+        assertEquals(Long.valueOf(0), writer.getBufferedBytes().get("127.0.0.1:61613"));
+    }
+
+    @Test
+    public void flushOnlyWritesConnectionsOfTheCallingThread() throws Exception {
+        HostPort otherHostPort = new HostPort("127.0.0.1", 61614);
+        Channel otherChannel = Mockito.mock(Channel.class);
+        Mockito.when(otherChannel.getConfig()).thenReturn(config);
+        Mockito.when(otherChannel.write(Mockito.any())).thenReturn(future);
+        Mockito.when(otherChannel.isWritable()).thenReturn(true);
+        writer.register(hostPort, channel);
+        writer.register(otherHostPort, otherChannel);
+
+        // Another sender thread is in the middle of its dispatch cycle
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        STOMPSubscription other = new STOMPSubscription("sub-1", new Subscriber("127.0.0.1", 61614, "testing", "stomp"));
+        sender.submit(() -> writer.write(other, second)).get();
+
+        writer.write(subscription, first);
+        writer.flush(gateway);
+        assertEquals(render(first), written(channel));
+        Mockito.verify(otherChannel, Mockito.never()).write(Mockito.any());
+        assertEquals(second.size(other.getEncodedClientID()), writer.getBufferedBytes(otherHostPort));
+
+        sender.submit(() -> writer.flush(gateway)).get();
+        sender.shutdown();
+        assertEquals(second.render("sub-1"), written(otherChannel));
+    }
+
+    @Test
+    public void flushWithoutChannelUsesGateway() {
+        writer.write(subscription, first);
+        writer.write(subscription, second);
+        writer.flush(gateway);
+
+        Mockito.verify(gateway).sendMessage(render(first, second), hostPort);
+        assertEquals(0, writer.getBufferedBytes(hostPort));
+        assertTrue(writer.getBufferedBytes().isEmpty());
+    }
+
+    @Test
+    public void dropPolicy() {
+        writer.setSlowConsumerPolicy(STOMPChannelWriter.SlowConsumerPolicy.DROP);
+        writer.register(hostPort, channel);
+        Mockito.when(channel.isWritable()).thenReturn(false);
+
+        assertFalse(writer.write(subscription, first));
+        writer.flush(gateway);
+        Mockito.verify(channel, Mockito.never()).write(Mockito.any());
+        assertEquals(1, writer.getDroppedFrames());
+        assertEquals(0, writer.getBufferedBytes(hostPort));
+
+        Mockito.when(channel.isWritable()).thenReturn(true);
+        assertTrue(writer.write(subscription, second));
+        writer.flush(gateway);
+        assertEquals(render(second), written(channel));
+    }
+
+    @Test
+    public void disconnectPolicy() {
+        writer.setSlowConsumerPolicy(STOMPChannelWriter.SlowConsumerPolicy.DISCONNECT);
+        writer.register(hostPort, channel);
+        assertTrue(writer.write(subscription, first));
+        Mockito.when(channel.isWritable()).thenReturn(false);
+
+        assertFalse(writer.write(subscription, second));
+        Mockito.verify(channel).close();
+        assertEquals(0, writer.getBufferedBytes(hostPort));
+
+        // Nothing more is written to the closed connection
+        Mockito.when(channel.isWritable()).thenReturn(true);
+        assertFalse(writer.write(subscription, third));
+        writer.flush(gateway);
+        Mockito.verify(channel, Mockito.never()).write(Mockito.any());
+        assertEquals(2, writer.getDroppedFrames());
+    }
+
+    @Test
+    public void parkPolicy() {
+        writer.register(hostPort, channel);
+        assertTrue(writer.write(subscription, first));
+        Mockito.when(channel.isWritable()).thenReturn(false);
+
+        assertTrue(writer.write(subscription, second));
+        writer.flush(gateway);
+        Mockito.verify(channel, Mockito.never()).write(Mockito.any());
+        assertEquals(size(first) + size(second), writer.getBufferedBytes(hostPort));
+
+        // Frames are still parked after the channel is writable again, until the parked frames are resumed
+        Mockito.when(channel.isWritable()).thenReturn(true);
+        assertTrue(writer.write(subscription, third));
+        writer.resume(hostPort);
+        assertEquals(render(first, second, third), written(channel));
+        assertEquals(0, writer.getDroppedFrames());
+    }
+
+    @Test
+    public void parkPolicyDisconnectsPastLimit() {
+        STOMPMessageFrame large = frame(new String(new char[1000]).replace('\0', 'x'));
+        writer.setHighWaterMark(size(large) + size(first));
+        writer.register(hostPort, channel);
+        assertTrue(writer.write(subscription, first));
+        Mockito.when(channel.isWritable()).thenReturn(false);
+
+        // Four times the high-water mark may be parked
+        for (int i = 0; i < 4; i++) assertTrue(writer.write(subscription, large));
+        assertEquals(size(first) + 4 * size(large), writer.getBufferedBytes(hostPort));
+        Mockito.verify(channel, Mockito.never()).close();
+
+        assertFalse(writer.write(subscription, large));
+        Mockito.verify(channel).close();
+        assertEquals(0, writer.getBufferedBytes(hostPort));
+        assertEquals(6, writer.getDroppedFrames());
+
+        Mockito.when(channel.isWritable()).thenReturn(true);
+        assertFalse(writer.write(subscription, second));
+        assertEquals(7, writer.getDroppedFrames());
+    }
+
+    @Test
+    public void unregisterDiscardsFrames() {
+        writer.register(hostPort, channel);
+        writer.write(subscription, first);
+        writer.unregister(hostPort);
+        writer.flush(gateway);
+
+        Mockito.verify(channel, Mockito.never()).write(Mockito.any());
+        assertEquals(0, writer.getBufferedBytes(hostPort));
+    }
+
+    @Test
+    public void pauseAndResumeReading() {
+        writer.register(hostPort, channel);
+        writer.pauseReading(hostPort);
+        Mockito.verify(channel).setReadable(false);
+
+        writer.resumeReading();
+        Mockito.verify(channel).setReadable(true);
+
+        // Channels are only resumed once
+        writer.resumeReading();
+        Mockito.verify(channel, Mockito.times(1)).setReadable(true);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void setHighWaterMarkRejectsZero() {
+        writer.setHighWaterMark(0);
+    }
+
+    @Test
+    public void slowConsumerPolicyFromString() {
+        STOMPChannelWriter.SlowConsumerPolicy fallback = STOMPChannelWriter.SlowConsumerPolicy.PARK;
+        assertEquals(STOMPChannelWriter.SlowConsumerPolicy.DROP, STOMPChannelWriter.SlowConsumerPolicy.fromString("drop", fallback));
+        assertEquals(STOMPChannelWriter.SlowConsumerPolicy.DISCONNECT, STOMPChannelWriter.SlowConsumerPolicy.fromString(" DISCONNECT ", fallback));
+        assertEquals(fallback, STOMPChannelWriter.SlowConsumerPolicy.fromString("bogus", fallback));
+        assertEquals(fallback, STOMPChannelWriter.SlowConsumerPolicy.fromString(null, fallback));
+    }
+}
@@ -0,0 +1,64 @@
+package no.ntnu.okse.protocol.stomp;
+
+import no.ntnu.okse.core.messaging.Message;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class STOMPMessageFrameTest {
+
+    @Test
+    public void render() {
+        Message msg = new Message("message body", "testing", null, "stomp");
+        msg.setAttribute("test", "user defined attribute");
+        STOMPMessageFrame frame = new STOMPMessageFrame(msg);
+
+        String first = frame.render("client1");
+        String second = frame.render("client2");
+        assertTrue(first.startsWith("MESSAGE"));
+        assertTrue(first.contains("subscription:client1\n"));
+        assertTrue(first.contains("destination:testing"));
+        assertTrue(first.contains("test:user defined attribute"));
+        assertTrue(first.contains("message body"));
+        assertFalse(first.contains("client2"));
+        assertTrue(second.contains("subscription:client2\n"));
+
+        // Apart from the subscription header the frames are identical
+        assertEquals(first, second.replace("subscription:client2", "subscription:client1"));
+    }
+
+    @Test
+    public void encode() {
+        Message msg = new Message("message body \u00e6\u00f8\u00e5", "testing", null, "stomp");
+        STOMPMessageFrame frame = new STOMPMessageFrame(msg);
+
+        for (String subscriptionID : new String[] {"client1", "klient-\u00f8"}) {
+            byte[] encodedID = subscriptionID.getBytes(StandardCharsets.UTF_8);
+            ChannelBuffer encoded = frame.encode(encodedID);
+            byte[] rendered = frame.render(subscriptionID).getBytes(StandardCharsets.UTF_8);
+
+            assertEquals(rendered.length, frame.size(encodedID));
+            assertEquals(rendered.length, encoded.readableBytes());
+            assertEquals(frame.render(subscriptionID), encoded.toString(StandardCharsets.UTF_8));
+        }
+
+        // Reading a buffer leaves the shared parts of the frame intact for the next subscription
+        frame.encode("client1".getBytes(StandardCharsets.UTF_8)).skipBytes(10);
+        assertEquals(frame.render("client2"), frame.encode("client2".getBytes(StandardCharsets.UTF_8))
+                .toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void getMessage() {
+        Message msg = new Message("message body", "testing", null, "stomp");
+        STOMPMessageFrame frame = new STOMPMessageFrame(msg);
+
+        assertEquals("testing", frame.getMessage().getHeader().getDestination());
+        assertEquals(msg.getMessageID(), frame.getMessage().getHeader().getMessageId());
+    }
+}
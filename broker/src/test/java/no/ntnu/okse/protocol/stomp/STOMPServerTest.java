@@ -2,7 +2,9 @@ package no.ntnu.okse.protocol.stomp;
 
 import asia.stampy.common.gateway.HostPort;
 import asia.stampy.common.message.StampyMessage;
+import asia.stampy.common.message.StompMessageType;
 import asia.stampy.common.message.interceptor.InterceptException;
+import asia.stampy.common.message.interceptor.StampyOutgoingMessageInterceptor;
 import asia.stampy.server.netty.ServerNettyMessageGateway;
 import no.ntnu.okse.core.messaging.Message;
 import no.ntnu.okse.core.subscription.Subscriber;
@@ -11,9 +13,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
 import org.testng.annotations.*;
 
 public class STOMPServerTest {
@@ -65,13 +66,34 @@ public class STOMPServerTest {
     public void sendMessage() throws Exception {
         subManager_spy.addSubscriber(new Subscriber("localhost", 61613, "testing", "stomp"), "ogdans3");
 
-        ArgumentCaptor<StampyMessage> messageArgument = ArgumentCaptor.forClass(StampyMessage.class);
+        ArgumentCaptor<String> messageArgument = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<HostPort> hostPortArgument = ArgumentCaptor.forClass(HostPort.class);
 
         Message msg = new Message("testing", "testing", null, "stomp");
         msg.setAttribute("test", "user defined attribute");
         server_spy.sendMessage(msg);
         Mockito.verify(gateway).sendMessage(messageArgument.capture(), hostPortArgument.capture());
+        assertTrue(messageArgument.getValue().contains("subscription:ogdans3"));
+        assertTrue(messageArgument.getValue().contains("test:user defined attribute"));
+        assertEquals(61613, hostPortArgument.getValue().getPort());
+    }
+
+    @Test
+    public void sendMessageEncodesOnce() throws Exception {
+        subManager_spy.addSubscriber(new Subscriber("localhost", 61613, "testing", "stomp"), "ogdans3");
+        subManager_spy.addSubscriber(new Subscriber("localhost", 61614, "testing", "stomp"), "ogdans4");
+
+        ArgumentCaptor<StampyMessage> stampy = ArgumentCaptor.forClass(StampyMessage.class);
+        ArgumentCaptor<String> messageArgument = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<HostPort> hostPortArgument = ArgumentCaptor.forClass(HostPort.class);
+
+        server_spy.sendMessage(new Message("testing", "testing", null, "stomp"));
+        Mockito.verify(gateway, Mockito.times(2)).interceptOutgoingMessage(stampy.capture(), hostPortArgument.capture());
+        Mockito.verify(gateway, Mockito.times(2)).sendMessage(messageArgument.capture(), hostPortArgument.capture());
+        // Both subscribers are given the same STOMP message, with their own subscription header
+        assertTrue(stampy.getAllValues().get(0) == stampy.getAllValues().get(1));
+        assertTrue(messageArgument.getAllValues().get(0).contains("subscription:ogdans3"));
+        assertTrue(messageArgument.getAllValues().get(1).contains("subscription:ogdans4"));
     }
 
     @Test
@@ -82,15 +104,30 @@ public class STOMPServerTest {
         Message msg = new Message("testing", "testing", null, "stomp");
         msg.setAttribute("test", "user defined attribute");
 
-        ArgumentCaptor<StampyMessage> stampy = ArgumentCaptor.forClass(StampyMessage.class);
-        ArgumentCaptor<HostPort> hp = ArgumentCaptor.forClass(HostPort.class);
-        Mockito.doAnswer(new Answer() {
+        gateway.addOutgoingMessageInterceptor(new StampyOutgoingMessageInterceptor() {
+            @Override
+            public StompMessageType[] getMessageTypes() {
+                return new StompMessageType[]{StompMessageType.MESSAGE};
+            }
+
+            @Override
+            public boolean isForMessage(StampyMessage<?> message) {
+                return true;
+            }
+
+            @Override
+            public void interceptMessage(StampyMessage<?> message) throws InterceptException {
+                throw new InterceptException("Intercepting to increment total number of errors");
+            }
+
             @Override
-            public Object answer(InvocationOnMock invocation) throws Throwable {
+            public void interceptMessage(StampyMessage<?> message, HostPort hostPort) throws InterceptException {
                 throw new InterceptException("Intercepting to increment total number of errors");
             }
-        }).when(gateway).sendMessage(stampy.capture(), hp.capture());
+        });
         server_spy.sendMessage(msg);
+        Mockito.verify(ps_spy).incrementTotalErrors();
+        Mockito.verify(gateway, Mockito.never()).sendMessage(Mockito.anyString(), Mockito.any(HostPort.class));
     }
 
     @Test
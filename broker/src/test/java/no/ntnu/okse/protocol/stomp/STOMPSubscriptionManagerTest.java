@@ -1,14 +1,19 @@
 package no.ntnu.okse.protocol.stomp;
 
+import no.ntnu.okse.core.event.SubscriptionBatchChangeEvent;
 import no.ntnu.okse.core.event.SubscriptionChangeEvent;
 import no.ntnu.okse.core.subscription.Subscriber;
 import no.ntnu.okse.core.subscription.SubscriptionService;
 import org.mockito.Mockito;
 import org.testng.annotations.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
 
 public class STOMPSubscriptionManagerTest {
     private STOMPSubscriptionManager subscriptionHandler_spy;
@@ -112,5 +117,86 @@ public class STOMPSubscriptionManagerTest {
         assertEquals(1, subs.size());
     }
 
+    @Test
+    public void subscriptionsChangedRemovesBatch(){
+        Subscriber sub = new Subscriber( "127.0.0.1", 1883, "testing", "stomp");
+        Subscriber sub2 = new Subscriber( "127.0.0.1", 1884, "testing", "stomp");
+        Subscriber sub3 = new Subscriber( "127.0.0.1", 1885, "testing", "stomp");
+        subscriptionHandler_spy.addSubscriber(sub, "client1");
+        subscriptionHandler_spy.addSubscriber(sub2, "client2");
+        subscriptionHandler_spy.addSubscriber(sub3, "client3");
+
+        subscriptionHandler_spy.subscriptionsChanged(new SubscriptionBatchChangeEvent(
+                SubscriptionChangeEvent.Type.UNSUBSCRIBE, Arrays.asList(sub, sub3)));
+
+        assertEquals(false, subscriptionHandler_spy.containsSubscriber("client1"));
+        assertEquals(true, subscriptionHandler_spy.containsSubscriber("client2"));
+        assertEquals(false, subscriptionHandler_spy.containsSubscriber("client3"));
+    }
+
+    @Test
+    public void getSubscriptionsForTopic(){
+        Subscriber sub = new Subscriber( "127.0.0.1", 1883, "testing", "stomp");
+        Subscriber sub2 = new Subscriber( "127.0.0.1", 1884, "testing", "stomp");
+        assertEquals(0, subscriptionHandler_spy.getSubscriptionsForTopic("testing").size());
+        assertEquals(0, subscriptionHandler_spy.getSubscriptionsForTopic(null).size());
+        subscriptionHandler_spy.addSubscriber(sub, "client1");
+        subscriptionHandler_spy.addSubscriber(sub2, "client2");
+
+        List<STOMPSubscription> subs = subscriptionHandler_spy.getSubscriptionsForTopic("testing");
+        assertEquals(2, subs.size());
+        assertEquals("client1", subs.get(0).getClientID());
+        assertEquals(sub, subs.get(0).getSubscriber());
+        assertEquals(1883, subs.get(0).getHostPort().getPort());
 
+        // Lists that have already been returned are not changed by later removals
+        subscriptionHandler_spy.removeSubscriber("client1");
+        assertEquals(2, subs.size());
+        assertEquals(1, subscriptionHandler_spy.getSubscriptionsForTopic("testing").size());
+        assertEquals(sub2, subscriptionHandler_spy.getSubscriptionsForTopic("testing").get(0).getSubscriber());
+    }
+
+    @Test
+    public void subscriptionListIsRebuiltOnlyAfterChanges(){
+        for(int i = 0; i < 100; i++){
+            subscriptionHandler_spy.addSubscriber(new Subscriber("127.0.0.1", 2000 + i, "testing", "stomp"), "client" + i);
+        }
+        List<STOMPSubscription> subs = subscriptionHandler_spy.getSubscriptionsForTopic("testing");
+        assertEquals(100, subs.size());
+        assertSame(subs, subscriptionHandler_spy.getSubscriptionsForTopic("testing"));
+
+        // Removing every other connection keeps the order of the remaining subscriptions
+        for(int i = 0; i < 100; i += 2){
+            subscriptionHandler_spy.removeSubscriber("127.0.0.1", 2000 + i);
+        }
+        List<STOMPSubscription> remaining = subscriptionHandler_spy.getSubscriptionsForTopic("testing");
+        assertNotSame(subs, remaining);
+        assertEquals(50, remaining.size());
+        for(int i = 0; i < 50; i++){
+            assertEquals("client" + (2 * i + 1), remaining.get(i).getClientID());
+        }
+        assertSame(remaining, subscriptionHandler_spy.getSubscriptionsForTopic("testing"));
+    }
+
+    @Test
+    public void removeSubscriberWithHostPortKeepsOtherConnections(){
+        Subscriber sub = new Subscriber( "127.0.0.1", 1883, "testing", "stomp");
+        Subscriber sub2 = new Subscriber( "127.0.0.1", 1883, "testing2", "stomp");
+        Subscriber sub3 = new Subscriber( "127.0.0.1", 1884, "testing", "stomp");
+        subscriptionHandler_spy.addSubscriber(sub, "client1");
+        subscriptionHandler_spy.addSubscriber(sub2, "client2");
+        subscriptionHandler_spy.addSubscriber(sub3, "client3");
+
+        subscriptionHandler_spy.removeSubscriber("127.0.0.1", 1883);
+        assertEquals(false, subscriptionHandler_spy.containsSubscriber("client1"));
+        assertEquals(false, subscriptionHandler_spy.containsSubscriber("client2"));
+        assertEquals(true, subscriptionHandler_spy.containsSubscriber("client3"));
+        assertEquals(1, subscriptionHandler_spy.getSubscriptionsForTopic("testing").size());
+        assertEquals(0, subscriptionHandler_spy.getSubscriptionsForTopic("testing2").size());
+
+        // Removing the subscriber directly should clean up the remaining indexes as well
+        subscriptionHandler_spy.removeSubscriber(sub3);
+        assertEquals(false, subscriptionHandler_spy.containsSubscriber("client3"));
+        assertEquals(0, subscriptionHandler_spy.getSubscriptionsForTopic("testing").size());
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.ntnunotif.wsnu.base.soap.Soap;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+
+import static org.testng.Assert.*;
+
+public class WSNEnvelopeCacheTest {
+
+    @Test
+    public void testGetEnvelope() throws Exception {
+        WSNEnvelopeCache cache = new WSNEnvelopeCache();
+        Notify notify = WSNTools.buildNotifyWithContext("Content", "test", "test/sub", null, null).notify;
+        Notify other = WSNTools.buildNotifyWithContext("Content", "test", "test/sub", null, null).notify;
+
+        WSNEnvelopeCache.SerializedEnvelope envelope = cache.getEnvelope(notify, Soap.SoapVersion.SOAP_1_1);
+        assertSame(cache.getEnvelope(notify, Soap.SoapVersion.SOAP_1_1), envelope);
+        assertNotSame(cache.getEnvelope(notify, Soap.SoapVersion.SOAP_1_2_2003), envelope);
+        // Content is compared by identity, so equal but distinct notifies get their own envelopes
+        assertNotSame(cache.getEnvelope(other, Soap.SoapVersion.SOAP_1_1), envelope);
+        assertEquals(cache.size(), 3);
+    }
+
+    @Test
+    public void testGetBytes() throws Exception {
+        WSNEnvelopeCache cache = new WSNEnvelopeCache();
+        Notify notify = WSNTools.buildNotifyWithContext("Content", "test", "test/sub", null, null).notify;
+        WSNEnvelopeCache.SerializedEnvelope envelope = cache.getEnvelope(notify, Soap.SoapVersion.SOAP_1_1);
+
+        byte[] bytes = envelope.getBytes();
+        assertNotNull(bytes);
+        assertTrue(new String(bytes).contains("Notify"));
+        // The envelope is only marshalled once
+        assertSame(envelope.getBytes(), bytes);
+    }
+
+    @Test
+    public void testEnvelopeIsMarshalledWhenCreated() throws Exception {
+        WSNEnvelopeCache cache = new WSNEnvelopeCache();
+        Notify notify = WSNTools.buildNotifyWithContext("Content", "test", "test/sub", null, null).notify;
+        WSNEnvelopeCache.SerializedEnvelope envelope = cache.getEnvelope(notify, Soap.SoapVersion.SOAP_1_1);
+
+        // The content tree is not read again after the envelope has been created
+        ((Element) WSNTools.extractMessageContentFromNotify(notify)).setTextContent("Changed");
+        String marshalled = new String(envelope.getBytes());
+        assertTrue(marshalled.contains("Content"));
+        assertFalse(marshalled.contains("Changed"));
+    }
+
+    @Test
+    public void testParseSoapVersion() throws Exception {
+        assertEquals(WSNEnvelopeCache.parseSoapVersion(null), Soap.SoapVersion.SOAP_1_1);
+        assertEquals(WSNEnvelopeCache.parseSoapVersion("soap11"), Soap.SoapVersion.SOAP_1_1);
+        assertEquals(WSNEnvelopeCache.parseSoapVersion("soap12D"), Soap.SoapVersion.SOAP_1_2_2001);
+        assertEquals(WSNEnvelopeCache.parseSoapVersion("soap12F"), Soap.SoapVersion.SOAP_1_2_2003);
+        assertEquals(WSNEnvelopeCache.parseSoapVersion("unknown"), Soap.SoapVersion.SOAP_1_1);
+    }
+}
@@ -45,6 +45,7 @@ import org.testng.annotations.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
+import javax.xml.namespace.QName;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -155,6 +156,76 @@ public class WSNSubscriptionManagerTest {
         assertTrue(sm.getAllRecipients().contains("asdf"));
     }
 
+    @Test
+    public void testGetCandidateRecipients() throws Exception {
+        Subscriber child = new Subscriber("0.0.0.0", 8002, "test/child", "WSNotification");
+        child.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "child");
+        sm.addSubscriber(child, sh);
+        Subscriber other = new Subscriber("0.0.0.0", 8003, "other", "WSNotification");
+        other.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "other");
+        sm.addSubscriber(other, sh);
+        Subscriber all = new Subscriber("0.0.0.0", 8004, null, "WSNotification");
+        all.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "all");
+        sm.addSubscriber(all, sh);
+
+        Set<String> candidates = sm.getCandidateRecipients("test");
+        assertEquals(candidates, new HashSet<>(Arrays.asList("1234567890abcdef", "all")));
+        // Subscribers to ancestor topics are candidates as well
+        candidates = sm.getCandidateRecipients("test/child");
+        assertEquals(candidates, new HashSet<>(Arrays.asList("1234567890abcdef", "child", "all")));
+        candidates = sm.getCandidateRecipients(Arrays.asList("test/child", "other"));
+        assertEquals(candidates.size(), 4);
+        candidates = sm.getCandidateRecipients((String) null);
+        assertEquals(candidates, Collections.singleton("all"));
+
+        tss.removeSubscriber(child);
+        tss.removeSubscriber(all);
+        assertEquals(sm.getCandidateRecipients("test/child"), Collections.singleton("1234567890abcdef"));
+    }
+
+    @Test
+    public void testSharedFilterEvaluators() throws Exception {
+        Subscriber s2 = new Subscriber("0.0.0.0", 8002, null, "WSNotification");
+        s2.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "first");
+        sm.addSubscriber(s2, sh, "filter");
+        Subscriber s3 = new Subscriber("0.0.0.0", 8003, null, "WSNotification");
+        s3.setAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN, "second");
+        sm.addSubscriber(s3, sh, "filter");
+
+        // Subscribers with the same filter key share an evaluator, others get one of their own
+        assertSame(sm.getFilterEvaluator("first"), sm.getFilterEvaluator("second"));
+        assertNotSame(sm.getFilterEvaluator("first"), sm.getFilterEvaluator("1234567890abcdef"));
+        assertEquals(sm.getNumberOfFilterEvaluators(), 1);
+        assertEquals(sm.getFilterEvaluator("first").getReferences(), 2);
+
+        tss.removeSubscriber(s2);
+        assertNull(sm.getFilterEvaluator("first"));
+        assertEquals(sm.getNumberOfFilterEvaluators(), 1);
+        tss.removeSubscriber(s3);
+        assertEquals(sm.getNumberOfFilterEvaluators(), 0);
+    }
+
+    @Test
+    public void testCreateFilterKey() throws Exception {
+        QName name = new QName("http://docs.oasis-open.org/wsn/b-2", "TopicExpression");
+        TopicExpressionType first = new TopicExpressionType();
+        first.setDialect("http://docs.oasis-open.org/wsn/t-1/TopicExpression/Concrete");
+        first.getContent().add("test/topic");
+        TopicExpressionType second = new TopicExpressionType();
+        second.setDialect("http://docs.oasis-open.org/wsn/t-1/TopicExpression/Concrete");
+        second.getContent().add("test/topic");
+        TopicExpressionType other = new TopicExpressionType();
+        other.setDialect("http://docs.oasis-open.org/wsn/t-1/TopicExpression/Concrete");
+        other.getContent().add("test/other");
+
+        assertEquals(WSNFilterEvaluator.createKey(null, null), "");
+        assertEquals(WSNFilterEvaluator.createKey(Collections.singletonMap(name, first), null),
+                WSNFilterEvaluator.createKey(Collections.singletonMap(name, second), null));
+        assertNotEquals(WSNFilterEvaluator.createKey(Collections.singletonMap(name, first), null),
+                WSNFilterEvaluator.createKey(Collections.singletonMap(name, other), null));
+        assertNull(WSNFilterEvaluator.createKey(Collections.singletonMap(name, "unknown"), null));
+    }
+
     @Test
     public void testGetSubscriptionHandle() throws Exception {
         AbstractNotificationProducer.SubscriptionHandle handle = sm.getSubscriptionHandle(s.getAttribute(WSNSubscriptionManager.WSN_SUBSCRIBER_TOKEN));
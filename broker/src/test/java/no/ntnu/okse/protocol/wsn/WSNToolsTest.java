@@ -295,6 +295,24 @@ public class WSNToolsTest {
         assertEquals(time.longValue(), 999*S);
     }
 
+    @Test
+    public void testGetMessageContent() throws Exception {
+        Message xml = new Message("<data>test</data>", "test/sub", null, "Test");
+        Object content = WSNTools.getMessageContent(xml, "Content");
+        assertNotNull(content);
+        // The content is parsed once, and then shared
+        assertSame(WSNTools.getMessageContent(xml, "Content"), content);
+
+        Message text = new Message("plain text", "test/sub", null, "Test");
+        Object wrapped = WSNTools.getMessageContent(text, "Content");
+        assertTrue(wrapped instanceof Element);
+        assertEquals(((Element) wrapped).getTagName(), "Content");
+        assertEquals(((Element) wrapped).getTextContent(), "plain text");
+
+        WSNTools.NotifyWithContext notify = WSNTools.buildNotifyWithContext(text, "Content");
+        assertSame(WSNTools.extractMessageContentFromNotify(notify.notify), wrapped);
+    }
+
     @Test
     public void testInterpretTerminationTime() throws Exception {
         long time = WSNTools.interpretTerminationTime("P1D");
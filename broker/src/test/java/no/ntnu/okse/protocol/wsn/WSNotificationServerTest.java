@@ -0,0 +1,267 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Norwegian Defence Research Establishment / NTNU
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package no.ntnu.okse.protocol.wsn;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.mockito.Mockito;
+import org.ntnunotif.wsnu.base.soap.Soap;
+import org.oasis_open.docs.wsn.b_2.Notify;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.*;
+
+public class WSNotificationServerTest {
+
+    private static final long MAX_REQUEST_SIZE = 16;
+
+    WSNotificationServer server;
+    WSNotificationServer.HttpHandler handler;
+    Request baseRequest;
+    HttpServletRequest request;
+    HttpServletResponse response;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        server = new WSNotificationServer("0.0.0.0", 61099, 5L, 1, "Content", false, null, 0, 8, 1024, MAX_REQUEST_SIZE);
+        handler = server.new HttpHandler();
+        baseRequest = Mockito.mock(Request.class);
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(Mockito.mock(ServletOutputStream.class));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        server.stopServer();
+        server = null;
+    }
+
+    /**
+     * Creates a servlet input stream reading the given body
+     */
+    private static ServletInputStream body(byte[] bytes) {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        return new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+
+            @Override
+            public int read() {
+                return in.read();
+            }
+        };
+    }
+
+    @Test
+    public void testRejectsOversizedContentLength() throws Exception {
+        Mockito.when(request.getContentLength()).thenReturn((int) MAX_REQUEST_SIZE + 1);
+
+        handler.handle("/", baseRequest, request, response);
+
+        Mockito.verify(response).setStatus(HttpStatus.REQUEST_ENTITY_TOO_LARGE_413);
+        Mockito.verify(baseRequest).setHandled(true);
+        // The body is never read
+        Mockito.verify(request, Mockito.never()).getInputStream();
+        assertEquals(server.getTotalBadRequests(), 1);
+    }
+
+    @Test
+    public void testRejectsOversizedChunkedBody() throws Exception {
+        Mockito.when(request.getContentLength()).thenReturn(-1);
+        Mockito.when(request.getHeader("Transfer-Encoding")).thenReturn("chunked");
+        Mockito.when(request.getInputStream()).thenReturn(body(new byte[(int) MAX_REQUEST_SIZE * 4]));
+
+        handler.handle("/", baseRequest, request, response);
+
+        Mockito.verify(response).setStatus(HttpStatus.REQUEST_ENTITY_TOO_LARGE_413);
+        Mockito.verify(response, Mockito.never()).setStatus(HttpStatus.BAD_REQUEST_400);
+        // The parser fails on the cut off body, but its fault is not written to the response
+        Mockito.verify(response, Mockito.never()).getOutputStream();
+        assertEquals(server.getTotalBadRequests(), 1);
+    }
+
+    @Test
+    public void testAcceptsBodyAtLimit() throws Exception {
+        Mockito.when(request.getContentLength()).thenReturn(-1);
+        Mockito.when(request.getHeader("Transfer-Encoding")).thenReturn("chunked");
+        byte[] bytes = "<a>012345678</a>".getBytes();
+        assertEquals(bytes.length, MAX_REQUEST_SIZE);
+        Mockito.when(request.getInputStream()).thenReturn(body(bytes));
+
+        handler.handle("/", baseRequest, request, response);
+
+        Mockito.verify(response, Mockito.never()).setStatus(HttpStatus.REQUEST_ENTITY_TOO_LARGE_413);
+        Mockito.verify(baseRequest, Mockito.atLeastOnce()).setHandled(true);
+    }
+
+    @Test
+    public void testLimitedInputStream() throws Exception {
+        InputStream atLimit = new WSNotificationServer.LimitedInputStream(new ByteArrayInputStream(new byte[16]), 16);
+        assertEquals(atLimit.read(new byte[32], 0, 32), 16);
+        assertEquals(atLimit.read(), -1);
+
+        WSNotificationServer.LimitedInputStream overLimit =
+                new WSNotificationServer.LimitedInputStream(new ByteArrayInputStream(new byte[17]), 16);
+        assertEquals(overLimit.read(new byte[16], 0, 16), 16);
+        assertFalse(overLimit.isLimitExceeded());
+        try {
+            overLimit.read();
+            fail("Reading past the limit should fail");
+        } catch (IOException e) {
+            assertTrue(overLimit.isLimitExceeded());
+        }
+    }
+
+    /**
+     * A consumer endpoint that holds every request until it is released, and answers with a given status
+     */
+    private static class Consumer extends AbstractHandler {
+        final Server jetty = new Server(0);
+        final AtomicInteger active = new AtomicInteger(0);
+        final AtomicInteger maxActive = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int status;
+
+        Consumer(int status) throws Exception {
+            this.status = status;
+            jetty.setHandler(this);
+            jetty.start();
+        }
+
+        String getEndpoint() {
+            return "http://localhost:" + ((ServerConnector) jetty.getConnectors()[0]).getLocalPort() + "/consumer";
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            response.setStatus(status);
+            baseRequest.setHandled(true);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static WSNEnvelopeCache.SerializedEnvelope envelope() {
+        Notify notify = WSNTools.buildNotifyWithContext("Content", "test", "test/sub", null, null).notify;
+        return new WSNEnvelopeCache().getEnvelope(notify, Soap.SoapVersion.SOAP_1_1);
+    }
+
+    @Test
+    public void testAsyncDeliveryIsLimitedPerDestination() throws Exception {
+        // At most 2 requests in flight and 3 waiting for a connection to the consumer
+        server.stopServer();
+        server = new WSNotificationServer("0.0.0.0", 61099, 5L, 1, "Content", false, null, 0, 2, 3, MAX_REQUEST_SIZE);
+        server.startHttpClient();
+        Consumer consumer = new Consumer(HttpStatus.OK_200);
+        WSNEnvelopeCache.SerializedEnvelope envelope = envelope();
+        try {
+            // The requests are handed to the client on the calling thread, without a hop through another queue
+            for (int i = 0; i < 2; i++) server.sendEnvelope(consumer.getEndpoint(), envelope);
+            assertEquals(server.getInFlightRequests(), 2);
+            waitFor(() -> consumer.active.get() == 2);
+
+            // Three requests are queued, and the one past the queue limit fails right away
+            for (int i = 0; i < 4; i++) server.sendEnvelope(consumer.getEndpoint(), envelope);
+            waitFor(() -> server.getTotalErrors() == 1);
+            assertEquals(server.getInFlightRequests(), 5);
+            assertEquals(consumer.active.get(), 2);
+            assertEquals(server.getTotalMessagesSent(), 0);
+
+            consumer.release.countDown();
+            waitFor(() -> server.getInFlightRequests() == 0);
+            waitFor(() -> server.getTotalMessagesSent() == 5);
+            assertEquals(consumer.maxActive.get(), 2);
+            assertEquals(server.getTotalErrors(), 1);
+            assertEquals(server.getTotalBadRequests(), 0);
+        } finally {
+            consumer.release.countDown();
+            consumer.jetty.stop();
+        }
+    }
+
+    @Test
+    public void testAsyncDeliveryCountsConsumerErrors() throws Exception {
+        server.startHttpClient();
+        Consumer consumer = new Consumer(HttpStatus.INTERNAL_SERVER_ERROR_500);
+        consumer.release.countDown();
+        try {
+            server.sendEnvelope(consumer.getEndpoint(), envelope());
+            waitFor(() -> server.getTotalMessagesSent() == 1);
+            waitFor(() -> server.getTotalBadRequests() == 1);
+            assertEquals(server.getTotalErrors(), 0);
+            assertEquals(server.getInFlightRequests(), 0);
+        } finally {
+            consumer.jetty.stop();
+        }
+
+        // The consumer is gone, so the request fails
+        server.sendEnvelope(consumer.getEndpoint(), envelope());
+        waitFor(() -> server.getTotalErrors() == 1);
+        assertEquals(server.getInFlightRequests(), 0);
+        assertEquals(server.getTotalMessagesSent(), 1);
+    }
+}